@@ -19,6 +19,8 @@ public interface ClientCallback extends com.zeroc.Ice.Object
 {
     void onNewMessage(Msg m, com.zeroc.Ice.Current current);
 
+    void onNewMessages(Msg[] msgs, com.zeroc.Ice.Current current);
+
     void onUserJoined(String username, com.zeroc.Ice.Current current);
 
     void onUserLeft(String username, com.zeroc.Ice.Current current);
@@ -65,6 +67,24 @@ public interface ClientCallback extends com.zeroc.Ice.Object
         return inS.setResult(inS.writeEmptyParams());
     }
 
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_onNewMessages(ClientCallback obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        Msg[] iceP_msgs;
+        iceP_msgs = MsgSeqHelper.read(istr);
+        inS.endReadParams();
+        obj.onNewMessages(iceP_msgs, current);
+        return inS.setResult(inS.writeEmptyParams());
+    }
+
     /**
      * @hidden
      * @param obj -
@@ -109,6 +129,7 @@ public interface ClientCallback extends com.zeroc.Ice.Object
         "ice_isA",
         "ice_ping",
         "onNewMessage",
+        "onNewMessages",
         "onUserJoined",
         "onUserLeft"
     };
@@ -148,9 +169,13 @@ public interface ClientCallback extends com.zeroc.Ice.Object
             }
             case 5:
             {
-                return _iceD_onUserJoined(this, in, current);
+                return _iceD_onNewMessages(this, in, current);
             }
             case 6:
+            {
+                return _iceD_onUserJoined(this, in, current);
+            }
+            case 7:
             {
                 return _iceD_onUserLeft(this, in, current);
             }
@@ -2,68 +2,77 @@ package proyecto_chat.client;
 
 import javax.sound.sampled.*;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.*;
+import proyecto_chat.common.AudioCodec;
+import proyecto_chat.common.CallProfile;
+import proyecto_chat.common.RelayProtocol;
 
 public class AudioReceiver implements Runnable, AutoCloseable {
-    private final int listenPort;
-    private final String relayHost;
-    private final int relayPort;
-    private final String callId;
+    private static final int MAX_DELAY_MS = 300;   // tope de la profundidad del jitter buffer
+    static final int LINE_FRAMES = 3;              // frames que caben en el buffer de la línea de salida
+
+    /** Destino del audio reproducido; normalmente la línea de salida (lo cambia el arnés de latencia). */
+    interface Output extends AutoCloseable {
+        void write(byte[] pcm, int len) throws Exception;
+        @Override void close();
+    }
+
+    private final RelaySession session; // ya registrada en el relay
+    private final CallProfile profile;
+    private final JitterMixer jitter;
+    private volatile Output output;
 
     private volatile boolean running = true;
-    private DatagramSocket socket;      // ¡hazlo de campo para poder cerrarlo!
-    private SourceDataLine speakers;    // idem
-
-    public AudioReceiver(int listenPort, String relayHost, int relayPort, String callId) {
-        this.listenPort = listenPort;
-        this.relayHost = relayHost;
-        this.relayPort = relayPort;
-        this.callId = callId;
+
+    public AudioReceiver(RelaySession session, AudioCodec codec, CallProfile profile) {
+        this(session, codec, profile, null);
+    }
+
+    AudioReceiver(RelaySession session, AudioCodec codec, CallProfile profile, Output output) {
+        this.session = session;
+        this.profile = profile;
+        this.jitter = new JitterMixer(codec, profile.sampleRate(), MAX_DELAY_MS);
+        this.output = output;
     }
 
     // método "stop" seguro (nombre propio para no confundir con Thread.stop)
     public void stop() {
+        if (!running) return;
         running = false;
-        if (socket != null && !socket.isClosed()) socket.close();
-        if (speakers != null) {
-            try { speakers.drain(); } catch (Exception ignored) {}
-            try { speakers.close(); } catch (Exception ignored) {}
-        }
+        session.close(); // desbloquea receiveAudio
+        jitter.close();  // desbloquea la reproducción
+        Output out = output;
+        if (out != null) out.close();
+        System.out.println("Audio recibido: " + jitter.stats());
     }
 
     // por si usas try-with-resources en otro lado
     @Override public void close() { stop(); }
 
+    /** Resumen de los jitter buffers (paquetes tarde, perdidos, profundidad...), uno por fuente. */
+    public String getStats() {
+        return jitter.stats();
+    }
+
     @Override
     public void run() {
+        Thread playout = new Thread(this::playout, "audio-playout");
+        playout.setDaemon(true);
+        playout.start();
         try {
-            AudioFormat format = new AudioFormat(44100.0f, 16, 1, true, false);
-            speakers = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
-            speakers.open(format);
-            speakers.start();
-
-            socket = new DatagramSocket(listenPort);
-
-            // 2) ENVÍO DE REGISTRO (ver abajo la corrección del DatagramPacket)
-            byte[] idBytes = callId.getBytes();
-            byte[] reg = new byte[4 + idBytes.length];
-            reg[0] = (byte)(idBytes.length >> 24);
-            reg[1] = (byte)(idBytes.length >> 16);
-            reg[2] = (byte)(idBytes.length >> 8);
-            reg[3] = (byte)(idBytes.length);
-            System.arraycopy(idBytes, 0, reg, 4, idBytes.length);
-
-            DatagramPacket regPacket =
-                new DatagramPacket(reg, reg.length, new InetSocketAddress(relayHost, relayPort));
-            socket.send(regPacket);
-
-            byte[] buf = new byte[8192];
+            byte[] buf = new byte[RelayProtocol.MAX_DATAGRAM];
             DatagramPacket packet = new DatagramPacket(buf, buf.length);
 
+            // Este hilo solo recibe: el orden y el ritmo los pone el jitter buffer de cada fuente
             while (running) {
-                socket.receive(packet); // se desbloquea con close() al hacer stop()
-                speakers.write(packet.getData(), 0, packet.getLength());
+                int type = session.receiveAudio(packet); // se desbloquea con close() al hacer stop()
+                int source = RelayProtocol.readSource(buf);
+                if (type == RelayProtocol.SILENCE) {
+                    jitter.putSilence(source, RelayProtocol.readSeq(buf), RelayProtocol.readTimestamp(buf),
+                            buf[RelayProtocol.AUDIO_HEADER] & 0xFF);
+                } else {
+                    jitter.put(source, buf, RelayProtocol.AUDIO_HEADER, packet.getLength() - RelayProtocol.AUDIO_HEADER,
+                            RelayProtocol.readSeq(buf), RelayProtocol.readTimestamp(buf));
+                }
             }
         } catch (Exception e) {
             // Si el socket se cerró por stop(), habrá un SocketException: está bien.
@@ -72,4 +81,49 @@ public class AudioReceiver implements Runnable, AutoCloseable {
             stop(); // asegura cierre si salimos por excepción
         }
     }
+
+    private void playout() {
+        try {
+            byte[] pcm = new byte[65536];
+            int n;
+            while ((n = jitter.next(pcm)) >= 0) {
+                if (output == null) {
+                    output = new LineOutput(profile);
+                    if (!running) {
+                        output.close(); // se colgó mientras se abría
+                        break;
+                    }
+                }
+                output.write(pcm, n);
+            }
+        } catch (Exception e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    /**
+     * Línea de salida con espacio para {@link #LINE_FRAMES} frames: el write bloqueante marca
+     * el ritmo y la latencia la decide el jitter buffer.
+     */
+    private static final class LineOutput implements Output {
+        private final SourceDataLine line;
+
+        LineOutput(CallProfile profile) throws LineUnavailableException {
+            AudioFormat format = new AudioFormat(profile.sampleRate(), 16, 1, true, false);
+            line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+            line.open(format, profile.frameBytes() * LINE_FRAMES);
+            line.start();
+        }
+
+        @Override
+        public void write(byte[] pcm, int len) {
+            line.write(pcm, 0, len);
+        }
+
+        @Override
+        public void close() {
+            try { line.drain(); } catch (Exception ignored) {}
+            try { line.close(); } catch (Exception ignored) {}
+        }
+    }
 }
@@ -1,65 +1,100 @@
 package proyecto_chat.client;
 
 import javax.sound.sampled.*;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.io.IOException;
+import proyecto_chat.common.AudioCodec;
+import proyecto_chat.common.CallProfile;
 
 public class AudioSender implements Runnable {
-    private final String callId;
-    private final InetAddress serverAddr;
-    private final int serverPort;
+    private static final int CAPTURE_FRAMES = 2;      // frames que caben en el buffer del micrófono
+    private static final int HANGOVER_MS = 200;       // voz que se sigue enviando tras la última detectada
+    private static final int SILENCE_REPEAT_MS = 500; // cada cuánto se repite SILENCE mientras no se habla
+
+    private final RelaySession session; // socket y token de la llamada
+    private final AudioCodec codec;     // negociado en CALL_START/CALL_ACCEPT
+    private final CallProfile profile;  // frecuencia y tamaño de frame, también negociados
+    private final VoiceActivityDetector vad;
+    private final int silenceRepeat;    // en frames
+    private final byte[] encoded;
     private volatile boolean running = true;
 
-    public AudioSender(String callId, InetAddress serverAddr, int serverPort) {
-        this.callId = callId;
-        this.serverAddr = serverAddr;
-        this.serverPort = serverPort;
+    // Estado del envío (solo el hilo que captura)
+    private int seq = 0;
+    private int timestamp = 0; // posición de captura en muestras; avanza también en silencio
+    private int silentRun = 0;
+
+    // Contadores de la llamada
+    private volatile long sentFrames;
+    private volatile long suppressedFrames;
+    private volatile long silenceMarkers;
+
+    public AudioSender(RelaySession session, AudioCodec codec, CallProfile profile) {
+        this.session = session;
+        this.codec = codec;
+        this.profile = profile;
+        double frameMs = profile.frameMillis();
+        this.vad = new VoiceActivityDetector((int) Math.ceil(HANGOVER_MS / frameMs));
+        this.silenceRepeat = Math.max(1, (int) (SILENCE_REPEAT_MS / frameMs));
+        this.encoded = new byte[codec.maxEncodedSize(profile.frameBytes())];
     }
 
     public void stop() { running = false; }
 
+    public long getSentFrames() { return sentFrames; }
+    public long getSuppressedFrames() { return suppressedFrames; }
+    public long getSilenceMarkers() { return silenceMarkers; }
+
     @Override
     public void run() {
         try {
-            // Formato estándar PCM
-            AudioFormat format = new AudioFormat(44100.0f, 16, 1, true, false);
+            AudioFormat format = new AudioFormat(profile.sampleRate(), 16, 1, true, false);
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
             TargetDataLine microphone = (TargetDataLine) AudioSystem.getLine(info);
-            microphone.open(format);
+            // Buffer del micrófono a la medida del frame: uno más grande solo suma latencia
+            microphone.open(format, profile.frameBytes() * CAPTURE_FRAMES);
             microphone.start();
 
-            DatagramSocket socket = new DatagramSocket();
-            byte[] buffer = new byte[4096];
-
+            byte[] buffer = new byte[profile.frameBytes()];
             while (running) {
                 int read = microphone.read(buffer, 0, buffer.length);
-                if (read > 0) {
-                    
-                    byte[] callIdBytes = callId.getBytes();
-                    byte[] packet = new byte[4 + callIdBytes.length + read];
-
-                    
-                    packet[0] = (byte)(callIdBytes.length >> 24);
-                    packet[1] = (byte)(callIdBytes.length >> 16);
-                    packet[2] = (byte)(callIdBytes.length >> 8);
-                    packet[3] = (byte)(callIdBytes.length);
-
-                    
-                    System.arraycopy(callIdBytes, 0, packet, 4, callIdBytes.length);
-                    
-                    System.arraycopy(buffer, 0, packet, 4 + callIdBytes.length, read);
-
-                    DatagramPacket dp = new DatagramPacket(packet, packet.length, serverAddr, serverPort);
-                    socket.send(dp);
-                }
+                if (read > 0) process(buffer, read);
             }
 
             microphone.stop();
             microphone.close();
-            socket.close();
         } catch (Exception e) {
-            e.printStackTrace();
+            // Si la sesión se cerró al colgar, el envío falla: está bien.
+            if (running) e.printStackTrace();
+        } finally {
+            System.out.println("Audio enviado: " + stats());
         }
     }
+
+    /** Envía un frame capturado: audio si hay voz, SILENCE de vez en cuando si no. */
+    void process(byte[] pcm, int len) throws IOException {
+        if (vad.isSpeech(pcm, len)) {
+            // Encabezado con token, seq y timestamp (ver RelayProtocol) y el audio codificado
+            int n = codec.encode(pcm, 0, len, encoded, 0);
+            session.sendAudio(seq, timestamp, encoded, 0, n);
+            seq = (seq + 1) & 0xFFFF;
+            sentFrames++;
+            silentRun = 0;
+        } else {
+            // Silencio: no se envía audio; SILENCE al empezar y cada tanto para el ruido de confort
+            if (silentRun % silenceRepeat == 0) {
+                session.sendSilence(seq, timestamp, vad.noiseLevel());
+                seq = (seq + 1) & 0xFFFF;
+                silenceMarkers++;
+            }
+            silentRun++;
+            suppressedFrames++;
+        }
+        timestamp += len / 2;
+    }
+
+    String stats() {
+        long total = sentFrames + suppressedFrames;
+        return String.format("perfil=%s frames=%d suprimidos=%d (%.0f%%) silencios=%d", profile.name(), sentFrames,
+                suppressedFrames, total == 0 ? 0.0 : 100.0 * suppressedFrames / total, silenceMarkers);
+    }
 }
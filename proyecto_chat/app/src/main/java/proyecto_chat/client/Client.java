@@ -1,48 +1,52 @@
 package proyecto_chat.client;
 import java.util.concurrent.ConcurrentHashMap;
+import proyecto_chat.common.FramedMessageStream;
+import proyecto_chat.common.AudioCodec;
+import proyecto_chat.common.AudioCodecs;
+import proyecto_chat.common.CallProfile;
+import proyecto_chat.common.CallSetup;
 import proyecto_chat.common.Message;
+import proyecto_chat.common.MessageStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Optional;
 import java.util.Scanner;
 
 public class Client {
     private static AudioSender audioSender;
     private static AudioReceiver audioReceiver;
+    private static RelaySession relaySession;      // socket y token de la llamada en curso
     private static Thread senderThread;
     private static Thread receiverThread;
     private static final int CALL_RELAY_PORT = 10000;
-    private static final ConcurrentHashMap<String, String> activeCallIds = new ConcurrentHashMap<>();
+    // usuario -> CALL_START enviado o recibido (callId y codecs ofrecidos)
+    private static final ConcurrentHashMap<String, CallSetup> activeCalls = new ConcurrentHashMap<>();
     private static String currentCallId = null;   // callId de la llamada en curso (1:1 o grupo)
-    private static String SERVER_IP = null;       // para enviar BYE al relay en hangup
+    // Perfil de audio preferido (-Dchat.call.profile=wb20|wb10|nb20|legacy); se negocia con el otro lado
+    private static final CallProfile PREFERRED_PROFILE =
+            Optional.ofNullable(CallProfile.forName(System.getProperty("chat.call.profile"))).orElse(CallProfile.WB20);
 
 
     public static void main(String[] args) {
         String serverAddress = "127.0.0.1";
         int port = 9090;
 
+        // Protocolo por tramas: lo entienden tanto el servidor bloqueante como el NIO
         try (Socket socket = new Socket(serverAddress, port);
-                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                MessageStream stream = FramedMessageStream.connect(socket.getInputStream(), socket.getOutputStream());
                 Scanner scanner = new Scanner(System.in)) {
 
-                     SERVER_IP = serverAddress;  
-
             System.out.print("Ingresa tu nombre de usuario: ");
             String username = scanner.nextLine().trim().toLowerCase();
-            out.writeObject(username);
+            stream.writeObject(username);
 
             Thread listenerThread = new Thread(() -> {
                 try {
                     while (true) {
-                        Message message = (Message) in.readObject();
+                        Message message = (Message) stream.readObject();
                         switch (message.getType()) {
                             case TEXT:
                                 System.out.println("\n[" + message.getSender() + "]: " + message.getTextContent());
@@ -54,18 +58,18 @@ public class Client {
                                 break;
 
                             case CALL_START: {
-                                String incomingCallId = message.getTextContent(); 
                                 String caller = message.getSender().toLowerCase();
-                                activeCallIds.put(caller, incomingCallId);
+                                activeCalls.put(caller, CallSetup.parse(message.getTextContent()));
                                 System.out.println("\n[" + message.getSender()
                                 + "] está intentando llamarte. Escribe: callaccept@" + message.getSender());
                                 break;
                             }
 
                             case CALL_ACCEPT: {
-                                String acceptedCallId = message.getTextContent(); 
+                                CallSetup accepted = CallSetup.parse(message.getTextContent());
                                 System.out.println("\n[" + message.getSender() + "] aceptó tu llamada. Conectando audio...");
-                                startCall(acceptedCallId, serverAddress);
+                                startCall(accepted.getCallId(), accepted.get("codec"),
+                                        CallProfile.forName(accepted.get("profile")), serverAddress);
                                 break;
                             }
 
@@ -119,36 +123,43 @@ public class Client {
                             msg = new Message(Message.MessageType.JOIN_GROUP, username, "server", content);
                             break;
                         case "call": {
-                            String newCallId = java.util.UUID.randomUUID().toString(); // <- nombre distinto
-                            activeCallIds.put(content.toLowerCase(), newCallId);
-                            msg = new Message(Message.MessageType.CALL_START, username, content, newCallId);
+                            CallSetup offer = new CallSetup(java.util.UUID.randomUUID().toString())
+                                    .with("codecs", AudioCodecs.offer())
+                                    .with("profiles", CallProfile.offer(PREFERRED_PROFILE));
+                            activeCalls.put(content.toLowerCase(), offer);
+                            msg = new Message(Message.MessageType.CALL_START, username, content, offer.toString());
                             break;
                         }
 
                         case "callaccept": {
                             String peer = content.toLowerCase();
-                            String acceptCallId = activeCallIds.get(peer); // <- nombre distinto
-                            if (acceptCallId == null) {
+                            CallSetup incoming = activeCalls.get(peer);
+                            if (incoming == null) {
                                 
                                 System.out.println("No tengo callId para " + content + ". Primero debe llegarte CALL_START.");
                                 break;
                             }
-                            msg = new Message(Message.MessageType.CALL_ACCEPT, username, content, acceptCallId);
-                            startCall(acceptCallId, serverAddress);
+                            // Se eligen codec y perfil entre los que ofreció quien llama
+                            String codec = AudioCodecs.choose(incoming.get("codecs"));
+                            CallProfile profile = CallProfile.choose(incoming.get("profiles"), PREFERRED_PROFILE);
+                            msg = new Message(Message.MessageType.CALL_ACCEPT, username, content,
+                                    new CallSetup(incoming.getCallId()).with("codec", codec)
+                                            .with("profile", profile.name()).toString());
+                            startCall(incoming.getCallId(), codec, profile, serverAddress);
                             break;
                         }
 
                         case "hangup":
                             msg = new Message(Message.MessageType.CALL_END, username, content, "");
                             stopCall();
-                            activeCallIds.remove(content.toLowerCase());
+                            activeCalls.remove(content.toLowerCase());
                             break;
                         default:
                             msg = new Message(Message.MessageType.TEXT, username, cmd, content);
                     }
 
                     if (msg != null)
-                        out.writeObject(msg);
+                        stream.writeObject(msg);
                 }
             }
         } catch (Exception e) {
@@ -156,12 +167,21 @@ public class Client {
         }
     }
 
-    private static void startCall(String callId, String serverAddress) {
+    private static void startCall(String callId, String codecName, CallProfile profile, String serverAddress) {
         try {
             int localPort = 12000;
             currentCallId = callId;
-            audioSender = new AudioSender(callId, InetAddress.getByName(serverAddress), CALL_RELAY_PORT);
-            audioReceiver = new AudioReceiver(localPort, serverAddress, CALL_RELAY_PORT, callId);
+            // Sin codec en el ACCEPT (cliente anterior) se habla PCM
+            AudioCodec encoder = AudioCodecs.create(codecName);
+            if (encoder == null) encoder = AudioCodecs.create(AudioCodecs.PCM);
+            // Sin perfil (cliente anterior) se usa el formato de antes
+            if (profile == null) profile = CallProfile.LEGACY;
+            System.out.println("Codec de la llamada: " + encoder.name() + ", perfil " + profile);
+            // Registro en el relay: devuelve el token que llevan los paquetes de audio
+            relaySession = RelaySession.open(serverAddress, CALL_RELAY_PORT, localPort, callId,
+                    encoder.name(), profile.sampleRate());
+            audioSender = new AudioSender(relaySession, encoder, profile);
+            audioReceiver = new AudioReceiver(relaySession, AudioCodecs.create(encoder.name()), profile);
             senderThread = new Thread(audioSender);
             receiverThread = new Thread(audioReceiver);
             senderThread.start();
@@ -174,10 +194,12 @@ public class Client {
 
     private static void stopCall() {
         try {
-              // manda BYE al relay si hay callId activo
-            if (currentCallId != null) {
-            sendRelayBye(currentCallId);
+            // manda BYE al relay (por el mismo socket registrado) y cierra la sesión
+            if (relaySession != null) {
+                relaySession.close();
+                relaySession = null;
             }
+            currentCallId = null;
 
             if (audioSender != null)
                 audioSender.stop();
@@ -191,26 +213,4 @@ public class Client {
             System.err.println("Error stop audio: " + e.getMessage());
         }
     }
-
-    private static void sendRelayBye(String callId) {
-    if (callId == null || SERVER_IP == null) return;
-    try (DatagramSocket s = new DatagramSocket()) {
-        byte[] id = callId.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        // Framing: [4 bytes len][callId][1 byte opcode=0x01(BYE)]
-        byte[] pkt = new byte[4 + id.length + 1];
-        pkt[0] = (byte)(id.length >> 24);
-        pkt[1] = (byte)(id.length >> 16);
-        pkt[2] = (byte)(id.length >> 8);
-        pkt[3] = (byte)(id.length);
-        System.arraycopy(id, 0, pkt, 4, id.length);
-        pkt[4 + id.length] = 0x01; // opcode BYE
-        DatagramPacket dp = new DatagramPacket(
-            pkt, pkt.length,
-            InetAddress.getByName(SERVER_IP),
-            CALL_RELAY_PORT
-        );
-        s.send(dp);
-    } catch (Exception ignored) {}
 }
-
-}
\ No newline at end of file
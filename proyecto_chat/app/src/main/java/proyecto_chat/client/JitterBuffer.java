@@ -0,0 +1,337 @@
+package proyecto_chat.client;
+
+import proyecto_chat.common.AudioCodec;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffer de reproducción de una fuente de audio de la llamada (ver {@link JitterMixer}). El
+ * hilo de red entrega los paquetes con {@link #put} y el de reproducción los pide en orden
+ * con {@link #next}.
+ *
+ * Ordena por número de secuencia, descarta duplicados y paquetes que llegan después de
+ * su turno, y ajusta la profundidad objetivo al jitter medido (estimador de RFC 3550).
+ * Un paquete que falta se oculta repitiendo el último frame cada vez más atenuado, y se da
+ * por perdido cuando detrás ya hay la profundidad objetivo; si tras {@link #MAX_CONCEALED}
+ * frames ocultados sigue sin haber nada, deja de reproducir hasta volver a llenarse.
+ *
+ * Un marcador SILENCE ocupa su número de secuencia como un frame más: al reproducirlo se
+ * pasa a ruido de confort con el nivel indicado, que sigue hasta que vuelve la voz y el
+ * buffer junta otra vez la profundidad objetivo (sin contarlo como pérdida ni vacío).
+ */
+final class JitterBuffer {
+    private static final int CAPACITY = 64;      // paquetes; potencia de 2
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_CONCEALED = 3;  // frames inventados seguidos antes de volver a llenar
+    private static final int TRIM_MARGIN = 2;    // frames de más tolerados antes de descartar para bajar la latencia
+
+    private final AudioCodec codec;
+    private final int sampleRate;
+    private final int maxDelayMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+
+    // Paquetes codificados, en la posición seq & MASK
+    private final byte[][] data = new byte[CAPACITY][];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] seqs = new int[CAPACITY];
+    private final boolean[] present = new boolean[CAPACITY];
+    private final int[] levels = new int[CAPACITY]; // -dBov si es SILENCE, -1 si es audio
+    private int count;
+
+    private boolean started;   // ya se conoce el primer seq
+    private boolean playing;   // false mientras se llena hasta la profundidad objetivo
+    private boolean closed;
+    private int nextSeq;       // siguiente seq a reproducir
+
+    // Jitter (ms) y duración de cada frame, medidos con los paquetes
+    private double jitterMillis;
+    private double lastTransit = Double.NaN;
+    private int lastSeq = -1;
+    private int lastTimestamp;
+    private boolean lastWasAudio;
+    private double frameMillis = 20;
+    private int target = 1;    // frames
+
+    // Último frame reproducido, para ocultar pérdidas
+    private byte[] last = new byte[0];
+    private int lastLength;
+    private int concealedRun;
+
+    // Ruido de confort mientras el otro lado no habla
+    private boolean silent;
+    private double noiseAmplitude;
+    private int noiseSeed = 0x2545F491;
+
+    private long received, duplicates, late, lost, concealed, underruns, trimmed, silences, comfortFrames;
+
+    JitterBuffer(AudioCodec codec, int sampleRate, int maxDelayMillis) {
+        this.codec = codec;
+        this.sampleRate = sampleRate;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /** Guarda un paquete codificado; {@code timestamp} es la posición de captura en muestras. */
+    void put(byte[] buf, int off, int len, int seq, int timestamp) {
+        store(buf, off, len, seq, timestamp, -1);
+    }
+
+    /** Guarda un marcador SILENCE con el nivel del ruido de fondo en -dBov. */
+    void putSilence(int seq, int timestamp, int level) {
+        store(null, 0, 0, seq, timestamp, level);
+    }
+
+    private void store(byte[] buf, int off, int len, int seq, int timestamp, int level) {
+        lock.lock();
+        try {
+            if (closed) return;
+            received++;
+            if (level >= 0) silences++;
+            measure(seq, timestamp, level < 0);
+
+            if (!started) {
+                started = true;
+                nextSeq = seq;
+            }
+            int ahead = (short) (seq - nextSeq);
+            if (ahead < 0 && ahead >= -CAPACITY) {
+                late++;
+                return;
+            }
+            if (ahead < 0 || ahead >= CAPACITY) {
+                // Salto mayor que el buffer (el otro lado reinició su envío): se sigue desde aquí
+                clear();
+                nextSeq = seq;
+            }
+
+            int slot = seq & MASK;
+            if (present[slot]) {
+                duplicates++;
+                return;
+            }
+            if (len > 0) {
+                if (data[slot] == null || data[slot].length < len) data[slot] = new byte[len];
+                System.arraycopy(buf, off, data[slot], 0, len);
+            }
+            lengths[slot] = len;
+            levels[slot] = level;
+            seqs[slot] = seq;
+            present[slot] = true;
+            count++;
+
+            if (!playing && count >= target) {
+                // Al volver a reproducir se empieza por el paquete más viejo que haya
+                while (!present[nextSeq & MASK]) {
+                    lost++;
+                    nextSeq = (nextSeq + 1) & 0xFFFF;
+                }
+                playing = true;
+                ready.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Siguiente frame en PCM (real u ocultado). Espera mientras el buffer se llena;
+     * devuelve -1 al cerrarlo.
+     */
+    int next(byte[] pcm) throws InterruptedException {
+        return take(pcm, true);
+    }
+
+    /**
+     * Como {@link #next} pero sin esperar: devuelve 0 mientras el buffer se llena. Lo usa
+     * {@link JitterMixer} para avanzar a la vez los buffers de varias fuentes.
+     */
+    int poll(byte[] pcm) {
+        try {
+            return take(pcm, false);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e); // sin espera no se interrumpe
+        }
+    }
+
+    private int take(byte[] pcm, boolean wait) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                while (!closed && !playing) {
+                    if (!wait) return 0;
+                    ready.await();
+                }
+                if (closed) return -1;
+
+                // Más profundidad de la necesaria: se descartan frames viejos para bajar la latencia
+                while (count > target + TRIM_MARGIN) {
+                    int slot = nextSeq & MASK;
+                    if (present[slot]) {
+                        present[slot] = false;
+                        count--;
+                        trimmed++;
+                    } else {
+                        lost++;
+                    }
+                    nextSeq = (nextSeq + 1) & 0xFFFF;
+                }
+
+                int slot = nextSeq & MASK;
+                boolean have = present[slot] && seqs[slot] == nextSeq;
+
+                if (have && levels[slot] >= 0) {
+                    // Empieza (o sigue) el silencio del otro lado
+                    silent = true;
+                    noiseAmplitude = 32768 * Math.pow(10, -levels[slot] / 20.0) * Math.sqrt(3);
+                    present[slot] = false;
+                    count--;
+                    nextSeq = (nextSeq + 1) & 0xFFFF;
+                    return comfort(pcm);
+                }
+                if (silent) {
+                    if (!have && count >= target) {
+                        // Se perdió el primer paquete de voz
+                        lost++;
+                        nextSeq = (nextSeq + 1) & 0xFFFF;
+                        return comfort(pcm);
+                    }
+                    // Al volver la voz se espera a juntar la profundidad objetivo: el ruido de
+                    // confort absorbe el ajuste sin cortar la reproducción
+                    if (!have || count < target) return comfort(pcm);
+                    silent = false;
+                }
+
+                if (have) {
+                    int n = codec.decode(data[slot], 0, lengths[slot], pcm, 0);
+                    present[slot] = false;
+                    count--;
+                    nextSeq = (nextSeq + 1) & 0xFFFF;
+                    remember(pcm, n);
+                    return n;
+                }
+
+                if (count >= target) {
+                    // Ya hay suficientes paquetes posteriores: este se da por perdido
+                    lost++;
+                    nextSeq = (nextSeq + 1) & 0xFFFF;
+                    return conceal(pcm);
+                }
+                if (concealedRun < MAX_CONCEALED && lastLength > 0) {
+                    // Se cubre el hueco sin avanzar: si el paquete llega, se reproduce con un frame
+                    // más de retraso (el recorte lo quita después si sobra)
+                    return conceal(pcm);
+                }
+                underruns++;
+                playing = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Jitter según RFC 3550: J += (|D| - J) / 16, con D la variación del tiempo de tránsito
+    private void measure(int seq, int timestamp, boolean audio) {
+        double arrival = System.nanoTime() / 1_000_000.0;
+        double transit = arrival - timestamp * 1000.0 / sampleRate;
+        if (!Double.isNaN(lastTransit)) {
+            jitterMillis += (Math.abs(transit - lastTransit) - jitterMillis) / 16;
+        }
+        lastTransit = transit;
+
+        // Tras un silencio el timestamp salta: la duración del frame solo se mide entre dos de audio
+        if (audio && lastWasAudio && ((lastSeq + 1) & 0xFFFF) == seq && timestamp - lastTimestamp > 0) {
+            frameMillis = (timestamp - lastTimestamp) * 1000.0 / sampleRate;
+        }
+        lastSeq = seq;
+        lastTimestamp = timestamp;
+        lastWasAudio = audio;
+
+        int maxFrames = Math.max(1, (int) (maxDelayMillis / frameMillis));
+        target = Math.min(maxFrames, 1 + (int) Math.ceil(3 * jitterMillis / frameMillis));
+    }
+
+    // Ruido blanco uniforme con el nivel del último SILENCE
+    private int comfort(byte[] pcm) {
+        comfortFrames++;
+        int n = lastLength > 0 ? lastLength : 2 * (int) (frameMillis * sampleRate / 1000);
+        int seed = noiseSeed;
+        for (int i = 0; i + 1 < n; i += 2) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            int s = (int) (noiseAmplitude * (seed / (double) Integer.MAX_VALUE));
+            pcm[i] = (byte) s;
+            pcm[i + 1] = (byte) (s >> 8);
+        }
+        noiseSeed = seed;
+        return n;
+    }
+
+    private void remember(byte[] pcm, int n) {
+        if (last.length < n) last = new byte[n];
+        System.arraycopy(pcm, 0, last, 0, n);
+        lastLength = n;
+        concealedRun = 0;
+    }
+
+    // Repite el último frame con ganancia decreciente hasta silencio
+    private int conceal(byte[] pcm) {
+        concealed++;
+        concealedRun++;
+        double gain = Math.max(0, 1 - concealedRun / (MAX_CONCEALED + 1.0));
+        for (int i = 0; i + 1 < lastLength; i += 2) {
+            int s = (int) ((short) ((last[i] & 0xFF) | (last[i + 1] << 8)) * gain);
+            pcm[i] = (byte) s;
+            pcm[i + 1] = (byte) (s >> 8);
+        }
+        return lastLength;
+    }
+
+    private void clear() {
+        for (int i = 0; i < CAPACITY; i++) present[i] = false;
+        count = 0;
+    }
+
+    // ---------------------------
+    // Estadísticas
+    // ---------------------------
+
+    int getDepth() {
+        lock.lock();
+        try { return count; } finally { lock.unlock(); }
+    }
+
+    int getTarget() {
+        lock.lock();
+        try { return target; } finally { lock.unlock(); }
+    }
+
+    double getJitterMillis() {
+        lock.lock();
+        try { return jitterMillis; } finally { lock.unlock(); }
+    }
+
+    String stats() {
+        lock.lock();
+        try {
+            return String.format("recibidos=%d duplicados=%d tarde=%d perdidos=%d ocultados=%d vacíos=%d recortados=%d "
+                            + "silencios=%d ruido de confort=%d profundidad=%d objetivo=%d (%.0f ms) jitter=%.1f ms",
+                    received, duplicates, late, lost, concealed, underruns, trimmed, silences, comfortFrames,
+                    count, target, target * frameMillis, jitterMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
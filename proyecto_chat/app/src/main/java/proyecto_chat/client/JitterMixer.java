@@ -0,0 +1,164 @@
+package proyecto_chat.client;
+
+import proyecto_chat.common.AudioCodec;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Audio recibido en una llamada, separado por fuente (el campo que escribe el relay, ver
+ * {@link proyecto_chat.common.RelayProtocol}). Cuando el relay reenvía una llamada grupal
+ * llegan intercaladas las secuencias de varios participantes: cada fuente tiene su propio
+ * {@link JitterBuffer} y {@link #next} suma un frame de cada una, recortando a 16 bits.
+ * Con una sola fuente (llamada de dos, o mezcla del relay) reproduce lo mismo que su buffer.
+ *
+ * Todos los buffers comparten el decodificador: solo decodifica el hilo de reproducción.
+ */
+final class JitterMixer {
+    private final AudioCodec codec;
+    private final int sampleRate;
+    private final int maxDelayMillis;
+
+    private final Map<Integer, JitterBuffer> buffers = new ConcurrentHashMap<>();
+
+    // Avisa al hilo de reproducción que llegó algo mientras ninguna fuente tenía audio
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+    private long arrivals;
+    private boolean closed;
+
+    // Solo los usa el hilo de reproducción
+    private byte[] frame = new byte[0];
+    private int[] sum = new int[0];
+
+    JitterMixer(AudioCodec codec, int sampleRate, int maxDelayMillis) {
+        this.codec = codec;
+        this.sampleRate = sampleRate;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /** Guarda un paquete de {@code source}; ver {@link JitterBuffer#put}. */
+    void put(int source, byte[] buf, int off, int len, int seq, int timestamp) {
+        JitterBuffer jb = buffer(source);
+        if (jb == null) return;
+        jb.put(buf, off, len, seq, timestamp);
+        signal();
+    }
+
+    /** Guarda un marcador SILENCE de {@code source}; ver {@link JitterBuffer#putSilence}. */
+    void putSilence(int source, int seq, int timestamp, int level) {
+        JitterBuffer jb = buffer(source);
+        if (jb == null) return;
+        jb.putSilence(seq, timestamp, level);
+        signal();
+    }
+
+    private JitterBuffer buffer(int source) {
+        JitterBuffer jb = buffers.get(source);
+        if (jb != null) return jb;
+        lock.lock();
+        try {
+            if (closed) return null;
+            return buffers.computeIfAbsent(source, s -> new JitterBuffer(codec, sampleRate, maxDelayMillis));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            arrivals++;
+            arrived.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Siguiente frame en PCM con la suma de las fuentes que tienen audio. Espera mientras
+     * ninguna tiene; devuelve -1 al cerrar.
+     */
+    int next(byte[] pcm) throws InterruptedException {
+        while (true) {
+            long seen;
+            lock.lock();
+            try {
+                if (closed) return -1;
+                seen = arrivals;
+            } finally {
+                lock.unlock();
+            }
+
+            int n = mix(pcm);
+            if (n > 0) return n;
+
+            lock.lock();
+            try {
+                while (!closed && arrivals == seen) arrived.await();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Un frame de cada fuente; la primera va directo a pcm y desde la segunda se suma
+    private int mix(byte[] pcm) {
+        int len = 0;
+        int sources = 0;
+        for (JitterBuffer jb : buffers.values()) {
+            if (sources > 0 && frame.length < pcm.length) frame = new byte[pcm.length];
+            int n = jb.poll(sources == 0 ? pcm : frame);
+            if (n <= 0) continue;
+            if (sources == 1) {
+                if (sum.length < pcm.length / 2) sum = new int[pcm.length / 2];
+                Arrays.fill(sum, 0, pcm.length / 2, 0);
+                addTo(pcm, len);
+            }
+            if (sources >= 1) addTo(frame, n);
+            len = Math.max(len, n);
+            sources++;
+        }
+        if (sources > 1) {
+            for (int i = 0, s = 0; i + 1 < len; i += 2, s++) {
+                int v = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sum[s]));
+                pcm[i] = (byte) v;
+                pcm[i + 1] = (byte) (v >> 8);
+            }
+        }
+        return len;
+    }
+
+    private void addTo(byte[] pcm, int len) {
+        for (int i = 0, s = 0; i + 1 < len; i += 2, s++) {
+            sum[s] += (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (JitterBuffer jb : buffers.values()) jb.close();
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getSourceCount() {
+        return buffers.size();
+    }
+
+    /** Estadísticas del buffer de cada fuente. */
+    String stats() {
+        if (buffers.size() == 1) return buffers.values().iterator().next().stats();
+        StringJoiner out = new StringJoiner("; ");
+        buffers.forEach((source, jb) -> out.add("fuente " + source + ": " + jb.stats()));
+        return out.length() == 0 ? "sin audio" : out.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package proyecto_chat.client;
+
+import proyecto_chat.common.AudioCodecs;
+import proyecto_chat.common.CallProfile;
+import proyecto_chat.server.CallRelay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Arnés de latencia boca-oído en loopback (tarea {@code runLatency}). Levanta un relay local
+ * y, por cada perfil, hace una llamada entre dos sesiones con el AudioSender y el
+ * AudioReceiver reales. El micrófono y el parlante se simulan con relojes: cada frame se
+ * entrega al terminar de "capturarse" y la salida se consume en tiempo real con el mismo
+ * buffer de {@link AudioReceiver#LINE_FRAMES} frames que la línea real. Cada segundo se
+ * emite un golpe de tono sobre ruido de fondo; la latencia es el tiempo entre su primera
+ * muestra capturada y su primera muestra reproducida.
+ *
+ * Propiedades: {@code chat.latency.profiles} (por defecto todos), {@code chat.latency.codec}
+ * ({@code adpcm}), {@code chat.latency.clicks} (10) y {@code chat.latency.port} (10100).
+ */
+public class LatencyHarness {
+    private static final int CLICK_AMPLITUDE = 16000;
+    private static final int CLICK_MS = 60;
+    private static final int ONSET_THRESHOLD = 8000;
+    private static final double NOISE_DBFS = -60;
+
+    public static void main(String[] args) throws Exception {
+        String codec = System.getProperty("chat.latency.codec", AudioCodecs.ADPCM);
+        int clicks = Integer.getInteger("chat.latency.clicks", 10);
+        int port = Integer.getInteger("chat.latency.port", 10100);
+        List<CallProfile> profiles = new ArrayList<>();
+        String names = System.getProperty("chat.latency.profiles");
+        if (names == null || names.isBlank()) {
+            profiles.addAll(CallProfile.all());
+        } else {
+            for (String name : names.split(",")) {
+                CallProfile p = CallProfile.forName(name);
+                if (p == null) throw new IllegalArgumentException("Perfil desconocido: " + name);
+                profiles.add(p);
+            }
+        }
+
+        CallRelay relay = new CallRelay(port, 1);
+        Thread relayThread = new Thread(relay, "relay");
+        relayThread.setDaemon(true);
+        relayThread.start();
+
+        List<String> report = new ArrayList<>();
+        try {
+            for (CallProfile profile : profiles) {
+                report.add(measure(profile, codec, clicks, port));
+            }
+        } finally {
+            relay.close();
+        }
+        System.out.println();
+        System.out.println("Latencia boca-oído en loopback (codec " + codec + ", " + clicks + " golpes por perfil):");
+        report.forEach(System.out::println);
+        System.exit(0);
+    }
+
+    private static String measure(CallProfile profile, String codec, int clicks, int port) throws Exception {
+        String callId = UUID.randomUUID().toString();
+        RelaySession speaker = RelaySession.open("127.0.0.1", port, 0, callId, codec, profile.sampleRate());
+        RelaySession listener = RelaySession.open("127.0.0.1", port, 0, callId, codec, profile.sampleRate());
+
+        SimulatedSpeaker out = new SimulatedSpeaker(profile);
+        AudioSender sender = new AudioSender(speaker, AudioCodecs.create(codec), profile);
+        AudioReceiver receiver = new AudioReceiver(listener, AudioCodecs.create(codec), profile, out);
+        Thread rx = new Thread(receiver, "latencia-rx");
+        rx.setDaemon(true);
+        rx.start();
+
+        long frameNanos = (long) (profile.frameMillis() * 1_000_000);
+        int framesPerClick = (int) Math.ceil(1000 / profile.frameMillis());
+        int clickFrames = (int) Math.ceil(CLICK_MS / profile.frameMillis());
+        List<Long> mouth = new ArrayList<>();
+        byte[] frame = new byte[profile.frameBytes()];
+        Random random = new Random(1);
+        double noise = 32768 * Math.pow(10, NOISE_DBFS / 20);
+
+        // Medio segundo de ruido antes del primer golpe para que el detector de voz aprenda el fondo
+        int warmup = framesPerClick / 2;
+        int total = warmup + clicks * framesPerClick;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            int inClick = (i - warmup) % framesPerClick;
+            boolean click = i >= warmup && inClick < clickFrames;
+            for (int s = 0; s < profile.frameSamples(); s++) {
+                double v = random.nextGaussian() * noise;
+                if (click) v += CLICK_AMPLITUDE * Math.sin(2 * Math.PI * 1000 * s / profile.sampleRate());
+                short x = (short) v;
+                frame[2 * s] = (byte) x;
+                frame[2 * s + 1] = (byte) (x >> 8);
+            }
+            if (click && inClick == 0) mouth.add(t0 + i * frameNanos); // primera muestra del golpe
+
+            // El micrófono entrega el frame cuando termina de capturarlo
+            sleepUntil(t0 + (i + 1) * frameNanos);
+            sender.process(frame, frame.length);
+        }
+        sleepUntil(System.nanoTime() + 500_000_000L); // que termine de reproducirse el último
+        receiver.stop();
+        speaker.close();
+
+        List<Long> ear = out.onsets();
+        List<Double> latencies = new ArrayList<>();
+        for (int i = 0; i < Math.min(mouth.size(), ear.size()); i++) {
+            latencies.add((ear.get(i) - mouth.get(i)) / 1_000_000.0);
+        }
+        Collections.sort(latencies);
+        if (latencies.isEmpty()) return String.format("  %-32s sin golpes reproducidos", profile);
+        double mean = latencies.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        return String.format("  %-32s media %6.1f ms  mín %6.1f  máx %6.1f  (%d/%d golpes; frame %.0f ms, salida hasta %.0f ms)%n"
+                        + "  %-32s %s",
+                profile, mean, latencies.get(0), latencies.get(latencies.size() - 1), latencies.size(), mouth.size(),
+                profile.frameMillis(), profile.frameMillis() * AudioReceiver.LINE_FRAMES, "", receiver.getStats());
+    }
+
+    private static void sleepUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+    }
+
+    /**
+     * Parlante simulado: consume a ritmo real y bloquea como una línea con espacio para
+     * LINE_FRAMES frames. Registra cuándo suena la primera muestra de cada golpe.
+     */
+    private static final class SimulatedSpeaker implements AudioReceiver.Output {
+        private final int sampleRate;
+        private final long capacityNanos;
+        private final List<Long> onsets = new ArrayList<>();
+        private long end;            // cuándo termina de sonar lo ya escrito
+        private boolean inClick;
+
+        SimulatedSpeaker(CallProfile profile) {
+            this.sampleRate = profile.sampleRate();
+            this.capacityNanos = (long) (profile.frameMillis() * AudioReceiver.LINE_FRAMES * 1_000_000);
+        }
+
+        @Override
+        public void write(byte[] pcm, int len) {
+            long duration = len / 2 * 1_000_000_000L / sampleRate;
+            long now = System.nanoTime();
+            if (end < now) end = now; // la salida se quedó sin audio
+            // Bloquea hasta que el frame quepa en el buffer de la línea
+            while (end - now + duration > capacityNanos) {
+                LockSupport.parkNanos(end - now + duration - capacityNanos);
+                now = System.nanoTime();
+            }
+            boolean loud = false;
+            for (int s = 0; s < len / 2; s++) {
+                int v = (short) ((pcm[2 * s] & 0xFF) | (pcm[2 * s + 1] << 8));
+                if (Math.abs(v) > ONSET_THRESHOLD) {
+                    if (!inClick) {
+                        synchronized (onsets) {
+                            onsets.add(end + s * 1_000_000_000L / sampleRate);
+                        }
+                    }
+                    loud = true;
+                    break;
+                }
+            }
+            inClick = loud;
+            end += duration;
+        }
+
+        List<Long> onsets() {
+            synchronized (onsets) {
+                return new ArrayList<>(onsets);
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+}
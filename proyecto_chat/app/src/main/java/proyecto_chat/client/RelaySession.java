@@ -0,0 +1,137 @@
+package proyecto_chat.client;
+
+import proyecto_chat.common.RelayProtocol;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+
+/**
+ * Sesión con el relay de llamadas: un solo socket UDP para enviar y recibir audio.
+ * Al abrirla se registra el callId y el relay responde con un token corto que va en
+ * cada paquete (ver {@link RelayProtocol}).
+ */
+public class RelaySession implements AutoCloseable {
+    private static final int REGISTER_TIMEOUT_MS = 300;
+    private static final int REGISTER_ATTEMPTS = 5;
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress relay;
+    private final int token;
+
+    // Lo usa solo el hilo que envía audio
+    private final byte[] out = new byte[RelayProtocol.MAX_DATAGRAM];
+    private final DatagramPacket outPacket;
+
+    private volatile boolean closed = false;
+
+    private RelaySession(DatagramSocket socket, InetSocketAddress relay, int token) {
+        this.socket = socket;
+        this.relay = relay;
+        this.token = token;
+        RelayProtocol.writeHeader(out, RelayProtocol.AUDIO, token);
+        this.outPacket = new DatagramPacket(out, out.length, relay);
+    }
+
+    /**
+     * Registra la llamada en el relay; reintenta si el ACK no llega. El codec y la frecuencia
+     * los usa el relay si mezcla la llamada.
+     */
+    public static RelaySession open(String relayHost, int relayPort, int localPort, String callId,
+                                    String codec, int sampleRate) throws IOException {
+        InetSocketAddress relay = new InetSocketAddress(relayHost, relayPort);
+        DatagramSocket socket = new DatagramSocket(localPort);
+        try {
+            byte[] reg = RelayProtocol.register(callId, codec, sampleRate);
+            byte[] in = new byte[64];
+            DatagramPacket ack = new DatagramPacket(in, in.length);
+            socket.setSoTimeout(REGISTER_TIMEOUT_MS);
+            for (int attempt = 0; attempt < REGISTER_ATTEMPTS; attempt++) {
+                socket.send(new DatagramPacket(reg, reg.length, relay));
+                try {
+                    while (true) {
+                        socket.receive(ack);
+                        if (RelayProtocol.type(in, ack.getLength()) == RelayProtocol.ACK
+                                && ack.getLength() >= RelayProtocol.TOKEN_HEADER) {
+                            socket.setSoTimeout(0);
+                            return new RelaySession(socket, relay, RelayProtocol.readToken(in));
+                        }
+                    }
+                } catch (SocketTimeoutException retry) {
+                    // se vuelve a enviar el registro
+                }
+            }
+            throw new IOException("El relay no respondió al registro de la llamada");
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public int getToken() {
+        return token;
+    }
+
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Envía un paquete de audio; {@code timestamp} es la posición de captura en muestras. Un
+     * frame va en un solo paquete: si pasa de {@link RelayProtocol#MAX_AUDIO_PAYLOAD} bytes
+     * (el relay lo cortaría) lanza IllegalArgumentException.
+     */
+    public void sendAudio(int seq, int timestamp, byte[] data, int off, int len) throws IOException {
+        if (len > RelayProtocol.MAX_AUDIO_PAYLOAD) {
+            throw new IllegalArgumentException("frame de " + len + " bytes, el máximo es "
+                    + RelayProtocol.MAX_AUDIO_PAYLOAD);
+        }
+        RelayProtocol.writeSequence(out, seq, timestamp);
+        System.arraycopy(data, off, out, RelayProtocol.AUDIO_HEADER, len);
+        out[1] = RelayProtocol.AUDIO;
+        outPacket.setData(out, 0, RelayProtocol.AUDIO_HEADER + len);
+        socket.send(outPacket);
+    }
+
+    /** Envía un marcador de silencio con el nivel del ruido de fondo en -dBov. */
+    public void sendSilence(int seq, int timestamp, int level) throws IOException {
+        RelayProtocol.writeSequence(out, seq, timestamp);
+        out[1] = RelayProtocol.SILENCE;
+        out[RelayProtocol.AUDIO_HEADER] = (byte) level;
+        outPacket.setData(out, 0, RelayProtocol.SILENCE_LENGTH);
+        socket.send(outPacket);
+    }
+
+    /**
+     * Espera el siguiente paquete AUDIO o SILENCE (descarta ACK repetidos y cualquier otro
+     * tipo) y devuelve su tipo. El payload empieza en {@link RelayProtocol#AUDIO_HEADER}.
+     */
+    public int receiveAudio(DatagramPacket packet) throws IOException {
+        while (true) {
+            packet.setLength(packet.getData().length);
+            socket.receive(packet);
+            int type = RelayProtocol.type(packet.getData(), packet.getLength());
+            if (type == RelayProtocol.AUDIO && packet.getLength() >= RelayProtocol.AUDIO_HEADER
+                    || type == RelayProtocol.SILENCE && packet.getLength() >= RelayProtocol.SILENCE_LENGTH) {
+                return type;
+            }
+        }
+    }
+
+    /** Avisa al relay (BYE) y cierra el socket; se puede llamar más de una vez. */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            byte[] bye = new byte[RelayProtocol.TOKEN_HEADER];
+            RelayProtocol.writeHeader(bye, RelayProtocol.BYE, token);
+            socket.send(new DatagramPacket(bye, bye.length, relay));
+        } catch (IOException ignored) {
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package proyecto_chat.client;
+
+/**
+ * Detector de voz por energía y cruces por cero, frame a frame.
+ *
+ * Es voz lo que supera el ruido de fondo en {@link #MARGIN_DB}, o en {@link #WEAK_MARGIN_DB}
+ * si además cruza mucho por cero (consonantes sordas como s o f, de poca energía). El ruido
+ * de fondo se sigue rápido hacia abajo y despacio hacia arriba, así se adapta al micrófono sin
+ * confundir una frase larga con ruido. Tras la última voz se siguen dando por voz
+ * {@code hangoverFrames} frames para no cortar finales de palabra.
+ */
+final class VoiceActivityDetector {
+    private static final double MARGIN_DB = 9;
+    private static final double WEAK_MARGIN_DB = 3;
+    private static final double UNVOICED_ZCR = 0.25; // cruces por muestra
+    private static final double SILENCE_DB = -60;    // por debajo nunca es voz
+    private static final double FLOOR_DOWN = 0.3;    // velocidad del ruido de fondo al bajar
+    private static final double FLOOR_UP = 0.01;     // y al subir (por frame)
+
+    private final int hangoverFrames;
+    private double noiseDb = -50;
+    private int hangover;
+
+    VoiceActivityDetector(int hangoverFrames) {
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    /** Analiza un frame PCM de 16 bits LE; true si se debe enviar. */
+    boolean isSpeech(byte[] pcm, int len) {
+        int n = len / 2;
+        if (n == 0) return false;
+
+        double sumSq = 0;
+        int crossings = 0;
+        int prev = 0;
+        for (int i = 0; i < n; i++) {
+            int s = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+            sumSq += (double) s * s;
+            if ((s ^ prev) < 0) crossings++;
+            prev = s;
+        }
+        double db = 20 * Math.log10(Math.max(Math.sqrt(sumSq / n), 1) / 32768.0);
+        double zcr = crossings / (double) n;
+
+        boolean voice = db > SILENCE_DB
+                && (db > noiseDb + MARGIN_DB || (db > noiseDb + WEAK_MARGIN_DB && zcr > UNVOICED_ZCR));
+
+        noiseDb += (db - noiseDb) * (db < noiseDb ? FLOOR_DOWN : FLOOR_UP);
+
+        if (voice) {
+            hangover = hangoverFrames;
+            return true;
+        }
+        if (hangover > 0) {
+            hangover--;
+            return true;
+        }
+        return false;
+    }
+
+    /** Nivel del ruido de fondo en -dBov (0 a 127), para el ruido de confort. */
+    int noiseLevel() {
+        return (int) Math.max(0, Math.min(127, Math.round(-noiseDb)));
+    }
+}
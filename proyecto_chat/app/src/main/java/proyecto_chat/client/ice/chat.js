@@ -79,6 +79,7 @@
     Slice.defineOperations(Chat.ClientCallback, Chat.ClientCallbackPrx, iceC_Chat_ClientCallback_ids, 0,
     {
         "onNewMessage": [, , , , , [[Chat.Msg]], , , , ],
+        "onNewMessages": [, , , , , [["Chat.MsgSeqHelper"]], , , , ],
         "onUserJoined": [, , , , , [[7]], , , , ],
         "onUserLeft": [, , , , , [[7]], , , , ]
     });
@@ -8,6 +8,32 @@ let iceCommunicator = null;
 let iceService = null;
 let iceAdapter = null;
 
+// Los mensajes recibidos por ICE se muestran tal cual llegan, sin esperar al historial
+// (el servidor avisa antes de que el escritor los guarde). sync_history del bucle de refresco
+// solo rellena lo que no haya llegado por aquí; renderMessage descarta los repetidos por id
+function showPushed(msgs) {
+    if (!activeChat) return;
+
+    const chatLower = activeChat.toLowerCase();
+    const me = (username || "").toLowerCase();
+    const mine = msgs.filter(msg => {
+        const recipient = (msg.recipient || "").toLowerCase();
+        // Grupo: el destinatario es el chat; directo: me lo mandó quien tengo abierto
+        return recipient === chatLower ||
+            (recipient === me && (msg.sender || "").toLowerCase() === chatLower);
+    });
+    if (mine.length === 0) return;
+
+    appendMessages(mine.map(msg => ({
+        id: msg.id,
+        sender: msg.sender,
+        recipient: msg.recipient,
+        text_content: msg.text,
+        // long de Slice: Ice.Long en el navegador
+        timestamp: typeof msg.timestamp === "number" ? msg.timestamp : msg.timestamp.toNumber()
+    })));
+}
+
 async function initIce(username) {
     if (iceService) {
         // Ya está inicializado
@@ -37,21 +63,13 @@ async function initIce(username) {
         class ClientCallbackI extends Chat.ClientCallback {
             async onNewMessage(msg, current) {
                 console.log("[ICE] onNewMessage", msg);
+                showPushed([msg]);
+            }
 
-                if (!activeChat) return;
-
-                const chatLower = activeChat.toLowerCase();
-                const sender = (msg.sender || "").toLowerCase();
-                const recipient = (msg.recipient || "").toLowerCase();
-
-                // Si el mensaje pertenece al chat activo, recargamos el historial
-                if (chatLower === sender || chatLower === recipient) {
-                    try {
-                        await loadHistoryIncremental(activeChat, true);
-                    } catch (e) {
-                        console.error("[ICE] Error refrescando historial:", e);
-                    }
-                }
+            // Entrega por lotes (chat.ice.delivery=batch): varios mensajes en una sola llamada
+            async onNewMessages(msgs, current) {
+                console.log("[ICE] onNewMessages", msgs.length);
+                showPushed(msgs);
             }
 
             async onUserJoined(user, current) {
@@ -89,6 +107,14 @@ let autoRefresh = true;            // solo refresca si el usuario está al fondo
 const BOTTOM_EPS = 20;             // umbral px para considerar "el fondo del chat”
 let pendingWhilePaused = 0;        // cuenta nuevos mientras el usuario scrollea hacia arriba
 
+// Paginación del historial: se carga la última página y las anteriores al llegar arriba
+const PAGE_SIZE = 50;
+const TOP_EPS = 40;                // umbral px para pedir la página anterior
+let oldestCursor = null;           // cursor del mensaje más antiguo mostrado
+let hasOlder = false;
+let loadingOlder = false;
+let syncSeq = null;                // marca del servidor: solo se piden mensajes posteriores
+
 // Utilidades
 function capitalize(str) {
     if (!str) return '';
@@ -140,6 +166,20 @@ document.getElementById("loginBtn").onclick = async () => {
 };
 
 document.getElementById("logoutBtn").onclick = () => {
+    if (username) {
+        fetch("/api/logout", {
+            method: "POST",
+            headers: { "Content-Type": "application/json" },
+            body: JSON.stringify({ username })
+        }).catch(() => {});
+    }
+    if (iceCommunicator) {
+        // Al cerrar la conexión ICE el servidor publica la salida del usuario
+        iceCommunicator.destroy();
+        iceCommunicator = null;
+        iceService = null;
+        iceAdapter = null;
+    }
     localStorage.removeItem("username");
     username = null;
     activeChat = null;
@@ -194,6 +234,9 @@ async function openChat(chat) {
     RENDERED_KEYS.clear();
     pendingWhilePaused = 0;
     autoRefresh = true; // al abrir, habilita autorefresco
+    oldestCursor = null;
+    hasOlder = false;
+    syncSeq = null;
 
     await loadHistoryIncremental(chat, true); // fuerza scroll al fondo
 }
@@ -216,42 +259,79 @@ document.getElementById("deleteChatBtn").onclick = async () => {
     document.getElementById("text").disabled = true;
     document.getElementById("send").disabled = true;
     RENDERED_KEYS.clear();
+    oldestCursor = null;
+    hasOlder = false;
+    syncSeq = null;
 };
 
-// Cargar historial incremental (sin vaciar)
-async function loadHistoryIncremental(recipient, forceScrollBottom = false) {
-    const box = document.getElementById('messages');
-    const atBottomBefore = box.scrollTop + box.clientHeight >= box.scrollHeight - BOTTOM_EPS;
+function historyUrl(recipient, params = {}) {
+    const q = new URLSearchParams({ username, limit: PAGE_SIZE, ...params });
+    return '/api/history/' + encodeURIComponent(recipient) + '?' + q.toString();
+}
 
-    const r = await api(
-        '/api/history/' + encodeURIComponent(recipient) + '?username=' + encodeURIComponent(username)
-    );
-    if (r.status !== 'ok' || !Array.isArray(r.messages)) return;
+// Crea el elemento de un mensaje, o null si ya se mostró
+function renderMessage(m) {
+    const key = m.id || `${m.timestamp}|${(m.sender || '').toLowerCase()}|${m.text_content || ''}`;
+    if (RENDERED_KEYS.has(key)) return null;
+    RENDERED_KEYS.add(key);
+
+    const isMe = (m.sender || '').toLowerCase() === (username || '').toLowerCase();
+    const d = document.createElement('div');
+    d.className = isMe ? 'msg me' : 'msg other';
+
+    const time = new Date(m.timestamp).toLocaleTimeString([], {
+        day: '2-digit',
+        month: '2-digit',
+        hour: '2-digit',
+        minute: '2-digit'
+    });
 
-    let appended = 0;
+    d.innerHTML = `
+        <div class="meta">${capitalize(m.sender)} • ${time}</div>
+        <div class="text">${escapeHtml(m.text_content || '(sin contenido)')}</div>
+    `;
+    return d;
+}
 
-    r.messages.forEach(m => {
-        const key = `${m.timestamp}|${(m.sender || '').toLowerCase()}|${m.text_content || ''}`;
-        if (RENDERED_KEYS.has(key)) return;
+// Cargar historial incremental (sin vaciar): la primera vez la última página,
+// después solo lo guardado desde la última marca (sync_history)
+async function loadHistoryIncremental(recipient, forceScrollBottom = false) {
+    const messages = [];
+    if (syncSeq === null) {
+        const r = await api(historyUrl(recipient));
+        if (r.status !== 'ok' || !Array.isArray(r.messages) || recipient !== activeChat) return;
+
+        // Primera carga: desde aquí se pagina hacia atrás
+        oldestCursor = r.prev_cursor || null;
+        hasOlder = r.has_more === true;
+        syncSeq = r.since || 0;
+        messages.push(...r.messages);
+    } else {
+        let more = true;
+        while (more) {
+            const q = new URLSearchParams({ username, since: syncSeq });
+            const r = await api('/api/history/' + encodeURIComponent(recipient) + '/since?' + q.toString());
+            if (r.status !== 'ok' || !Array.isArray(r.messages) || recipient !== activeChat) return;
+            syncSeq = Math.max(syncSeq, r.since || 0);
+            messages.push(...r.messages);
+            more = r.has_more === true;
+        }
+    }
 
-        RENDERED_KEYS.add(key);
-        appended++;
+    appendMessages(messages, forceScrollBottom);
+}
 
-        const isMe = (m.sender || '').toLowerCase() === (username || '').toLowerCase();
-        const d = document.createElement('div');
-        d.className = isMe ? 'msg me' : 'msg other';
+// Agrega al final los mensajes que aún no se muestran y mantiene el scroll (o avisa de los nuevos)
+function appendMessages(messages, forceScrollBottom = false) {
+    const box = document.getElementById('messages');
+    const atBottomBefore = box.scrollTop + box.clientHeight >= box.scrollHeight - BOTTOM_EPS;
 
-        const time = new Date(m.timestamp).toLocaleTimeString([], {
-            day: '2-digit',
-            month: '2-digit',
-            hour: '2-digit',
-            minute: '2-digit'
-        });
+    let appended = 0;
 
-        d.innerHTML = `
-            <div class="meta">${capitalize(m.sender)} • ${time}</div>
-            <div class="text">${escapeHtml(m.text_content || '(sin contenido)')}</div>
-        `;
+    messages.forEach(m => {
+        const d = renderMessage(m);
+        if (!d) return;
+        appended++;
         box.appendChild(d);
     });
 
@@ -263,6 +343,32 @@ async function loadHistoryIncremental(recipient, forceScrollBottom = false) {
     }
 }
 
+// Página anterior del historial, insertada arriba sin mover lo que el usuario está viendo
+async function loadOlderHistory() {
+    if (!activeChat || !hasOlder || !oldestCursor || loadingOlder) return;
+    loadingOlder = true;
+    const recipient = activeChat;
+    try {
+        const r = await api(historyUrl(recipient, { before: oldestCursor }));
+        if (r.status !== 'ok' || !Array.isArray(r.messages) || recipient !== activeChat) return;
+
+        const box = document.getElementById('messages');
+        const prevHeight = box.scrollHeight;
+        const frag = document.createDocumentFragment();
+        r.messages.forEach(m => {
+            const d = renderMessage(m);
+            if (d) frag.appendChild(d);
+        });
+        box.insertBefore(frag, box.firstChild);
+        box.scrollTop += box.scrollHeight - prevHeight;
+
+        oldestCursor = r.prev_cursor || oldestCursor;
+        hasOlder = r.has_more === true;
+    } finally {
+        loadingOlder = false;
+    }
+}
+
 // Indicador “Nuevos mensajes”
 function showNewMessagesHint(count) {
     let hint = document.getElementById('newMsgHint');
@@ -295,6 +401,7 @@ function showNewMessagesHint(count) {
     box.addEventListener('scroll', () => {
         const atBottom = box.scrollTop + box.clientHeight >= box.scrollHeight - BOTTOM_EPS;
         autoRefresh = atBottom; // si el usuario sube, se pausa refresh
+        if (box.scrollTop <= TOP_EPS) loadOlderHistory();
         if (atBottom) {
             const hint = document.getElementById('newMsgHint');
             if (hint) hint.remove();
@@ -309,21 +416,28 @@ document.getElementById('send').onclick = async () => {
     const text = document.getElementById("text").value;
     if (!text.trim()) return;
 
-    // 1) Persistencia vía HTTP (backend anterior)
-    await api('/api/messages', {
-        method: 'POST',
-        headers: { 'Content-Type': 'application/json' },
-        body: JSON.stringify({ username, recipient: activeChat, text })
-    });
-
-    // 2) Notificación en tiempo real vía ICE (broadcast)
+    // El servidor guarda el mensaje y avisa a los destinatarios, llegue por ICE o por HTTP;
+    // se usa ICE si está conectado y HTTP si no. En ambos casos responde cuando el mensaje
+    // ya está guardado, así la lectura de abajo lo encuentra
+    let sent = false;
     if (iceService) {
         try {
             await iceService.sendText(username, activeChat, text);
+            sent = true;
         } catch (e) {
             console.error("[ICE] Error enviando sendText:", e);
+            // El servidor lo recibió pero no pudo guardarlo: reenviarlo por HTTP lo duplicaría
+            if (e instanceof Ice.UnknownException) return alert("No se pudo guardar el mensaje.");
         }
     }
+    if (!sent) {
+        const r = await api('/api/messages', {
+            method: 'POST',
+            headers: { 'Content-Type': 'application/json' },
+            body: JSON.stringify({ username, recipient: activeChat, text })
+        });
+        if (r.status !== 'ok') return alert("No se pudo enviar el mensaje.");
+    }
 
     document.getElementById("text").value = '';
     await loadHistoryIncremental(activeChat, true); // tu comportamiento actual
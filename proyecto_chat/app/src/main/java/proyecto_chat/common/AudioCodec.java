@@ -0,0 +1,25 @@
+package proyecto_chat.common;
+
+/**
+ * Codec del audio de las llamadas. Trabaja sobre PCM de 16 bits con signo, little-endian y mono.
+ * Cada paquete se decodifica por sí solo, así un paquete perdido no afecta a los siguientes.
+ * Las instancias pueden guardar estado entre paquetes: se usa una por sentido de la llamada
+ * (ver {@link AudioCodecs#create}).
+ */
+public interface AudioCodec {
+
+    /** Nombre con el que se negocia en CALL_START/CALL_ACCEPT. */
+    String name();
+
+    /** Tamaño máximo del paquete codificado para {@code pcmBytes} de PCM. */
+    int maxEncodedSize(int pcmBytes);
+
+    /** Tamaño máximo del PCM que sale de un paquete de {@code encodedBytes}. */
+    int maxDecodedSize(int encodedBytes);
+
+    /** Codifica {@code len} bytes de PCM en {@code out}; devuelve los bytes escritos. */
+    int encode(byte[] pcm, int off, int len, byte[] out, int outOff);
+
+    /** Decodifica un paquete en {@code pcm}; devuelve los bytes de PCM escritos. */
+    int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff);
+}
@@ -0,0 +1,82 @@
+package proyecto_chat.common;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Codecs disponibles y negociación. Quien llama ofrece la lista en CALL_START
+ * ({@code codecs=adpcm,ulaw,pcm}) y quien acepta elige el primero de su preferencia que
+ * también esté en la oferta ({@code codec=adpcm} en CALL_ACCEPT). Un cliente que no
+ * ofrece nada habla PCM.
+ */
+public final class AudioCodecs {
+    private AudioCodecs() {}
+
+    public static final String PCM = "pcm";
+    public static final String ULAW = "ulaw";
+    public static final String ADPCM = "adpcm";
+
+    /** Orden de preferencia: de mayor a menor compresión. */
+    private static final List<String> PREFERENCE = List.of(ADPCM, ULAW, PCM);
+
+    // Identificadores de un byte para el REGISTER del relay (el índice en este arreglo)
+    private static final String[] IDS = { PCM, ULAW, ADPCM };
+
+    /** Identificador del codec en el REGISTER del relay. */
+    public static int id(String name) {
+        for (int i = 0; i < IDS.length; i++) {
+            if (IDS[i].equals(name)) return i;
+        }
+        return 0;
+    }
+
+    /** Nombre del codec con ese identificador; PCM si no se conoce. */
+    public static String nameOf(int id) {
+        return id >= 0 && id < IDS.length ? IDS[id] : PCM;
+    }
+
+    /** Codec nuevo con ese nombre, o null si no se conoce. */
+    public static AudioCodec create(String name) {
+        if (name == null) return null;
+        switch (name.trim().toLowerCase()) {
+            case PCM: return new PcmCodec();
+            case ULAW: return new MuLawCodec();
+            case ADPCM: return new ImaAdpcmCodec();
+            default: return null;
+        }
+    }
+
+    /** Lista para ofrecer en CALL_START. */
+    public static String offer() {
+        return String.join(",", PREFERENCE);
+    }
+
+    /** Codec elegido para una oferta; PCM si la oferta está vacía o no hay ninguno en común. */
+    public static String choose(String offered) {
+        if (offered == null || offered.isBlank()) return PCM;
+        List<String> theirs = Arrays.stream(offered.split(",")).map(s -> s.trim().toLowerCase()).toList();
+        for (String name : PREFERENCE) {
+            if (theirs.contains(name)) return name;
+        }
+        return PCM;
+    }
+
+    /** PCM sin comprimir (lo que se enviaba antes de negociar codecs). */
+    static final class PcmCodec implements AudioCodec {
+        @Override public String name() { return PCM; }
+        @Override public int maxEncodedSize(int pcmBytes) { return pcmBytes; }
+        @Override public int maxDecodedSize(int encodedBytes) { return encodedBytes; }
+
+        @Override
+        public int encode(byte[] pcm, int off, int len, byte[] out, int outOff) {
+            System.arraycopy(pcm, off, out, outOff, len);
+            return len;
+        }
+
+        @Override
+        public int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff) {
+            System.arraycopy(in, off, pcm, pcmOff, len);
+            return len;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package proyecto_chat.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Perfil de audio de una llamada: frecuencia de muestreo y muestras por frame (PCM de
+ * 16 bits, mono). Se negocia como el codec: CALL_START ofrece {@code profiles=wb20,...} y
+ * CALL_ACCEPT responde {@code profile=<elegido>}. Sin perfil se usa {@link #LEGACY}, el
+ * formato anterior (44.1 kHz en bloques de 4096 bytes, ~46 ms).
+ */
+public final class CallProfile {
+    public static final CallProfile WB20 = new CallProfile("wb20", 16000, 320);
+    public static final CallProfile WB10 = new CallProfile("wb10", 16000, 160);
+    public static final CallProfile NB20 = new CallProfile("nb20", 8000, 160);
+    public static final CallProfile LEGACY = new CallProfile("legacy", 44100, 2048);
+
+    private static final List<CallProfile> ALL = List.of(WB20, WB10, NB20, LEGACY);
+
+    private final String name;
+    private final int sampleRate;
+    private final int frameSamples;
+
+    private CallProfile(String name, int sampleRate, int frameSamples) {
+        this.name = name;
+        this.sampleRate = sampleRate;
+        this.frameSamples = frameSamples;
+    }
+
+    public String name() { return name; }
+    public int sampleRate() { return sampleRate; }
+    public int frameSamples() { return frameSamples; }
+    public int frameBytes() { return frameSamples * 2; }
+    public double frameMillis() { return frameSamples * 1000.0 / sampleRate; }
+
+    /** Perfil con ese nombre, o null si no se conoce. */
+    public static CallProfile forName(String name) {
+        if (name == null) return null;
+        for (CallProfile p : ALL) {
+            if (p.name.equalsIgnoreCase(name.trim())) return p;
+        }
+        return null;
+    }
+
+    public static List<CallProfile> all() {
+        return ALL;
+    }
+
+    /** Lista para ofrecer en CALL_START, con {@code preferred} primero. */
+    public static String offer(CallProfile preferred) {
+        List<String> names = new ArrayList<>();
+        names.add(preferred.name);
+        for (CallProfile p : ALL) {
+            if (p != preferred) names.add(p.name);
+        }
+        return String.join(",", names);
+    }
+
+    /**
+     * Perfil elegido para una oferta: el preferido si está, si no el primero de la oferta que
+     * se conozca; {@link #LEGACY} si no hay oferta.
+     */
+    public static CallProfile choose(String offered, CallProfile preferred) {
+        if (offered == null || offered.isBlank()) return LEGACY;
+        List<String> theirs = Arrays.stream(offered.split(",")).map(String::trim).toList();
+        if (theirs.contains(preferred.name)) return preferred;
+        for (String name : theirs) {
+            CallProfile p = forName(name);
+            if (p != null) return p;
+        }
+        return LEGACY;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d Hz, %.0f ms)", name, sampleRate, frameMillis());
+    }
+}
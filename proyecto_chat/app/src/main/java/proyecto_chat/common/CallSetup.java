@@ -0,0 +1,48 @@
+package proyecto_chat.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contenido de CALL_START y CALL_ACCEPT: {@code callId[;clave=valor]...}, por ejemplo
+ * {@code 3f2a...;codecs=adpcm,ulaw,pcm}. Un contenido sin parámetros es solo el callId
+ * (clientes anteriores a la negociación).
+ */
+public final class CallSetup {
+    private final String callId;
+    private final Map<String, String> params = new LinkedHashMap<>();
+
+    public CallSetup(String callId) {
+        this.callId = callId;
+    }
+
+    public static CallSetup parse(String text) {
+        String[] parts = (text == null ? "" : text).split(";");
+        CallSetup setup = new CallSetup(parts[0].trim());
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (eq > 0) setup.with(parts[i].substring(0, eq).trim(), parts[i].substring(eq + 1).trim());
+        }
+        return setup;
+    }
+
+    public CallSetup with(String key, String value) {
+        params.put(key, value);
+        return this;
+    }
+
+    public String getCallId() {
+        return callId;
+    }
+
+    public String get(String key) {
+        return params.get(key);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(callId);
+        params.forEach((k, v) -> sb.append(';').append(k).append('=').append(v));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package proyecto_chat.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark de las versiones del protocolo por tramas (tarea {@code runCodecBench}): para
+ * varios mensajes típicos mide, con la trama completa, codificar y decodificar en la
+ * versión 1 (serialización Java) y en la 2 ({@link MessageCodec}). Informa operaciones por
+ * segundo, bytes asignados por operación (contador de asignación del hilo) y tamaño de la
+ * trama.
+ *
+ * Propiedades: {@code chat.bench.millis} (duración de cada medición, 2000) y
+ * {@code chat.bench.warmupMillis} (calentamiento previo, 1000).
+ */
+public class CodecBenchmark {
+    private static volatile Object sink; // evita que el JIT descarte el trabajo
+
+    public static void main(String[] args) throws Exception {
+        long millis = Long.getLong("chat.bench.millis", 2000L);
+        long warmupMillis = Long.getLong("chat.bench.warmupMillis", 1000L);
+
+        List<Object[]> cases = new ArrayList<>();
+        cases.add(new Object[] { "texto corto", new Message(Message.MessageType.TEXT, "alice", "bob", "hola, ¿cómo vas?") });
+        cases.add(new Object[] { "texto 1 KB", new Message(Message.MessageType.TEXT, "alice", "equipo", "x".repeat(1024)) });
+        cases.add(new Object[] { "nota de voz 32 KB", new Message(Message.MessageType.VOICE_NOTE, "alice", "bob",
+                new byte[32 * 1024], "nota.wav") });
+
+        System.out.println("Codificar + decodificar una trama (" + millis + " ms por caso):");
+        System.out.printf("  %-18s %-8s %12s %14s %10s%n", "mensaje", "versión", "ops/s", "bytes asig./op", "trama");
+        for (Object[] c : cases) {
+            String name = (String) c[0];
+            Message message = (Message) c[1];
+            Result v1 = run(message, MessageFrames.VERSION_SERIALIZED, warmupMillis, millis);
+            Result v2 = run(message, MessageFrames.VERSION_BINARY, warmupMillis, millis);
+            print(name, "v1", v1);
+            print("", "v2", v2);
+            System.out.printf("  %-18s %-8s %11.1fx %13.1fx %9.1fx%n", "", "v2/v1",
+                    v2.opsPerSecond / v1.opsPerSecond, v1.bytesPerOp / v2.bytesPerOp, v1.frameBytes / (double) v2.frameBytes);
+        }
+    }
+
+    private static void print(String name, String version, Result r) {
+        System.out.printf("  %-18s %-8s %12.0f %14.0f %10d%n", name, version, r.opsPerSecond, r.bytesPerOp, r.frameBytes);
+    }
+
+    private static Result run(Message message, byte version, long warmupMillis, long millis) throws Exception {
+        loop(message, version, warmupMillis);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long ops = loop(message, version, millis);
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        Result r = new Result();
+        r.opsPerSecond = ops * 1e9 / elapsed;
+        r.bytesPerOp = allocated / (double) ops;
+        r.frameBytes = MessageFrames.encode(message, version).length;
+        return r;
+    }
+
+    // Repite codificar y decodificar durante el tiempo pedido; devuelve cuántas veces
+    private static long loop(Message message, byte version, long millis) throws Exception {
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        long ops = 0;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 64; i++) {
+                byte[] frame = MessageFrames.encode(message, version);
+                sink = MessageFrames.decode(frame, MessageFrames.HEADER_SIZE, frame.length - MessageFrames.HEADER_SIZE,
+                        version);
+            }
+            ops += 64;
+        }
+        return ops;
+    }
+
+    private static final class Result {
+        double opsPerSecond;
+        double bytesPerOp;
+        int frameBytes;
+    }
+}
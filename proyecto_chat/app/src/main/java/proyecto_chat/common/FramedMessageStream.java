@@ -0,0 +1,101 @@
+package proyecto_chat.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Protocolo por tramas (ver {@link MessageFrames}) sobre un socket bloqueante.
+ * Las escrituras se serializan con un ReentrantLock: con synchronized (incluido el de
+ * DataOutputStream), un hilo virtual bloqueado escribiendo a un cliente lento dejaría
+ * fijado su hilo carrier.
+ */
+public class FramedMessageStream implements MessageStream {
+    private final BufferedOutputStream out; // sin DataOutputStream: sus write() son synchronized
+    private final DataInputStream in;
+    private byte version = MessageFrames.VERSION_SERIALIZED;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private FramedMessageStream(InputStream in, OutputStream out) {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        this.out = new BufferedOutputStream(out);
+    }
+
+    /** Lado cliente: ofrece la versión más alta que conoce y espera la elegida por el servidor. */
+    public static FramedMessageStream connect(InputStream in, OutputStream out) throws IOException {
+        FramedMessageStream stream = new FramedMessageStream(in, out);
+        stream.out.write(MessageFrames.handshake(MessageFrames.VERSION_MAX));
+        stream.out.flush();
+        byte chosen = stream.in.readByte();
+        if (chosen < MessageFrames.VERSION_SERIALIZED || chosen > MessageFrames.VERSION_MAX) {
+            throw new IOException("El servidor eligió una versión desconocida: " + chosen);
+        }
+        stream.version = chosen;
+        return stream;
+    }
+
+    /** Lado servidor: lee el handshake del cliente y responde con la versión elegida. */
+    public static FramedMessageStream accept(InputStream in, OutputStream out) throws IOException {
+        FramedMessageStream stream = new FramedMessageStream(in, out);
+        byte[] hs = new byte[MessageFrames.HANDSHAKE_SIZE];
+        stream.in.readFully(hs);
+        if (!MessageFrames.isMagic(hs, 0)) {
+            throw new IOException("Handshake inválido");
+        }
+        byte offered = hs[MessageFrames.MAGIC.length];
+        byte chosen = MessageFrames.negotiate(offered);
+        if (chosen < 0) {
+            throw new IOException("Versión de protocolo no soportada: " + offered);
+        }
+        if (MessageFrames.expectsReply(offered)) {
+            stream.out.write(chosen);
+            stream.out.flush();
+        }
+        stream.version = chosen;
+        return stream;
+    }
+
+    public byte getVersion() {
+        return version;
+    }
+
+    @Override
+    public void writeObject(Object obj) throws IOException {
+        writeFrame(MessageFrames.encode(obj, version));
+    }
+
+    /** Escribe una trama ya codificada (longitud + cuerpo) en la versión negociada. */
+    public void writeFrame(byte[] frame) throws IOException {
+        writeLock.lock();
+        try {
+            out.write(frame);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Object readObject() throws IOException, ClassNotFoundException {
+        int len = in.readInt();
+        if (len < 0 || len > MessageFrames.MAX_FRAME_SIZE) {
+            throw new IOException("Trama inválida: " + len + " bytes");
+        }
+        byte[] body = new byte[len];
+        in.readFully(body);
+        return MessageFrames.decode(body, 0, len, version);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            in.close();
+        }
+    }
+}
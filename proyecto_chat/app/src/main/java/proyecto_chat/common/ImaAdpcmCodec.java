@@ -0,0 +1,101 @@
+package proyecto_chat.common;
+
+/**
+ * IMA-ADPCM: 4 bits por muestra, una cuarta parte de PCM de 16 bits.
+ *
+ *   [predictor int16 LE][índice de paso][flags][muestras, 2 por byte, primero el nibble bajo]
+ *
+ * El encabezado lleva el estado del codificador al empezar el paquete, así el receptor
+ * decodifica cada paquete sin depender del anterior. El bit 0 de flags indica que la
+ * última muestra del paquete es de relleno.
+ */
+public final class ImaAdpcmCodec implements AudioCodec {
+    static final int HEADER = 4;
+
+    private static final int[] INDEX_TABLE = { -1, -1, -1, -1, 2, 4, 6, 8 };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+        337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+        2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+        15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    // Estado del codificador entre paquetes (una instancia por sentido de la llamada)
+    private int predictor;
+    private int index;
+
+    @Override public String name() { return AudioCodecs.ADPCM; }
+    @Override public int maxEncodedSize(int pcmBytes) { return HEADER + (pcmBytes / 2 + 1) / 2; }
+    @Override public int maxDecodedSize(int encodedBytes) { return Math.max(0, encodedBytes - HEADER) * 4; }
+
+    @Override
+    public int encode(byte[] pcm, int off, int len, byte[] out, int outOff) {
+        int samples = len / 2;
+        out[outOff] = (byte) predictor;
+        out[outOff + 1] = (byte) (predictor >> 8);
+        out[outOff + 2] = (byte) index;
+        out[outOff + 3] = (byte) (samples & 1);
+
+        int pos = outOff + HEADER;
+        for (int i = 0; i < samples; i += 2) {
+            int p = off + 2 * i;
+            int lo = encodeSample((short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8)));
+            int hi = i + 1 < samples ? encodeSample((short) ((pcm[p + 2] & 0xFF) | (pcm[p + 3] << 8))) : 0;
+            out[pos++] = (byte) (lo | (hi << 4));
+        }
+        return pos - outOff;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff) {
+        if (len < HEADER) return 0;
+        int pred = (short) ((in[off] & 0xFF) | (in[off + 1] << 8));
+        int idx = Math.min(Math.max(in[off + 2], 0), STEP_TABLE.length - 1);
+        int samples = (len - HEADER) * 2 - (in[off + 3] & 1);
+
+        int out = pcmOff;
+        for (int i = 0; i < samples; i++) {
+            int b = in[off + HEADER + (i >> 1)];
+            int code = (i & 1) == 0 ? b & 0x0F : (b >> 4) & 0x0F;
+
+            int step = STEP_TABLE[idx];
+            int delta = step >> 3;
+            if ((code & 4) != 0) delta += step;
+            if ((code & 2) != 0) delta += step >> 1;
+            if ((code & 1) != 0) delta += step >> 2;
+            pred = clamp16((code & 8) != 0 ? pred - delta : pred + delta);
+            idx = Math.min(Math.max(idx + INDEX_TABLE[code & 7], 0), STEP_TABLE.length - 1);
+
+            pcm[out++] = (byte) pred;
+            pcm[out++] = (byte) (pred >> 8);
+        }
+        return out - pcmOff;
+    }
+
+    private int encodeSample(int sample) {
+        int step = STEP_TABLE[index];
+        int diff = sample - predictor;
+        int code = 0;
+        if (diff < 0) {
+            code = 8;
+            diff = -diff;
+        }
+        // Misma reconstrucción que el decodificador, para no acumular error
+        int delta = step >> 3;
+        if (diff >= step) { code |= 4; diff -= step; delta += step; }
+        step >>= 1;
+        if (diff >= step) { code |= 2; diff -= step; delta += step; }
+        step >>= 1;
+        if (diff >= step) { code |= 1; delta += step; }
+
+        predictor = clamp16((code & 8) != 0 ? predictor - delta : predictor + delta);
+        index = Math.min(Math.max(index + INDEX_TABLE[code & 7], 0), STEP_TABLE.length - 1);
+        return code;
+    }
+
+    private static int clamp16(int v) {
+        return v > Short.MAX_VALUE ? Short.MAX_VALUE : Math.max(v, Short.MIN_VALUE);
+    }
+}
@@ -6,6 +6,10 @@ import java.util.UUID;
 import java.nio.charset.StandardCharsets;
 
 public class Message implements Serializable {
+    // Fijado al valor que tenía la clase antes del campo transient, para seguir
+    // entendiendo a clientes que usan ObjectOutputStream
+    private static final long serialVersionUID = -3229239042891871492L;
+
     public enum MessageType {
         TEXT,
         VOICE_NOTE,
@@ -25,6 +29,9 @@ public class Message implements Serializable {
     private final String fileName;
     private final long timestamp;
 
+    // Texto ya decodificado (no se serializa)
+    private transient String text;
+
     // Texto (UTF-8)
     public Message(MessageType type, String sender, String recipient, String textContent) {
         this.type = type;
@@ -32,6 +39,7 @@ public class Message implements Serializable {
         this.sender = sender;
         this.recipient = recipient;
         this.content = textContent != null ? textContent.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        this.text = textContent != null ? textContent : "";
         this.fileName = null;
         this.timestamp = Instant.now().toEpochMilli();
     }
@@ -67,6 +75,11 @@ public class Message implements Serializable {
     public long getTimestamp() { return timestamp; }
 
     public String getTextContent() {
-        return new String(this.content, StandardCharsets.UTF_8);
+        String t = text;
+        if (t == null) {
+            t = new String(this.content, StandardCharsets.UTF_8);
+            text = t;
+        }
+        return t;
     }
 }
@@ -0,0 +1,216 @@
+package proyecto_chat.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Codificación binaria compacta de los cuerpos de trama (versión 2 del protocolo).
+ *
+ *   String (login): [0x7F][bytes UTF-8]
+ *   Message:        [tipo][flags][id][sender][recipient][content][fileName][timestamp 8 bytes]
+ *
+ * El id ocupa 16 bytes fijos cuando es un UUID canónico; los demás campos van como
+ * varint(longitud + 1) seguido de los bytes, donde 0 indica null.
+ */
+public final class MessageCodec {
+    private MessageCodec() {}
+
+    private static final byte TAG_STRING = 0x7F;
+    private static final int FLAG_UUID_ID = 0x01;
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    public static byte[] encode(Object obj) throws IOException {
+        if (obj instanceof String s) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            byte[] out = new byte[1 + utf8.length];
+            out[0] = TAG_STRING;
+            System.arraycopy(utf8, 0, out, 1, utf8.length);
+            return out;
+        }
+        if (obj instanceof Message m) {
+            return encodeMessage(m);
+        }
+        throw new IOException("Tipo no soportado por el codec binario: " + obj);
+    }
+
+    private static byte[] encodeMessage(Message m) {
+        UUID uuid = parseCanonicalUuid(m.getId());
+        byte[] id = uuid == null ? utf8(m.getId()) : null;
+        byte[] sender = utf8(m.getSender());
+        byte[] recipient = utf8(m.getRecipient());
+        byte[] content = m.getContent();
+        byte[] fileName = utf8(m.getFileName());
+
+        int size = 2
+                + (uuid != null ? 16 : fieldSize(id))
+                + fieldSize(sender)
+                + fieldSize(recipient)
+                + fieldSize(content)
+                + fieldSize(fileName)
+                + 8;
+
+        Writer w = new Writer(size);
+        w.put((byte) m.getType().ordinal());
+        w.put((byte) (uuid != null ? FLAG_UUID_ID : 0));
+        if (uuid != null) {
+            w.putLong(uuid.getMostSignificantBits());
+            w.putLong(uuid.getLeastSignificantBits());
+        } else {
+            w.putField(id);
+        }
+        w.putField(sender);
+        w.putField(recipient);
+        w.putField(content);
+        w.putField(fileName);
+        w.putLong(m.getTimestamp());
+        return w.buf;
+    }
+
+    public static Object decode(byte[] data, int off, int len) throws IOException {
+        if (len < 1) throw new IOException("Trama vacía");
+        Reader r = new Reader(data, off, len);
+        int tag = r.get();
+        if (tag == TAG_STRING) {
+            return new String(data, off + 1, len - 1, StandardCharsets.UTF_8);
+        }
+        if (tag < 0 || tag >= TYPES.length) throw new IOException("Tipo de mensaje desconocido: " + tag);
+
+        int flags = r.get();
+        String id;
+        if ((flags & FLAG_UUID_ID) != 0) {
+            id = new UUID(r.getLong(), r.getLong()).toString();
+        } else {
+            id = r.getString();
+        }
+        String sender = r.getString();
+        String recipient = r.getString();
+        byte[] content = r.getField();
+        String fileName = r.getString();
+        long timestamp = r.getLong();
+        return new Message(TYPES[tag], id, sender, recipient, content, fileName, timestamp);
+    }
+
+    // ----- utilidades -----
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Solo se comprime si el UUID vuelve a imprimirse igual (forma canónica en minúsculas)
+    private static UUID parseCanonicalUuid(String id) {
+        if (id == null || id.length() != 36) return null;
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int fieldSize(byte[] field) {
+        int len = field == null ? 0 : field.length + 1;
+        return varintSize(len) + (field == null ? 0 : field.length);
+    }
+
+    private static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static final class Writer {
+        final byte[] buf;
+        int pos = 0;
+
+        Writer(int size) { buf = new byte[size]; }
+
+        void put(byte b) { buf[pos++] = b; }
+
+        void putLong(long v) {
+            for (int shift = 56; shift >= 0; shift -= 8) buf[pos++] = (byte) (v >>> shift);
+        }
+
+        void putVarint(int v) {
+            while ((v & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void putField(byte[] field) {
+            if (field == null) {
+                putVarint(0);
+                return;
+            }
+            putVarint(field.length + 1);
+            System.arraycopy(field, 0, buf, pos, field.length);
+            pos += field.length;
+        }
+    }
+
+    private static final class Reader {
+        final byte[] buf;
+        final int end;
+        int pos;
+
+        Reader(byte[] buf, int off, int len) {
+            this.buf = buf;
+            this.pos = off;
+            this.end = off + len;
+        }
+
+        private void need(int n) throws IOException {
+            if (end - pos < n) throw new IOException("Trama truncada");
+        }
+
+        int get() throws IOException {
+            need(1);
+            return buf[pos++];
+        }
+
+        long getLong() throws IOException {
+            need(8);
+            long v = 0;
+            for (int i = 0; i < 8; i++) v = (v << 8) | (buf[pos++] & 0xFF);
+            return v;
+        }
+
+        int getVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = get();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Varint inválido");
+        }
+
+        byte[] getField() throws IOException {
+            int len = getVarint();
+            if (len == 0) return null;
+            len -= 1;
+            if (len < 0) throw new IOException("Longitud inválida");
+            need(len);
+            byte[] out = new byte[len];
+            System.arraycopy(buf, pos, out, 0, len);
+            pos += len;
+            return out;
+        }
+
+        String getString() throws IOException {
+            int len = getVarint();
+            if (len == 0) return null;
+            len -= 1;
+            if (len < 0) throw new IOException("Longitud inválida");
+            need(len);
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package proyecto_chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Protocolo por tramas sobre TCP:
+ *
+ *   handshake: [4 bytes "CHAT"][1 byte versión máxima del cliente]
+ *   respuesta: [1 byte versión elegida]  (solo si el cliente ofreció versión 2 o más)
+ *   trama:     [4 bytes big-endian = longitud][cuerpo]
+ *
+ * La primera trama lleva el username (String); las siguientes, objetos Message.
+ * Al ser tramas independientes, el servidor NIO puede separarlas sin bloquear un hilo.
+ * El cuerpo depende de la versión negociada: serialización Java (1) o {@link MessageCodec} (2).
+ */
+public final class MessageFrames {
+    private MessageFrames() {}
+
+    public static final byte[] MAGIC = { 'C', 'H', 'A', 'T' };
+    public static final int HANDSHAKE_SIZE = MAGIC.length + 1;
+
+    // Versión 1: cuerpo = un objeto serializado con ObjectOutputStream
+    public static final byte VERSION_SERIALIZED = 1;
+    // Versión 2: cuerpo en formato binario compacto (MessageCodec)
+    public static final byte VERSION_BINARY = 2;
+    public static final byte VERSION_MAX = VERSION_BINARY;
+
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    public static byte[] handshake(byte version) {
+        byte[] hs = new byte[HANDSHAKE_SIZE];
+        System.arraycopy(MAGIC, 0, hs, 0, MAGIC.length);
+        hs[MAGIC.length] = version;
+        return hs;
+    }
+
+    /** Versión que el servidor acepta para la ofrecida por el cliente, o -1 si no hay ninguna. */
+    public static byte negotiate(byte offered) {
+        if (offered < VERSION_SERIALIZED) return -1;
+        return (byte) Math.min(offered, VERSION_MAX);
+    }
+
+    /** Las versiones 2+ esperan un byte de respuesta con la versión elegida. */
+    public static boolean expectsReply(byte offered) {
+        return offered >= VERSION_BINARY;
+    }
+
+    public static boolean isMagic(byte[] data, int off) {
+        if (data.length - off < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[off + i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /** Cuerpo de una trama (sin la longitud) en la versión indicada. */
+    public static byte[] encodeBody(Object obj, byte version) throws IOException {
+        if (version >= VERSION_BINARY) {
+            return MessageCodec.encode(obj);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(obj);
+        }
+        return bos.toByteArray();
+    }
+
+    /** Trama completa: longitud + cuerpo. */
+    public static byte[] encode(Object obj, byte version) throws IOException {
+        byte[] body = encodeBody(obj, version);
+        byte[] frame = new byte[HEADER_SIZE + body.length];
+        writeLength(frame, 0, body.length);
+        System.arraycopy(body, 0, frame, HEADER_SIZE, body.length);
+        return frame;
+    }
+
+    public static Object decode(byte[] data, int off, int len, byte version) throws IOException, ClassNotFoundException {
+        if (version >= VERSION_BINARY) {
+            return MessageCodec.decode(data, off, len);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data, off, len))) {
+            return ois.readObject();
+        }
+    }
+
+    public static void writeLength(byte[] dst, int off, int len) {
+        dst[off]     = (byte) (len >> 24);
+        dst[off + 1] = (byte) (len >> 16);
+        dst[off + 2] = (byte) (len >> 8);
+        dst[off + 3] = (byte) len;
+    }
+}
@@ -0,0 +1,14 @@
+package proyecto_chat.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Canal de objetos entre cliente y servidor. Oculta si se usa el flujo
+ * ObjectOutputStream original o el protocolo por tramas (ver {@link MessageFrames}).
+ */
+public interface MessageStream extends Closeable {
+    void writeObject(Object obj) throws IOException;
+
+    Object readObject() throws IOException, ClassNotFoundException;
+}
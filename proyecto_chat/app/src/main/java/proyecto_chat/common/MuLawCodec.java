@@ -0,0 +1,62 @@
+package proyecto_chat.common;
+
+/**
+ * G.711 µ-law: 8 bits por muestra (la mitad que PCM de 16 bits). No guarda estado.
+ */
+public final class MuLawCodec implements AudioCodec {
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+
+    // Las 256 muestras posibles ya decodificadas
+    private static final short[] DECODE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xFF;
+            int exponent = (u >> 4) & 0x07;
+            int sample = ((((u & 0x0F) << 3) + BIAS) << exponent) - BIAS;
+            DECODE[i] = (short) ((u & 0x80) != 0 ? -sample : sample);
+        }
+    }
+
+    @Override public String name() { return AudioCodecs.ULAW; }
+    @Override public int maxEncodedSize(int pcmBytes) { return pcmBytes / 2; }
+    @Override public int maxDecodedSize(int encodedBytes) { return encodedBytes * 2; }
+
+    @Override
+    public int encode(byte[] pcm, int off, int len, byte[] out, int outOff) {
+        int n = len / 2;
+        for (int i = 0; i < n; i++) {
+            int p = off + 2 * i;
+            out[outOff + i] = encodeSample((short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8)));
+        }
+        return n;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff) {
+        for (int i = 0; i < len; i++) {
+            short s = DECODE[in[off + i] & 0xFF];
+            pcm[pcmOff + 2 * i] = (byte) s;
+            pcm[pcmOff + 2 * i + 1] = (byte) (s >> 8);
+        }
+        return len * 2;
+    }
+
+    static byte encodeSample(int sample) {
+        int sign = 0;
+        if (sample < 0) {
+            sign = 0x80;
+            sample = -sample;
+        }
+        if (sample > CLIP) sample = CLIP;
+        sample += BIAS;
+        int exponent = 31 - Integer.numberOfLeadingZeros(sample >> 7 | 1);
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    static short decodeSample(byte ulaw) {
+        return DECODE[ulaw & 0xFF];
+    }
+}
@@ -0,0 +1,40 @@
+package proyecto_chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Protocolo original: un ObjectOutputStream/ObjectInputStream por conexión.
+ */
+public class ObjectMessageStream implements MessageStream {
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    // El ObjectOutputStream se crea primero para enviar el encabezado antes de leer el del otro lado
+    public ObjectMessageStream(InputStream in, OutputStream out) throws IOException {
+        this.out = new ObjectOutputStream(out);
+        this.in = new ObjectInputStream(in);
+    }
+
+    @Override
+    public void writeObject(Object obj) throws IOException {
+        out.writeObject(obj);
+    }
+
+    @Override
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return in.readObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package proyecto_chat.common;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encabezado de los datagramas del relay de llamadas (versión 2).
+ *
+ *   REGISTER: [0xC2][1][callIdLen 1 byte][callId UTF-8][codec 1 byte][frecuencia 2 bytes]
+ *                                                          cliente -> relay
+ *   ACK:      [0xC2][2][token 4 bytes]                     relay -> cliente
+ *   AUDIO:    [0xC2][3][token 4 bytes][fuente 2 bytes][seq 2 bytes][timestamp 4 bytes][payload]
+ *                                                          en ambos sentidos (el relay lo reenvía)
+ *   BYE:      [0xC2][4][token 4 bytes]                     cliente -> relay
+ *   SILENCE:  [0xC2][5][token 4 bytes][fuente 2 bytes][seq 2 bytes][timestamp 4 bytes][nivel 1 byte]
+ *                                                          como AUDIO, en lugar del audio suprimido
+ *
+ * El token lo asigna el relay al registrar la llamada; así cada paquete de audio lleva
+ * 14 bytes de encabezado en lugar de 4 + 36 del UUID. La fuente identifica a quien habla
+ * dentro de la llamada: el cliente la manda en 0 y el relay escribe la del remitente antes
+ * de reenviar ({@link #MIX_SOURCE} es la mezcla del propio relay). {@code seq} cuenta los
+ * paquetes de cada fuente (da la vuelta en 65535) y {@code timestamp} es la posición de
+ * captura en muestras; con ellos el receptor reordena y mide el jitter de cada fuente por
+ * separado. El codec
+ * ({@link AudioCodecs#id}) y la frecuencia de muestreo del REGISTER los usa el relay si
+ * mezcla la llamada; si faltan se asume PCM a 44100 Hz. En la versión 1
+ * ({@code [4 bytes callIdLen][callId][payload]}) el primer byte es siempre 0, por eso
+ * el relay distingue ambas por el primer byte.
+ *
+ * Quien no habla no manda AUDIO: al empezar el silencio, y luego cada tanto, manda SILENCE con
+ * el nivel del ruido de fondo en -dBov (0 a 127) para que el receptor genere ruido de confort
+ * y siga la secuencia.
+ */
+public final class RelayProtocol {
+    private RelayProtocol() {}
+
+    public static final byte MAGIC = (byte) 0xC2;
+
+    public static final byte REGISTER = 1;
+    public static final byte ACK = 2;
+    public static final byte AUDIO = 3;
+    public static final byte BYE = 4;
+    public static final byte SILENCE = 5;
+
+    /** Bytes de encabezado de ACK y BYE (y mínimo de cualquier paquete con token). */
+    public static final int TOKEN_HEADER = 6;
+    /** Bytes de encabezado de AUDIO: token, fuente, seq y timestamp. */
+    public static final int AUDIO_HEADER = 14;
+    /** Bytes de un paquete SILENCE. */
+    public static final int SILENCE_LENGTH = AUDIO_HEADER + 1;
+    /** El largo del callId va en un byte; el relay aplica el mismo límite a la versión 1. */
+    public static final int MAX_CALL_ID_BYTES = 255;
+    /** Datagrama más grande que recibe el relay, con el encabezado. */
+    public static final int MAX_DATAGRAM = 8192;
+    /** Audio más grande que entra en un paquete AUDIO. */
+    public static final int MAX_AUDIO_PAYLOAD = MAX_DATAGRAM - AUDIO_HEADER;
+    /** Fuente del audio que mezcla el relay; los participantes van de 1 a 65535. */
+    public static final int MIX_SOURCE = 0;
+
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    /** Posición de la fuente en AUDIO y SILENCE; el relay la escribe en su buffer al reenviar. */
+    public static final int SOURCE_OFFSET = 6;
+
+    public static byte[] register(String callId, String codec, int sampleRate) {
+        byte[] id = callId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_CALL_ID_BYTES) throw new IllegalArgumentException("callId demasiado largo");
+        byte[] out = new byte[3 + id.length + 3];
+        out[0] = MAGIC;
+        out[1] = REGISTER;
+        out[2] = (byte) id.length;
+        System.arraycopy(id, 0, out, 3, id.length);
+        out[3 + id.length] = (byte) AudioCodecs.id(codec);
+        out[4 + id.length] = (byte) (sampleRate >> 8);
+        out[5 + id.length] = (byte) sampleRate;
+        return out;
+    }
+
+    /** Escribe {@code [MAGIC][type][token]} al inicio de {@code buf}. */
+    public static void writeHeader(byte[] buf, byte type, int token) {
+        buf[0] = MAGIC;
+        buf[1] = type;
+        writeInt(buf, 2, token);
+    }
+
+    /** Tipo del datagrama, o -1 si no es de la versión 2. */
+    public static int type(byte[] buf, int len) {
+        if (len < 2 || buf[0] != MAGIC) return -1;
+        return buf[1];
+    }
+
+    /** Escribe la fuente de un paquete AUDIO o SILENCE (después de {@link #writeHeader}). */
+    public static void writeSource(byte[] buf, int source) {
+        buf[SOURCE_OFFSET] = (byte) (source >> 8);
+        buf[SOURCE_OFFSET + 1] = (byte) source;
+    }
+
+    /** Escribe seq y timestamp de un paquete AUDIO (después de {@link #writeHeader}). */
+    public static void writeSequence(byte[] buf, int seq, int timestamp) {
+        buf[8] = (byte) (seq >> 8);
+        buf[9] = (byte) seq;
+        writeInt(buf, 10, timestamp);
+    }
+
+    public static int readToken(byte[] buf) {
+        return readInt(buf, 2);
+    }
+
+    public static int readSource(byte[] buf) {
+        return ((buf[SOURCE_OFFSET] & 0xFF) << 8) | (buf[SOURCE_OFFSET + 1] & 0xFF);
+    }
+
+    public static int readSeq(byte[] buf) {
+        return ((buf[8] & 0xFF) << 8) | (buf[9] & 0xFF);
+    }
+
+    public static int readTimestamp(byte[] buf) {
+        return readInt(buf, 10);
+    }
+
+    private static void writeInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) (v >> 24);
+        buf[off + 1] = (byte) (v >> 16);
+        buf[off + 2] = (byte) (v >> 8);
+        buf[off + 3] = (byte) v;
+    }
+
+    private static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16) | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+}
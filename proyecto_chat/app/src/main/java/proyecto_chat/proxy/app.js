@@ -9,30 +9,81 @@ const HTTP_PORT = 3000;
 const app = express();
 app.use(bodyParser.json());
 
-// helper: request sync-like via socket (envía JSON, espera 1 línea JSON respuesta)
-function sendToJavaProxy(obj) {
-  return new Promise((resolve, reject) => {
-    const client = new net.Socket();
-    let responseData = '';
-    client.connect(PROXY_PORT, PROXY_HOST, () => {
-      client.write(JSON.stringify(obj) + '\n');
-    });
-    client.on('data', (data) => {
-      responseData += data.toString('utf8');
-      client.destroy();
-    });
-    client.on('close', () => {
-      try {
-        const parsed = JSON.parse(responseData);
-        resolve(parsed);
-      } catch (e) {
-        reject(e);
-      }
+const POOL_SIZE = 4;               // conexiones persistentes con ProxyListener
+const REQUEST_TIMEOUT_MS = 15000;
+
+// Una conexión persistente: varias peticiones en vuelo, cada una con su req_id.
+// Las respuestas llegan como líneas JSON, en cualquier orden.
+class JavaConnection {
+  constructor() {
+    this.pending = new Map();   // req_id -> { resolve, reject, timer }
+    this.buffer = '';
+    this.ready = null;
+    this.socket = null;
+  }
+
+  connect() {
+    if (this.ready) return this.ready;
+    this.ready = new Promise((resolve, reject) => {
+      const socket = net.createConnection(PROXY_PORT, PROXY_HOST);
+      socket.setNoDelay(true);
+      socket.setEncoding('utf8');
+      socket.once('connect', () => { this.socket = socket; resolve(); });
+      socket.on('data', (chunk) => this.onData(chunk));
+      socket.on('error', (err) => { reject(err); this.fail(err); });
+      socket.on('close', () => this.fail(new Error('conexión con ProxyListener cerrada')));
     });
-    client.on('error', (err) => {
-      reject(err);
+    return this.ready;
+  }
+
+  onData(chunk) {
+    this.buffer += chunk;
+    let nl;
+    while ((nl = this.buffer.indexOf('\n')) >= 0) {
+      const line = this.buffer.slice(0, nl);
+      this.buffer = this.buffer.slice(nl + 1);
+      if (!line) continue;
+      let msg;
+      try { msg = JSON.parse(line); } catch (e) { continue; }
+      const p = this.pending.get(msg.req_id);
+      if (!p) continue;
+      this.pending.delete(msg.req_id);
+      clearTimeout(p.timer);
+      delete msg.req_id;
+      p.resolve(msg);
+    }
+  }
+
+  // Rechaza lo pendiente; la próxima petición vuelve a conectar
+  fail(err) {
+    if (this.socket) this.socket.destroy();
+    this.socket = null;
+    this.ready = null;
+    this.buffer = '';
+    for (const p of this.pending.values()) { clearTimeout(p.timer); p.reject(err); }
+    this.pending.clear();
+  }
+
+  async request(reqId, obj) {
+    await this.connect();
+    return new Promise((resolve, reject) => {
+      const timer = setTimeout(() => {
+        this.pending.delete(reqId);
+        reject(new Error('timeout esperando a ProxyListener'));
+      }, REQUEST_TIMEOUT_MS);
+      this.pending.set(reqId, { resolve, reject, timer });
+      this.socket.write(JSON.stringify({ ...obj, req_id: reqId }) + '\n');
     });
-  });
+  }
+}
+
+const pool = Array.from({ length: POOL_SIZE }, () => new JavaConnection());
+let nextReqId = 1;
+
+// helper: envía un JSON y espera su respuesta; reparte las peticiones entre las conexiones
+function sendToJavaProxy(obj) {
+  const reqId = nextReqId++;
+  return pool[reqId % POOL_SIZE].request(reqId, obj);
 }
 
 // Endpoints para cliente web:
@@ -75,15 +126,33 @@ app.delete('/api/messages', async (req, res) => {
 });
 
 
-// Obtener historial
+// Obtener historial (paginado: ?limit=50&before=<cursor> o &after=<cursor>)
 app.get('/api/history/:recipient', async (req, res) => {
     const recipient = req.params.recipient;
-    const username = req.query.username;
+    const { username, before, after } = req.query;
+    const limit = req.query.limit ? parseInt(req.query.limit, 10) : undefined;
     
     if (!username) return res.status(400).json({ status: 'error', message: 'username required' });
 
     try {
-        const r = await sendToJavaProxy({ action: 'fetch_history', username, recipient });
+        const r = await sendToJavaProxy({ action: 'fetch_history', username, recipient, before, after, limit });
+        res.json(r);
+    } catch (err) {
+        res.status(500).json({ status: 'error', message: err.message });
+    }
+});
+
+
+// Solo lo nuevo desde una marca (?since=<since de la respuesta anterior>)
+app.get('/api/history/:recipient/since', async (req, res) => {
+    const recipient = req.params.recipient;
+    const { username } = req.query;
+    const since = req.query.since ? parseInt(req.query.since, 10) : 0;
+
+    if (!username) return res.status(400).json({ status: 'error', message: 'username required' });
+
+    try {
+        const r = await sendToJavaProxy({ action: 'sync_history', username, recipient, since });
         res.json(r);
     } catch (err) {
         res.status(500).json({ status: 'error', message: err.message });
@@ -117,6 +186,17 @@ app.post('/api/login', async (req, res) => {
   }
 });
 
+// Cerrar sesión web: el usuario deja de contar como conectado sin esperar a que venza su lease
+app.post('/api/logout', async (req, res) => {
+  const { username } = req.body;
+  try {
+    const r = await sendToJavaProxy({ action: 'logout', username });
+    res.json(r);
+  } catch (err) {
+    res.status(500).json({ status:'error', message: err.message });
+  }
+});
+
 // Listar usuarios reales
 app.get('/api/users', async (req, res) => {
   try {
@@ -0,0 +1,347 @@
+package proyecto_chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import proyecto_chat.common.AudioCodec;
+import proyecto_chat.common.AudioCodecs;
+import proyecto_chat.common.RelayProtocol;
+
+/**
+ * Mezcla de las llamadas grupales en el relay (modo {@code chat.relay.mix}). En lugar de
+ * reenviar el audio de cada participante a los otros N-1, el relay decodifica lo que llega,
+ * y en cada frame manda a cada participante un único paquete con la suma de los demás
+ * (sin su propia voz), recodificado con su codec y con la fuente
+ * {@link RelayProtocol#MIX_SOURCE}. Así el relay envía N paquetes por frame
+ * en lugar de N·(N-1).
+ *
+ * Solo se mezclan llamadas de la versión 2 con {@link #MIN_PARTICIPANTS} o más
+ * participantes; con dos el reenvío ya es un paquete por frame y no añade latencia. Si
+ * los participantes anuncian frecuencias de muestreo distintas la llamada no se mezcla y
+ * su audio se reenvía con la fuente de cada uno; el cliente lo mezcla.
+ */
+final class AudioMixer {
+    static final int MIN_PARTICIPANTS = 3;
+    private static final int QUEUE_FRAMES = 4; // frames pendientes por participante; se descartan los más viejos
+    private static final int COMFORT_NOISE_LEVEL = 70; // -dBov del ruido de confort cuando nadie habla
+
+    private final DatagramChannel channel;
+    private final ScheduledExecutorService ticker;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet(); // con participantes, para las métricas
+
+    // Métricas
+    private volatile long mixedFrames;
+    private volatile long sent;
+
+    AudioMixer(DatagramChannel channel) {
+        this.channel = channel;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "relay-mezcla");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Mezcla de una llamada con token. La guarda la llamada del relay, así cada paquete llega
+     * a su sesión sin buscarla en un mapa por token.
+     */
+    Session newSession(int token) {
+        return new Session(token);
+    }
+
+    /**
+     * Alta (o re-registro) de un participante con el codec y la frecuencia que anunció en
+     * REGISTER. Si en un re-registro cambió alguno de los dos se reemplaza el participante.
+     */
+    void join(Session session, InetSocketAddress addr, int codecId, int sampleRate) {
+        Participant existing = session.participants.get(addr);
+        if (existing != null && existing.codecId == codecId && existing.sampleRate == sampleRate) return;
+        session.participants.put(addr, new Participant(addr, codecId, sampleRate));
+        sessions.add(session);
+        session.checkRates();
+    }
+
+    void leave(Session session, InetSocketAddress addr) {
+        session.participants.remove(addr);
+        if (session.participants.isEmpty()) {
+            sessions.remove(session);
+            session.stop();
+        } else {
+            session.checkRates();
+        }
+    }
+
+    /**
+     * Audio o silencio de un participante (paquete completo en {@code buf}). Devuelve false si la
+     * llamada no se mezcla y el relay debe reenviarlo.
+     */
+    boolean onAudio(Session session, InetSocketAddress from, ByteBuffer buf, int len, boolean silence) {
+        if (!session.sameRate || session.participants.size() < MIN_PARTICIPANTS) return false;
+        Participant p = session.participants.get(from);
+        if (p == null || len < RelayProtocol.AUDIO_HEADER) return false;
+        if (silence) return true;
+        int samples = p.push(buf, len);
+        if (samples > 0) session.start(samples, p.sampleRate);
+        return true;
+    }
+
+    void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    int getMixedCalls() {
+        int n = 0;
+        for (Session s : sessions) {
+            if (s.task != null) n++;
+        }
+        return n;
+    }
+
+    long getMixedFrames() { return mixedFrames; }
+    long getSent() { return sent; }
+
+    /** Una llamada mezclada: sus participantes y la tarea que mezcla cada frame. */
+    final class Session {
+        final int token;
+        final ConcurrentHashMap<InetSocketAddress, Participant> participants = new ConcurrentHashMap<>();
+        volatile ScheduledFuture<?> task;
+        volatile int frameSamples;
+        volatile boolean sameRate = true; // todos anunciaron la misma frecuencia
+        int rate;                         // la del ritmo en marcha; protegida por el monitor
+        int[] sum = new int[0]; // solo lo usa el hilo de mezcla
+
+        Session(int token) {
+            this.token = token;
+        }
+
+        // Arranca el ritmo de mezcla con la duración del primer frame recibido
+        synchronized void start(int frameSamples, int sampleRate) {
+            if (task != null || !sameRate) return;
+            this.frameSamples = frameSamples;
+            this.rate = sampleRate;
+            long periodNanos = frameSamples * 1_000_000_000L / sampleRate;
+            task = ticker.scheduleAtFixedRate(this::tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        synchronized void stop() {
+            if (task != null) task.cancel(false);
+            task = null;
+        }
+
+        /**
+         * Tras un alta o una baja: con frecuencias distintas no se mezcla (sumar muestras de
+         * ritmos distintos da ruido) y si cambió la frecuencia común el ritmo vuelve a
+         * arrancar con el próximo frame.
+         */
+        synchronized void checkRates() {
+            int common = 0;
+            boolean same = true;
+            for (Participant p : participants.values()) {
+                if (common == 0) common = p.sampleRate;
+                else if (p.sampleRate != common) same = false;
+            }
+            sameRate = same;
+            if (task != null && (!same || common != rate)) {
+                stop();
+                for (Participant p : participants.values()) p.clear();
+            }
+        }
+
+        private void tick() {
+            if (participants.size() < MIN_PARTICIPANTS) {
+                // Vuelve a reenvío: se deja de mezclar hasta que haya de nuevo suficientes
+                stop();
+                for (Participant p : participants.values()) p.clear();
+                return;
+            }
+
+            int frame = 0;
+            for (Participant p : participants.values()) {
+                frame = Math.max(frame, p.take());
+            }
+            if (frame == 0) {
+                // Nadie habló en este frame: a cada uno se le avisa una vez que empieza el silencio
+                for (Participant p : participants.values()) {
+                    try {
+                        if (p.sendSilence(frameSamples, token)) sent++;
+                    } catch (IOException ignored) {}
+                }
+                return;
+            }
+
+            if (sum.length < frame) sum = new int[frame];
+            Arrays.fill(sum, 0, frame, 0);
+            for (Participant p : participants.values()) {
+                if (p.currentLength > 0) p.addTo(sum);
+            }
+
+            mixedFrames++;
+            int speakers = 0;
+            for (Participant p : participants.values()) {
+                if (p.currentLength > 0) speakers++;
+            }
+            for (Participant p : participants.values()) {
+                try {
+                    if (speakers == (p.currentLength > 0 ? 1 : 0)) {
+                        // Si solo habló él no hay nada que mandarle: un marcador de silencio y ya
+                        if (p.sendSilence(frame, token)) sent++;
+                        continue;
+                    }
+                    p.sendMix(sum, frame, token);
+                    sent++;
+                } catch (IOException e) {
+                    // un destinatario inalcanzable no detiene la mezcla de los demás
+                }
+            }
+        }
+    }
+
+    /**
+     * Un participante: su cola de frames decodificados (la llena el shard de la llamada, la
+     * vacía el hilo de mezcla) y su codificador de salida.
+     */
+    private final class Participant {
+        final InetSocketAddress addr;
+        final int codecId;
+        final int sampleRate;
+        final AudioCodec decoder;
+        final AudioCodec encoder;
+
+        // Cola circular de frames PCM (16 bits LE); protegida por el monitor del participante
+        final byte[][] queue = new byte[QUEUE_FRAMES][];
+        final int[] queueLengths = new int[QUEUE_FRAMES];
+        int head;
+        int size;
+        byte[] scratch = new byte[0];
+
+        // Frame del tick actual (solo el hilo de mezcla)
+        byte[] current = new byte[0];
+        int currentLength;
+
+        // Salida: mezcla en PCM y paquete AUDIO con el audio codificado
+        byte[] scratchPcm = new byte[0];
+        byte[] out = new byte[0];
+        ByteBuffer outBuf;
+        int seq;
+        int timestamp;
+        boolean silent = true; // ya se le mandó SILENCE y no hubo mezcla desde entonces
+
+        Participant(InetSocketAddress addr, int codecId, int sampleRate) {
+            this.addr = addr;
+            this.codecId = codecId;
+            this.sampleRate = sampleRate;
+            String name = AudioCodecs.nameOf(codecId);
+            this.decoder = AudioCodecs.create(name);
+            this.encoder = AudioCodecs.create(name);
+        }
+
+        /** Decodifica y encola un paquete; devuelve las muestras del frame. */
+        synchronized int push(ByteBuffer buf, int len) {
+            int encodedLen = len - RelayProtocol.AUDIO_HEADER;
+            if (scratch.length < encodedLen) scratch = new byte[encodedLen];
+            buf.get(RelayProtocol.AUDIO_HEADER, scratch, 0, encodedLen);
+
+            int slot = (head + size) % QUEUE_FRAMES;
+            if (size == QUEUE_FRAMES) {
+                // Cola llena: se descarta el más viejo para no acumular latencia
+                slot = head;
+                head = (head + 1) % QUEUE_FRAMES;
+                size--;
+            }
+            int max = decoder.maxDecodedSize(encodedLen);
+            if (queue[slot] == null || queue[slot].length < max) queue[slot] = new byte[max];
+            queueLengths[slot] = decoder.decode(scratch, 0, encodedLen, queue[slot], 0);
+            size++;
+            return queueLengths[slot] / 2;
+        }
+
+        /** Saca el frame de este tick (o ninguno); devuelve sus muestras. */
+        synchronized int take() {
+            if (size == 0) {
+                currentLength = 0;
+                return 0;
+            }
+            // Se intercambia con el buffer de la cola para no copiar
+            byte[] frame = queue[head];
+            currentLength = queueLengths[head];
+            queue[head] = current;
+            current = frame;
+            head = (head + 1) % QUEUE_FRAMES;
+            size--;
+            return currentLength / 2;
+        }
+
+        synchronized void clear() {
+            size = 0;
+        }
+
+        void addTo(int[] sum) {
+            for (int i = 0, s = 0; i + 1 < currentLength; i += 2, s++) {
+                sum[s] += (short) ((current[i] & 0xFF) | (current[i + 1] << 8));
+            }
+        }
+
+        /** Envía la mezcla menos la voz propia. */
+        void sendMix(int[] sum, int samples, int token) throws IOException {
+            int pcmLen = samples * 2;
+            if (scratchPcm.length < pcmLen) scratchPcm = new byte[pcmLen];
+            int own = currentLength / 2;
+            for (int s = 0; s < samples; s++) {
+                int v = sum[s];
+                if (s < own) v -= (short) ((current[2 * s] & 0xFF) | (current[2 * s + 1] << 8));
+                // Protección contra saturación: se recorta a 16 bits
+                if (v > Short.MAX_VALUE) v = Short.MAX_VALUE;
+                else if (v < Short.MIN_VALUE) v = Short.MIN_VALUE;
+                scratchPcm[2 * s] = (byte) v;
+                scratchPcm[2 * s + 1] = (byte) (v >> 8);
+            }
+            int max = RelayProtocol.AUDIO_HEADER + encoder.maxEncodedSize(pcmLen);
+            if (out.length < max) {
+                out = new byte[max];
+                outBuf = ByteBuffer.wrap(out);
+            }
+            RelayProtocol.writeHeader(out, RelayProtocol.AUDIO, token);
+            RelayProtocol.writeSource(out, RelayProtocol.MIX_SOURCE);
+            RelayProtocol.writeSequence(out, seq, timestamp);
+            int n = encoder.encode(scratchPcm, 0, pcmLen, out, RelayProtocol.AUDIO_HEADER);
+            seq = (seq + 1) & 0xFFFF;
+            timestamp += samples;
+            silent = false;
+
+            outBuf.limit(RelayProtocol.AUDIO_HEADER + n).position(0);
+            channel.send(outBuf, addr);
+        }
+
+        /** SILENCE al empezar un silencio (solo una vez); devuelve si se envió. */
+        boolean sendSilence(int samples, int token) throws IOException {
+            if (silent) {
+                timestamp += samples;
+                return false;
+            }
+            if (out.length < RelayProtocol.SILENCE_LENGTH) {
+                out = new byte[RelayProtocol.SILENCE_LENGTH];
+                outBuf = ByteBuffer.wrap(out);
+            }
+            RelayProtocol.writeHeader(out, RelayProtocol.SILENCE, token);
+            RelayProtocol.writeSource(out, RelayProtocol.MIX_SOURCE);
+            RelayProtocol.writeSequence(out, seq, timestamp);
+            out[RelayProtocol.AUDIO_HEADER] = (byte) COMFORT_NOISE_LEVEL;
+            seq = (seq + 1) & 0xFFFF;
+            timestamp += samples;
+            silent = true;
+
+            outBuf.limit(RelayProtocol.SILENCE_LENGTH).position(0);
+            channel.send(outBuf, addr);
+            return true;
+        }
+    }
+}
@@ -1,107 +1,604 @@
 package proyecto_chat.server;
 
+import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import proyecto_chat.common.RelayProtocol;
 
+/**
+ * Relay UDP de las llamadas. Acepta dos formatos, distinguidos por el primer byte:
+ * <ul>
+ *   <li>Versión 2 ({@link RelayProtocol}): REGISTER con el callId devuelve un token de 4 bytes
+ *       y los paquetes AUDIO/BYE solo llevan ese token. AUDIO se reenvía entero (con su
+ *       encabezado, donde el relay escribe la fuente del remitente), o se mezcla si el relay
+ *       se creó con mezcla ({@link AudioMixer}).</li>
+ *   <li>Versión 1: {@code [4 bytes big-endian = callIdLen][callId UTF-8][payload...]}; un payload
+ *       vacío registra al remitente, {@code 0x01} (BYE) lo da de baja y se reenvía solo el payload.</li>
+ * </ul>
+ * Los participantes de una misma llamada deben usar la misma versión.
+ *
+ * El bucle de reenvío no reserva memoria por paquete: recibe en un único buffer directo,
+ * busca la llamada por los bytes del callId (sin decodificar un String) y reenvía el
+ * payload desde ese mismo buffer a cada participante.
+ *
+ * Con varios shards cada llamada pertenece a uno, elegido por el hash de su callId: el
+ * REGISTER y todo el audio de la llamada (buscada por el token) los procesa y reenvía
+ * siempre el hilo de ese shard, desde su socket. Cada shard tiene además un hilo de
+ * recepción con su socket ligado al mismo puerto con SO_REUSEPORT; el kernel reparte por
+ * remitente, así que el receptor solo mira a qué llamada va el paquete y lo pasa por una
+ * cola (con buffers preasignados) al shard dueño. Donde SO_REUSEPORT no existe todos los
+ * hilos usan el mismo socket. Con un solo shard el paquete se procesa en el hilo que lo
+ * recibe, sin colas.
+ */
 public class CallRelay implements Runnable {
-    private final DatagramSocket socket;
-    private final int port;
+    private static final int MAX_CALL_ID_BYTES = RelayProtocol.MAX_CALL_ID_BYTES;
+    private static final int MAX_DATAGRAM = RelayProtocol.MAX_DATAGRAM;
+    private static final int MAX_TOKENS = 1 << 16;  // llamadas con token a la vez
+    private static final int QUEUE_PACKETS = 256;   // paquetes en cola por shard; si se llena se descartan
 
-    // callId -> conjunto de sockets participantes
-    private final ConcurrentHashMap<String, Set<InetSocketAddress>> calls = new ConcurrentHashMap<>();
+    private final Shard[] shards;
+    private final boolean reusePort;
+    private final int port; // el puerto ligado, aunque se pida el 0
+    private final AudioMixer mixer; // null si no se mezclan las llamadas grupales
+
+    // callId -> participantes
+    private final ConcurrentHashMap<CallKey, Call> calls = new ConcurrentHashMap<>();
+
+    // token -> llamada. Los 16 bits bajos del token son la posición y los altos son
+    // aleatorios, así un token viejo no coincide con la llamada que reutiliza su posición
+    private final AtomicReferenceArray<Call> tokens = new AtomicReferenceArray<>(MAX_TOKENS);
+    private final AtomicInteger nextSlot = new AtomicInteger();
 
     public CallRelay(int port) {
-        this.port = port;
+        this(port, 1);
+    }
+
+    public CallRelay(int port, int shardCount) {
+        this(port, shardCount, false);
+    }
+
+    public CallRelay(int port, int shardCount, boolean mix) {
+        DatagramChannel[] channels = open(port, Math.max(1, shardCount));
+        this.shards = new Shard[channels.length];
+        for (int i = 0; i < channels.length; i++) shards[i] = new Shard(channels[i], channels.length > 1);
+        this.reusePort = channels.length > 1 && channels[1] != channels[0];
+        this.port = channels[0].socket().getLocalPort();
+        // Envía desde el socket del primer shard: mismo puerto de origen que el reenvío
+        this.mixer = mix ? new AudioMixer(shards[0].channel) : null;
+    }
+
+    /**
+     * Un socket por shard ligado al mismo puerto con SO_REUSEPORT, o el mismo socket repetido
+     * donde no existe. Si alguno falla cierra los que ya abrió.
+     */
+    private static DatagramChannel[] open(int port, int count) {
+        DatagramChannel[] channels = new DatagramChannel[count];
         try {
-            this.socket = new DatagramSocket(port);
+            DatagramChannel first = DatagramChannel.open();
+            channels[0] = first;
+            boolean reusePort = count > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            if (reusePort) first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            first.bind(new InetSocketAddress(port));
+            // Con el puerto 0 los demás sockets van al que eligió el sistema para el primero
+            int bound = ((InetSocketAddress) first.getLocalAddress()).getPort();
+            for (int i = 1; i < count; i++) {
+                if (!reusePort) {
+                    channels[i] = first;
+                    continue;
+                }
+                DatagramChannel ch = DatagramChannel.open();
+                channels[i] = ch; // antes de bind, para cerrarlo si falla
+                ch.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                ch.bind(new InetSocketAddress(bound));
+            }
+            return channels;
         } catch (Exception e) {
+            closeAll(channels);
             throw new RuntimeException(e);
         }
     }
 
+    private static void closeAll(DatagramChannel[] channels) {
+        for (DatagramChannel ch : channels) {
+            if (ch == null) continue;
+            try {
+                ch.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
     public void registerParticipant(String callId, InetSocketAddress addr) {
-        calls.computeIfAbsent(
-                callId,
-                k -> Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>())
-        ).add(addr);
-        System.out.println("CallRelay: participante registrado para call " + callId + " -> " + addr);
+        register(CallKey.of(callId.getBytes(StandardCharsets.UTF_8)), addr);
     }
 
     public void unregisterParticipant(String callId, InetSocketAddress addr) {
-        Set<InetSocketAddress> set = calls.get(callId);
-        if (set != null) {
-            set.remove(addr);
-            if (set.isEmpty()) {
-                calls.remove(callId);
-                System.out.println("CallRelay: call " + callId + " sin participantes, limpiado.");
+        unregister(CallKey.of(callId.getBytes(StandardCharsets.UTF_8)), addr);
+    }
+
+    // key puede ser la clave reutilizable del bucle: solo se copia si la llamada es nueva
+    private Call register(CallKey key, InetSocketAddress addr) {
+        while (true) {
+            Call call = calls.get(key);
+            if (call == null) {
+                call = calls.computeIfAbsent(key.copy(), this::newCall);
+            }
+            if (call.add(addr)) {
+                System.out.println("CallRelay: participante registrado para call " + key + " -> " + addr);
+                return call;
+            }
+            if (!call.closed) return call; // ya estaba registrado
+            // La llamada se vació y se sacó de las tablas entre la búsqueda y el alta: otra vuelta
+        }
+    }
+
+    private void unregister(CallKey key, InetSocketAddress addr) {
+        Call call = calls.get(key);
+        if (call != null) unregister(call, addr);
+    }
+
+    private void unregister(Call call, InetSocketAddress addr) {
+        boolean empty;
+        // Con el candado de la llamada: un alta concurrente entra antes (y la llamada no queda
+        // vacía) o ve la llamada cerrada y busca otra
+        synchronized (call) {
+            if (!call.remove(addr)) return;
+            empty = call.members.length == 0;
+            if (empty) {
+                call.closed = true;
+                calls.remove(call.key, call);
+                if (call.token != 0) tokens.compareAndSet(call.token & (MAX_TOKENS - 1), call, null);
             }
         }
+        if (call.mix != null) mixer.leave(call.mix, addr);
+        if (empty) System.out.println("CallRelay: call " + call.key + " sin participantes, limpiado.");
+    }
+
+    private Call newCall(CallKey key) {
+        int start = nextSlot.getAndIncrement();
+        for (int i = 0; i < MAX_TOKENS; i++) {
+            int slot = (start + i) & (MAX_TOKENS - 1);
+            if (tokens.get(slot) != null) continue;
+            int token = (ThreadLocalRandom.current().nextInt(1, 1 << 15) << 16) | slot;
+            Call call = new Call(key, token, mixer != null ? mixer.newSession(token) : null);
+            if (tokens.compareAndSet(slot, null, call)) return call;
+        }
+        return new Call(key, 0, null); // tabla llena: la llamada solo sirve con la versión 1
+    }
+
+    private Call lookup(int token) {
+        Call call = tokens.get(token & (MAX_TOKENS - 1));
+        return call != null && call.token == token ? call : null;
+    }
+
+    // Shard dueño de la llamada con este hash de callId
+    private Shard shardFor(int hash) {
+        return shards[shardIndex(hash)];
     }
 
+    private int shardIndex(int hash) {
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    /** Índice del shard que procesa la llamada {@code callId}. */
+    int shardOf(String callId) {
+        return shardIndex(CallKey.of(callId.getBytes(StandardCharsets.UTF_8)).hashCode());
+    }
+
+    /**
+     * Arranca los shards: con más de uno, un hilo de proceso por shard y los receptores
+     * adicionales en hilos propios. El primer receptor corre en el hilo que llama.
+     */
     @Override
     public void run() {
-        System.out.println("CallRelay UDP escuchando en puerto " + port);
-
-        // Buffer más holgado (audio + encabezado)
-        byte[] buf = new byte[8192];
-        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        System.out.println("CallRelay UDP escuchando en puerto " + port + " (" + shards.length + " shards"
+                + (shards.length > 1 && !reusePort ? ", un solo socket compartido" : "") + ")");
+        if (shards.length > 1) {
+            for (int i = 0; i < shards.length; i++) {
+                Thread worker = new Thread(shards[i]::work, "relay-proceso-" + i);
+                worker.setDaemon(true);
+                shards[i].worker = worker;
+                worker.start();
+            }
+        }
+        for (int i = 1; i < shards.length; i++) {
+            Thread t = new Thread(shards[i], "relay-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        shards[0].run();
+    }
 
-        while (true) {
+    public void close() {
+        if (mixer != null) mixer.shutdown();
+        for (Shard shard : shards) {
+            if (shard == null) continue;
             try {
-                socket.receive(packet);
+                shard.channel.close();
+            } catch (IOException ignored) {}
+            Thread worker = shard.worker;
+            if (worker != null) worker.interrupt();
+        }
+    }
 
-                int len = packet.getLength();
-                if (len < 4) continue; // paquete inválido
+    public int getPort() { return port; }
 
-                byte[] data = Arrays.copyOf(packet.getData(), len);
+    public long getReceived() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.received;
+        return total;
+    }
 
-                // [4 bytes big-endian = callIdLen][callId UTF-8][payload...]
-                int callIdLen =
-                        ((data[0] & 0xFF) << 24) |
-                        ((data[1] & 0xFF) << 16) |
-                        ((data[2] & 0xFF) << 8)  |
-                        (data[3] & 0xFF);
+    public long getForwarded() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.forwarded;
+        return total;
+    }
 
-                if (callIdLen < 0 || 4 + callIdLen > data.length) continue; // corrupto
+    /** Paquetes descartados porque la cola del shard dueño de la llamada estaba llena. */
+    public long getDropped() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.dropped;
+        return total;
+    }
 
-                String callId = new String(data, 4, callIdLen, StandardCharsets.UTF_8);
-                byte[] payload = Arrays.copyOfRange(data, 4 + callIdLen, data.length);
+    long getForwarded(int shard) { return shards[shard].forwarded; }
 
-                InetSocketAddress from = (InetSocketAddress) packet.getSocketAddress();
+    public int getShardCount() { return shards.length; }
+    public int getCallCount() { return calls.size(); }
+    public boolean isMixing() { return mixer != null; }
+    public int getMixedCalls() { return mixer == null ? 0 : mixer.getMixedCalls(); }
+    public long getMixedFrames() { return mixer == null ? 0 : mixer.getMixedFrames(); }
+    public long getMixSent() { return mixer == null ? 0 : mixer.getSent(); }
 
-                // Registro/autorregistro:
-               
-                if (payload.length == 1 && payload[0] == 0x01) {
-                    // BYE: desregistrar y no reenviar nada
-                    unregisterParticipant(callId, from);
-                    continue;
+    /**
+     * Un shard: su socket, el hilo que recibe de él y, con varios shards, la cola y el hilo
+     * que procesan las llamadas que le tocan. Cada hilo tiene su buffer directo y su clave
+     * de búsqueda reutilizable.
+     */
+    private final class Shard implements Runnable {
+        final DatagramChannel channel;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        final CallKey probe = new CallKey(new byte[MAX_CALL_ID_BYTES], 0);
+        final ByteBuffer ack = ByteBuffer.allocateDirect(RelayProtocol.TOKEN_HEADER);
+
+        // Solo con varios shards: paquetes para este shard y paquetes libres para llenarlos
+        final ArrayBlockingQueue<Packet> pending;
+        final ArrayBlockingQueue<Packet> free;
+        volatile Thread worker;
+
+        // Métricas (cada una la escribe un solo hilo)
+        volatile long received;
+        volatile long forwarded;
+        volatile long dropped;
+
+        Shard(DatagramChannel channel, boolean queued) {
+            this.channel = channel;
+            if (queued) {
+                pending = new ArrayBlockingQueue<>(QUEUE_PACKETS);
+                free = new ArrayBlockingQueue<>(QUEUE_PACKETS);
+                for (int i = 0; i < QUEUE_PACKETS; i++) free.add(new Packet());
+            } else {
+                pending = null;
+                free = null;
+            }
+        }
+
+        /** Bucle de recepción. */
+        @Override
+        public void run() {
+            while (channel.isOpen()) {
+                try {
+                    buf.clear();
+                    // El JDK reutiliza la dirección si el remitente es el mismo del paquete anterior
+                    InetSocketAddress from = (InetSocketAddress) channel.receive(buf);
+                    if (from == null) continue;
+                    received++;
+                    int len = buf.position();
+
+                    if (pending == null) {
+                        process(buf, probe, from, len);
+                        continue;
+                    }
+                    Shard owner = owner(len);
+                    if (owner == null) continue; // inválido o de una llamada que no existe
+                    Packet p = owner.free.poll();
+                    if (p == null) {
+                        dropped++;
+                        continue;
+                    }
+                    buf.limit(len).position(0);
+                    p.buf.clear();
+                    p.buf.put(buf);
+                    p.from = from;
+                    p.len = len;
+                    owner.pending.add(p); // hay lugar: los paquetes salen de free
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
+            }
+        }
 
-                // Registro automático si llega paquete de audio o de registro
-                registerParticipant(callId, from);
+        /** Bucle de proceso de las llamadas de este shard (solo con varios shards). */
+        void work() {
+            CallKey key = new CallKey(new byte[MAX_CALL_ID_BYTES], 0);
+            while (true) {
+                Packet p;
+                try {
+                    p = pending.take();
+                } catch (InterruptedException e) {
+                    return; // close()
+                }
+                try {
+                    process(p.buf, key, p.from, p.len);
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    p.from = null;
+                    free.add(p);
+                }
+            }
+        }
 
-                // Si es solo registro (sin audio), no hay nada que reenviar
-                if (payload.length == 0) {
-                    continue;
+        // Shard de la llamada del paquete recibido, o null si no corresponde a ninguna
+        private Shard owner(int len) {
+            if (len > 0 && buf.get(0) == RelayProtocol.MAGIC) {
+                if (len < 3) return null;
+                if (buf.get(1) == RelayProtocol.REGISTER) {
+                    int idLen = buf.get(2) & 0xFF;
+                    return 3 + idLen > len ? null : shardFor(CallKey.hash(buf, 3, idLen));
                 }
+                if (len < RelayProtocol.TOKEN_HEADER) return null;
+                Call call = lookup(buf.getInt(2));
+                return call == null ? null : shardFor(call.key.hashCode());
+            }
+            if (len < 4) return null;
+            int callIdLen = buf.getInt(0);
+            if (callIdLen < 0 || callIdLen > MAX_CALL_ID_BYTES || 4 + callIdLen > len) return null;
+            return shardFor(CallKey.hash(buf, 4, callIdLen));
+        }
 
-                // Reenvío del audio a todos menos al remitente
-                Set<InetSocketAddress> participants = calls.get(callId);
-                if (participants == null || participants.isEmpty()) continue;
+        private void process(ByteBuffer buf, CallKey probe, InetSocketAddress from, int len) throws IOException {
+            if (len > 0 && buf.get(0) == RelayProtocol.MAGIC) {
+                handleV2(buf, probe, from, len);
+                return;
+            }
+            if (len < 4) return; // paquete inválido
 
-                for (InetSocketAddress p : participants) {
-                    if (!p.equals(from)) {
-                        DatagramPacket out = new DatagramPacket(payload, payload.length, p.getAddress(), p.getPort());
-                        socket.send(out);
-                    }
+            int callIdLen = buf.getInt(0);
+            if (callIdLen < 0 || callIdLen > MAX_CALL_ID_BYTES || 4 + callIdLen > len) return; // corrupto
+
+            probe.load(buf, 4, callIdLen);
+            int payloadStart = 4 + callIdLen;
+            int payloadLen = len - payloadStart;
+
+            if (payloadLen == 1 && buf.get(payloadStart) == 0x01) {
+                // BYE: desregistrar y no reenviar nada
+                unregister(probe, from);
+                return;
+            }
+
+            // Registro automático si llega paquete de audio o de registro
+            Call call = register(probe, from);
+
+            // Si es solo registro (sin audio), no hay nada que reenviar
+            if (payloadLen == 0) return;
+
+            forward(buf, call, from, payloadStart, len);
+        }
+
+        private void handleV2(ByteBuffer buf, CallKey probe, InetSocketAddress from, int len) throws IOException {
+            if (len < 2) return;
+            byte type = buf.get(1);
+
+            if (type == RelayProtocol.REGISTER) {
+                if (len < 3) return;
+                int idLen = buf.get(2) & 0xFF;
+                if (3 + idLen > len) return; // corrupto
+                probe.load(buf, 3, idLen);
+                Call call = register(probe, from);
+                if (call.token == 0) return;
+                if (call.mix != null) {
+                    // Codec y frecuencia opcionales al final del REGISTER
+                    int opts = 3 + idLen;
+                    int codec = len >= opts + 3 ? buf.get(opts) : 0;
+                    int rate = len >= opts + 3 ? buf.getShort(opts + 1) & 0xFFFF : RelayProtocol.DEFAULT_SAMPLE_RATE;
+                    mixer.join(call.mix, from, codec, rate);
+                }
+                // El ACK se repite en cada REGISTER: si se pierde, el cliente reintenta
+                ack.clear();
+                ack.put(RelayProtocol.MAGIC).put(RelayProtocol.ACK).putInt(call.token).flip();
+                channel.send(ack, from);
+                return;
+            }
+
+            if (len < RelayProtocol.TOKEN_HEADER) return;
+            Call call = lookup(buf.getInt(2));
+            if (call == null) return;
+
+            if (type == RelayProtocol.AUDIO || type == RelayProtocol.SILENCE) {
+                if (len < RelayProtocol.AUDIO_HEADER) return;
+                // Solo se reenvía audio de participantes registrados
+                Member sender = call.find(from);
+                if (sender == null) return;
+                // En una llamada mezclada el silencio solo significa que no aporta a la mezcla
+                if (call.mix != null && mixer.onAudio(call.mix, from, buf, len, type == RelayProtocol.SILENCE)) return;
+                // Cada participante lleva su propia secuencia: el receptor los separa por la fuente
+                buf.putShort(RelayProtocol.SOURCE_OFFSET, (short) sender.source);
+                forward(buf, call, from, 0, len);
+            } else if (type == RelayProtocol.BYE) {
+                unregister(call, from);
+            }
+        }
+
+        // Reenvío a todos menos al remitente, desde el mismo buffer. Todos los sockets
+        // comparten puerto, así que el origen que ve el cliente no cambia
+        private void forward(ByteBuffer buf, Call call, InetSocketAddress from, int start, int len) throws IOException {
+            for (Member p : call.members) {
+                if (p.addr.equals(from)) continue;
+                buf.limit(len).position(start);
+                channel.send(buf, p.addr);
+                forwarded++;
+            }
+        }
+    }
+
+    /** Un datagrama en la cola de un shard; se reutiliza. */
+    private static final class Packet {
+        final ByteBuffer buf = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        InetSocketAddress from;
+        int len;
+    }
+
+    /** Un participante y la fuente con la que el relay marca su audio (1 a 65535). */
+    private static final class Member {
+        final InetSocketAddress addr;
+        final int source;
+
+        Member(InetSocketAddress addr, int source) {
+            this.addr = addr;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Participantes de una llamada. Se guardan en un arreglo que se reemplaza en cada
+     * alta o baja, así el bucle de reenvío lo recorre sin iteradores ni candados.
+     */
+    private static final class Call {
+        final CallKey key;
+        final int token; // 0 si no se le pudo asignar
+        final AudioMixer.Session mix; // null si el relay no mezcla o la llamada no tiene token
+        volatile Member[] members = new Member[0];
+        volatile boolean closed; // sin participantes y fuera de las tablas; no admite altas
+        private int lastSource; // protegido por el monitor de la llamada
+
+        Call(CallKey key, int token, AudioMixer.Session mix) {
+            this.key = key;
+            this.token = token;
+            this.mix = mix;
+        }
+
+        Member find(InetSocketAddress addr) {
+            return find(members, addr);
+        }
+
+        /** Devuelve false si ya estaba registrado o si la llamada se cerró. */
+        boolean add(InetSocketAddress addr) {
+            if (find(members, addr) != null) return false; // caso normal: ya registrado
+            synchronized (this) {
+                Member[] current = members;
+                if (closed || find(current, addr) != null) return false;
+                Member[] next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = new Member(addr, nextSource(current));
+                members = next;
+                return true;
+            }
+        }
+
+        // La siguiente fuente libre; no se reutiliza enseguida la de quien acaba de salir
+        private int nextSource(Member[] current) {
+            while (true) {
+                lastSource = lastSource % 0xFFFF + 1;
+                boolean used = false;
+                for (Member m : current) {
+                    if (m.source == lastSource) used = true;
+                }
+                if (!used) return lastSource;
+            }
+        }
+
+        synchronized boolean remove(InetSocketAddress addr) {
+            Member[] current = members;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].addr.equals(addr)) {
+                    Member[] next = new Member[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    members = next;
+                    return true;
                 }
+            }
+            return false;
+        }
 
-            } catch (Exception e) {
-                // En un cierre intencional del socket, caería aquí con SocketException.
-                e.printStackTrace();
+        private static Member find(Member[] arr, InetSocketAddress addr) {
+            for (Member m : arr) {
+                if (m.addr.equals(addr)) return m;
             }
+            return null;
+        }
+    }
+
+    /**
+     * Bytes de un callId usados como clave. El bucle del relay reutiliza una instancia
+     * mutable para buscar; en el mapa solo se guardan copias.
+     */
+    static final class CallKey {
+        private final byte[] bytes;
+        private int length;
+        private int hash;
+
+        private CallKey(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+            this.hash = hash(bytes, length);
+        }
+
+        static CallKey of(byte[] bytes) {
+            return new CallKey(bytes, bytes.length);
+        }
+
+        void load(ByteBuffer buf, int offset, int len) {
+            buf.get(offset, bytes, 0, len);
+            length = len;
+            hash = hash(bytes, len);
+        }
+
+        CallKey copy() {
+            return new CallKey(Arrays.copyOf(bytes, length), length);
+        }
+
+        private static int hash(byte[] b, int len) {
+            int h = 1;
+            for (int i = 0; i < len; i++) h = 31 * h + b[i];
+            return h;
+        }
+
+        // El mismo hash leyendo el callId directo del buffer, sin copiarlo
+        static int hash(ByteBuffer buf, int offset, int len) {
+            int h = 1;
+            for (int i = 0; i < len; i++) h = 31 * h + buf.get(offset + i);
+            return h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CallKey k) || k.hash != hash) return false;
+            return Arrays.equals(bytes, 0, length, k.bytes, 0, k.length);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
         }
     }
 }
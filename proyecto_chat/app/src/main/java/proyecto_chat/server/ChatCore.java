@@ -0,0 +1,184 @@
+package proyecto_chat.server;
+
+import proyecto_chat.common.Message;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lógica de chat común a todos los front ends (clientes TCP, proxy HTTP e ICE): usuarios,
+ * grupos, entrega de mensajes e historial. Cada front end solo traduce su protocolo y
+ * llama aquí, así un mensaje enviado por cualquiera de ellos se guarda igual y llega a los
+ * destinatarios conectados por los otros.
+ */
+public class ChatCore {
+
+    /** Front end con sesiones propias (ICE) que también debe recibir los mensajes. */
+    public interface Listener {
+        /** Se llama en el hilo del remitente y no debe bloquear. */
+        void onText(Message message, boolean isGroup);
+    }
+
+    private final GroupMembership membership;
+    private final HistoryManager history;
+    private final Set<String> users = ConcurrentHashMap.newKeySet(); // todos los usuarios registrados
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public ChatCore(GroupMembership membership, HistoryManager history) {
+        this.membership = membership;
+        this.history = history;
+    }
+
+    /** Carga usuarios y grupos guardados. */
+    public void load() {
+        try {
+            users.addAll(history.fetchAllUsersEver());
+            history.forEachGroupMember((g, u) -> {
+                membership.createGroup(g);
+                membership.join(g, u);
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    // ---------------------------
+    // Usuarios y grupos
+    // ---------------------------
+
+    public void registerUser(String username) {
+        if (username == null || username.isBlank()) return;
+        if (users.add(username)) {
+            history.insertUser(username);
+        }
+    }
+
+    public Set<String> getUsers() {
+        return users;
+    }
+
+    public boolean isGroup(String name) {
+        return membership.isGroup(name);
+    }
+
+    public void createGroup(String group) {
+        membership.createGroup(group);
+        history.insertGroup(group);
+    }
+
+    /** Une al usuario a un grupo existente. Devuelve false si el grupo no existe. */
+    public boolean joinGroup(String username, String group) {
+        if (!membership.join(group, username)) return false;
+        history.insertGroupMember(group, username);
+        return true;
+    }
+
+    public Set<String> listGroupsForUser(String username) {
+        try {
+            return history.listGroupsForUser(username);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    // ---------------------------
+    // Mensajes
+    // ---------------------------
+
+    /**
+     * Texto nuevo de un front end sin mensaje propio (proxy, ICE); registra a los usuarios.
+     * Como {@link #routeText}, solo espera al guardado en modo "sync". El futuro se completa
+     * con el mensaje cuando queda guardado: quien vuelve a leer el historial enseguida (el
+     * proxy) lo espera.
+     */
+    public CompletableFuture<Message> sendText(String sender, String recipient, String text) {
+        registerUser(sender);
+        if (!membership.isGroup(recipient)) {
+            registerUser(recipient);
+        }
+        Message message = new Message(Message.MessageType.TEXT, sender, recipient, text);
+        return routeText(message).thenApply(v -> message);
+    }
+
+    /**
+     * Entrega un texto a los destinatarios conectados por cualquier front end y lo guarda.
+     * Se entrega primero; el historial se escribe en diferido (HistoryWriter) y el futuro
+     * devuelto se completa cuando queda guardado.
+     */
+    public CompletableFuture<Void> routeText(Message message) {
+        String recipient = message.getRecipient();
+        boolean isGroup = membership.isGroup(recipient);
+
+        if (isGroup) {
+            // Se codifica una vez y se reutiliza para cada miembro conectado
+            OutboundMessage outbound = new OutboundMessage(message);
+            membership.forEachOnlineMember(recipient, message.getSender(), h -> h.send(outbound));
+        } else {
+            ClientHandler handler = membership.session(recipient);
+            if (handler != null) handler.sendMessage(message);
+        }
+        for (Listener l : listeners) {
+            try {
+                l.onText(message, isGroup);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Guardar con nombres originales
+        return history.saveTextMessage(message.getId(), message.getSender(), recipient, isGroup,
+                message.getTextContent(), message.getTimestamp());
+    }
+
+    /** Nota de voz: se guarda el archivo y se entrega al destinatario si está conectado. */
+    public void routeVoiceNote(Message message) {
+        history.saveVoiceNoteToDiskAndDb(message.getId(), message.getSender(), message.getRecipient(),
+                message.getContent(), message.getFileName(), message.getTimestamp());
+
+        ClientHandler handler = membership.session(message.getRecipient());
+        if (handler != null) handler.sendMessage(message);
+    }
+
+    public void deleteConversation(String user, String other) {
+        try {
+            history.deleteConversation(user, other);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ---------------------------
+    // Historial
+    // ---------------------------
+
+    public void fetchHistory(String username, String chatTarget, HistoryCursor before, HistoryCursor after,
+                             int limit, HistoryManager.RowHandler handler) throws SQLException {
+        history.fetchHistory(username, chatTarget, before, after, limit, handler);
+    }
+
+    public void fetchHistorySince(String username, String chatTarget, long since, int limit,
+                                  HistoryManager.RowHandler handler) throws SQLException {
+        history.fetchHistorySince(username, chatTarget, since, limit, handler);
+    }
+
+    public long historySequence() throws SQLException {
+        return history.currentSequence();
+    }
+
+    public GroupMembership getMembership() {
+        return membership;
+    }
+
+    public HistoryManager getHistory() {
+        return history;
+    }
+}
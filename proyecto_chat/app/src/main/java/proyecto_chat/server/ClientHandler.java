@@ -1,165 +1,190 @@
 package proyecto_chat.server;
 
+import proyecto_chat.common.FramedMessageStream;
 import proyecto_chat.common.Message;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import proyecto_chat.common.MessageStream;
+import proyecto_chat.common.ObjectMessageStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
-import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 public class ClientHandler implements Runnable {
-    private ConcurrentHashMap<String, Set<String>> groups;
+    private ChatCore core; // entrega y guardado comunes a todos los front ends
+    private GroupMembership membership; // sesiones conectadas y grupos
+    private PresenceService presence;
     private Socket socket;
-    private ConcurrentHashMap<String, ClientHandler> clients;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private NioConnection nioConnection; // solo en modo NIO
+    private MessageStream stream;
+    private OutboundQueue outbound; // solo en modo bloqueante; NIO tiene su propia cola
     private String username; // nombre original con mayúsculas/minúsculas
 
-    private HistoryManager historyManager;
     private CallRelay callRelay;
 
     public ClientHandler(Socket socket,
-                         ConcurrentHashMap<String, ClientHandler> clients,
-                         ConcurrentHashMap<String, Set<String>> groups,
-                         HistoryManager historyManager,
+                         ChatCore core,
+                         PresenceService presence,
                          CallRelay callRelay) {
         this.socket = socket;
-        this.clients = clients;
-        this.groups = groups;
-        this.historyManager = historyManager;
+        this.core = core;
+        this.membership = core.getMembership();
+        this.presence = presence;
         this.callRelay = callRelay;
     }
 
+    // Handler para el transporte NIO: no tiene hilo propio, el event loop le entrega los mensajes
+    public ClientHandler(NioConnection nioConnection,
+                         ChatCore core,
+                         PresenceService presence,
+                         CallRelay callRelay) {
+        this((Socket) null, core, presence, callRelay);
+        this.nioConnection = nioConnection;
+    }
+
     @Override
     public void run() {
         try {
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
+            stream = openStream(socket);
+            outbound = new OutboundQueue(ServerConfig.OUTBOUND_CAPACITY, slowConsumerPolicy(),
+                    this::writeNow, this::closeSocket);
+            outbound.start("salida-" + socket.getRemoteSocketAddress());
 
             // Leer username original (SIN convertir a minúsculas)
-            this.username = ((String) in.readObject()).trim();
-            
-            // Registrar con clave en minúsculas para búsquedas case-insensitive
-            clients.put(username.toLowerCase(), this);
-            
-            System.out.println(username + " se ha unido al chat.");
+            onLogin((String) stream.readObject());
 
             while (true) {
-                Message message = (Message) in.readObject();
-
-                switch (message.getType()) {
-                    case CREATE_GROUP:
-                        String groupName = message.getTextContent();
-                        groups.putIfAbsent(groupName, new CopyOnWriteArraySet<>());
-                        historyManager.insertGroup(groupName);
-                        System.out.println("Grupo creado: " + groupName);
-                        break;
-
-                    case JOIN_GROUP:
-                        String groupToJoin = message.getTextContent();
-                        if (groups.containsKey(groupToJoin)) {
-                            groups.get(groupToJoin).add(this.username);
-                            historyManager.insertGroupMember(groupToJoin, this.username);
-                            System.out.println(username + " se unió al grupo: " + groupToJoin);
-                        }
-                        break;
-
-                    case TEXT:
-                        String recipientText = message.getRecipient();
-                        boolean isGroup = groups.containsKey(recipientText);
-                        
-                        // Guardar con nombres originales
-                        historyManager.saveTextMessage(
-                            message.getId(), 
-                            message.getSender(), 
-                            recipientText,
-                            isGroup,
-                            message.getTextContent(), 
-                            message.getTimestamp()
-                        );
-                        
-                        if (isGroup) {
-                            // Mensaje de grupo
-                            for (String member : groups.get(recipientText)) {
-                                // Comparar case-insensitive
-                                if (!member.equalsIgnoreCase(this.username)) {
-                                    ClientHandler handler = clients.get(member.toLowerCase());
-                                    if (handler != null) {
-                                        handler.sendMessage(message);
-                                    }
-                                }
-                            }
-                        } else {
-                            // Mensaje directo - buscar con clave lowercase
-                            ClientHandler handler = clients.get(recipientText.toLowerCase());
-                            if (handler != null) {
-                                handler.sendMessage(message);
-                            }
-                        }
-                        break;
-
-                    case VOICE_NOTE:
-                        String recipientVoice = message.getRecipient();
-                        historyManager.saveVoiceNoteToDiskAndDb(
-                            message.getId(), 
-                            message.getSender(), 
-                            recipientVoice,
-                            message.getContent(), 
-                            message.getFileName(), 
-                            message.getTimestamp()
-                        );
-                        
-                        ClientHandler voiceHandler = clients.get(recipientVoice.toLowerCase());
-                        if (voiceHandler != null) {
-                            voiceHandler.sendMessage(message);
-                        }
-                        break;
-
-                    case CALL_START:
-                        String callee = message.getRecipient();
-                        ClientHandler calleeHandler = clients.get(callee.toLowerCase());
-                        if (calleeHandler != null) {
-                            calleeHandler.sendMessage(message);
-                            System.out.println(username + " está llamando a " + callee);
-                        }
-                        break;
-
-                    case CALL_ACCEPT:
-                        String caller = message.getRecipient();
-                        ClientHandler callerHandler = clients.get(caller.toLowerCase());
-                        if (callerHandler != null) {
-                            callerHandler.sendMessage(message);
-                            System.out.println(username + " aceptó la llamada de " + caller);
-                        }
-                        break;
-
-                    case CALL_END:
-                        String otherParty = message.getRecipient();
-                        ClientHandler otherHandler = clients.get(otherParty.toLowerCase());
-                        if (otherHandler != null) {
-                            otherHandler.sendMessage(message);
-                        }
-                        break;
-                }
+                onMessage((Message) stream.readObject());
             }
         } catch (Exception e) {
-            if (username != null) {
-                System.out.println(username + " se ha desconectado.");
-                clients.remove(username.toLowerCase());
-                for (Set<String> groupMembers : groups.values()) {
-                    groupMembers.remove(username);
+            onDisconnect();
+        }
+    }
+
+    // Los clientes TCP (el CLI) no piden el historial: lo omitido no lo recuperarían
+    static SlowConsumerPolicy slowConsumerPolicy() {
+        return ServerConfig.SLOW_CONSUMER_POLICY.forClient(false);
+    }
+
+    // Detecta el protocolo por los primeros bytes: 0xACED = ObjectOutputStream, "CHAT" = tramas
+    private static MessageStream openStream(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 == 0xAC && b1 == 0xED) {
+            return new ObjectMessageStream(in, socket.getOutputStream());
+        }
+        return FramedMessageStream.accept(in, socket.getOutputStream());
+    }
+
+    void onLogin(String name) {
+        this.username = name.trim();
+
+        // Se registra por id normalizado (búsquedas case-insensitive)
+        membership.online(username, this);
+        presence.connected(username);
+
+        System.out.println(username + " se ha unido al chat.");
+    }
+
+    void onMessage(Message message) {
+        switch (message.getType()) {
+            case CREATE_GROUP:
+                String groupName = message.getTextContent();
+                core.createGroup(groupName);
+                System.out.println("Grupo creado: " + groupName);
+                break;
+
+            case JOIN_GROUP:
+                String groupToJoin = message.getTextContent();
+                if (core.joinGroup(this.username, groupToJoin)) {
+                    System.out.println(username + " se unió al grupo: " + groupToJoin);
                 }
-            }
+                break;
+
+            case TEXT:
+                core.routeText(message);
+                break;
+
+            case VOICE_NOTE:
+                core.routeVoiceNote(message);
+                break;
+
+            case CALL_START:
+                String callee = message.getRecipient();
+                ClientHandler calleeHandler = membership.session(callee);
+                if (calleeHandler != null) {
+                    calleeHandler.sendMessage(message);
+                    System.out.println(username + " está llamando a " + callee);
+                }
+                break;
+
+            case CALL_ACCEPT:
+                String caller = message.getRecipient();
+                ClientHandler callerHandler = membership.session(caller);
+                if (callerHandler != null) {
+                    callerHandler.sendMessage(message);
+                    System.out.println(username + " aceptó la llamada de " + caller);
+                }
+                break;
+
+            case CALL_END:
+                String otherParty = message.getRecipient();
+                ClientHandler otherHandler = membership.session(otherParty);
+                if (otherHandler != null) {
+                    otherHandler.sendMessage(message);
+                }
+                break;
+        }
+    }
+
+    void onDisconnect() {
+        if (outbound != null) outbound.close();
+        if (username != null) {
+            System.out.println(username + " se ha desconectado.");
+            // Solo deja de estar conectado: sigue siendo miembro de sus grupos
+            membership.offline(username, this);
+            presence.disconnected(username);
         }
     }
 
     public void sendMessage(Message message) {
+        send(new OutboundMessage(message));
+    }
+
+    // Solo encola: el hilo escritor del destinatario hace la escritura real
+    public void send(OutboundMessage message) {
         try {
-            out.writeObject(message);
+            if (nioConnection != null) {
+                nioConnection.send(message);
+            } else if (outbound != null) {
+                outbound.offer(message);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    // Lo llama únicamente el hilo escritor de la cola de salida
+    private void writeNow(OutboundMessage message) throws IOException {
+        if (stream instanceof FramedMessageStream framed) {
+            framed.writeFrame(message.frame(framed.getVersion()));
+        } else {
+            // ObjectOutputStream guarda estado por conexión: no se puede compartir la trama
+            stream.writeObject(message.getMessage());
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    public int getOutboundDepth() {
+        if (nioConnection != null) return nioConnection.queuedFrames();
+        return outbound != null ? outbound.depth() : 0;
+    }
 }
\ No newline at end of file
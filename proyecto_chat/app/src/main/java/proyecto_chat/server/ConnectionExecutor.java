@@ -0,0 +1,152 @@
+package proyecto_chat.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ejecuta un handler por cada socket aceptado. Con el modo "virtual" cada conexión
+ * corre en un hilo virtual, así que las sesiones inactivas casi no cuestan memoria.
+ * Limita cuántas conexiones se admiten a la vez y permite drenarlas al apagar.
+ */
+public class ConnectionExecutor {
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxConnections;
+
+    // Sockets vivos, para poder cerrarlos en el apagado
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+
+    // Métricas
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder sessionMillis = new LongAdder();
+
+    private volatile boolean draining = false;
+
+    public ConnectionExecutor(String name, String mode, int maxConnections) {
+        this.name = name;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections);
+        this.executor = newExecutor(name, mode);
+    }
+
+    static ExecutorService newExecutor(String name, String mode) {
+        if ("platform".equalsIgnoreCase(mode)) {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory factory = r -> {
+                Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+        ThreadFactory factory = Thread.ofVirtual().name(name + "-", 1).factory();
+        return Executors.newThreadPerTaskExecutor(factory);
+    }
+
+    /**
+     * Admite la conexión si hay cupo y ejecuta el handler. Si no hay cupo
+     * (o se está apagando) el socket se cierra de inmediato.
+     */
+    public boolean submit(Socket socket, Runnable handler) {
+        if (draining || !permits.tryAcquire()) {
+            rejected.increment();
+            closeQuietly(socket);
+            return false;
+        }
+
+        accepted.increment();
+        openSockets.add(socket);
+        int now = active.incrementAndGet();
+        peak.accumulateAndGet(now, Math::max);
+
+        try {
+            executor.execute(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    handler.run();
+                } finally {
+                    release(socket, start);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            release(socket, System.currentTimeMillis());
+            return false;
+        }
+    }
+
+    private void release(Socket socket, long start) {
+        openSockets.remove(socket);
+        closeQuietly(socket);
+        active.decrementAndGet();
+        completed.increment();
+        sessionMillis.add(System.currentTimeMillis() - start);
+        permits.release();
+    }
+
+    /**
+     * Deja de admitir conexiones, pide a las abiertas que terminen (cierra su lado
+     * de lectura) y espera hasta {@code timeoutMs}. Lo que quede se cierra a la fuerza.
+     */
+    public void shutdown(long timeoutMs) {
+        draining = true;
+        executor.shutdown();
+
+        for (Socket s : openSockets) {
+            try { s.shutdownInput(); } catch (IOException ignored) {}
+        }
+
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                for (Socket s : openSockets) closeQuietly(s);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(name + " drenado: " + stats());
+    }
+
+    private static void closeQuietly(Socket s) {
+        try { s.close(); } catch (IOException ignored) {}
+    }
+
+    public String getName() { return name; }
+    public int getMaxConnections() { return maxConnections; }
+    public int getActive() { return active.get(); }
+    public int getPeak() { return peak.get(); }
+    public long getAccepted() { return accepted.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public long getCompleted() { return completed.sum(); }
+
+    public long getAverageSessionMillis() {
+        long done = completed.sum();
+        return done == 0 ? 0 : sessionMillis.sum() / done;
+    }
+
+    public String stats() {
+        return "activas=" + getActive() +
+               " pico=" + getPeak() +
+               " aceptadas=" + getAccepted() +
+               " rechazadas=" + getRejected() +
+               " cerradas=" + getCompleted() +
+               " sesionPromedioMs=" + getAverageSessionMillis();
+    }
+}
@@ -0,0 +1,164 @@
+package proyecto_chat.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Esquema versionado de la base de historial. La versión aplicada se guarda en
+ * {@code PRAGMA user_version}; al abrir la base se ejecutan, en orden y cada una en su
+ * transacción, las migraciones que falten. Para cambiar el esquema se agrega una
+ * migración al final de {@link #MIGRATIONS}, nunca se edita una ya publicada.
+ */
+final class DatabaseSchema {
+    private DatabaseSchema() {}
+
+    private static final String[][] MIGRATIONS = {
+        // 1: tablas originales (IF NOT EXISTS para bases creadas antes del versionado)
+        {
+            "CREATE TABLE IF NOT EXISTS users (" +
+                "username TEXT PRIMARY KEY)",
+            "CREATE TABLE IF NOT EXISTS groups (" +
+                "group_name TEXT PRIMARY KEY)",
+            "CREATE TABLE IF NOT EXISTS group_members (" +
+                "group_name TEXT, " +
+                "username TEXT, " +
+                "PRIMARY KEY(group_name, username))",
+            "CREATE TABLE IF NOT EXISTS messages (" +
+                "id TEXT PRIMARY KEY, " +
+                "type TEXT, " +
+                "sender TEXT, " +
+                "recipient TEXT, " +
+                "is_group INTEGER, " +
+                "text_content TEXT, " +
+                "file_path TEXT, " +
+                "timestamp INTEGER)",
+            "CREATE TABLE IF NOT EXISTS message_visibility (" +
+                "message_id TEXT, " +
+                "username TEXT, " +
+                "visible INTEGER DEFAULT 1, " +
+                "PRIMARY KEY(message_id, username))"
+        },
+        // 2: índices para el historial
+        {
+            // Historial de grupo y "recipient = ?" de deleteConversation
+            "CREATE INDEX IF NOT EXISTS idx_messages_recipient_ts ON messages(recipient, is_group, timestamp)",
+            // Historial directo (ambos sentidos) y "sender = ?" de deleteConversation
+            "CREATE INDEX IF NOT EXISTS idx_messages_pair_ts ON messages(sender, recipient, timestamp)",
+            // Mensajes visibles de un usuario
+            "CREATE INDEX IF NOT EXISTS idx_visibility_user ON message_visibility(username, visible, message_id)",
+            // Grupos de un usuario (listGroupsForUserFromDb)
+            "CREATE INDEX IF NOT EXISTS idx_group_members_user ON group_members(username)"
+        },
+        // 3: el id desempata el orden en la paginación por (timestamp, id)
+        {
+            "DROP INDEX IF EXISTS idx_messages_recipient_ts",
+            "DROP INDEX IF EXISTS idx_messages_pair_ts",
+            "CREATE INDEX IF NOT EXISTS idx_messages_recipient_ts_id ON messages(recipient, is_group, timestamp, id)",
+            "CREATE INDEX IF NOT EXISTS idx_messages_pair_ts_id ON messages(sender, recipient, timestamp, id)"
+        }
+    };
+
+    // Estadísticas del planificador: se recalculan al abrir si faltan o si los mensajes al menos se
+    // duplicaron desde el último ANALYZE. Con pocos mensajes cualquier plan sirve
+    private static final long ANALYZE_MIN_ROWS = 1000;
+    private static final int ANALYZE_LIMIT = 1000; // filas por índice que mira ANALYZE (como PRAGMA optimize)
+
+    static int latestVersion() {
+        return MIGRATIONS.length;
+    }
+
+    /**
+     * Ajustes por conexión: WAL permite leer mientras el escritor confirma lotes, y con
+     * WAL {@code synchronous=NORMAL} solo hace fsync en los checkpoints.
+     */
+    static void configure(Connection conn) throws SQLException {
+        try (Statement s = conn.createStatement()) {
+            s.execute("PRAGMA journal_mode=" + ServerConfig.DB_JOURNAL_MODE);
+            s.execute("PRAGMA synchronous=" + ServerConfig.DB_SYNCHRONOUS);
+            s.execute("PRAGMA cache_size=-" + ServerConfig.DB_CACHE_KIB);
+            s.execute("PRAGMA mmap_size=" + ServerConfig.DB_MMAP_BYTES);
+            s.execute("PRAGMA temp_store=MEMORY");
+            s.execute("PRAGMA busy_timeout=5000");
+        }
+    }
+
+    /** Ajustes para las conexiones de solo lectura (el modo de journal lo fija el escritor). */
+    static void configureReader(Connection conn) throws SQLException {
+        try (Statement s = conn.createStatement()) {
+            s.execute("PRAGMA cache_size=-" + ServerConfig.DB_CACHE_KIB);
+            s.execute("PRAGMA mmap_size=" + ServerConfig.DB_MMAP_BYTES);
+            s.execute("PRAGMA temp_store=MEMORY");
+            s.execute("PRAGMA busy_timeout=5000");
+        }
+    }
+
+    /** Aplica las migraciones pendientes y devuelve la versión final. */
+    static int migrate(Connection conn) throws SQLException {
+        int current = userVersion(conn);
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            for (int v = current; v < MIGRATIONS.length; v++) {
+                conn.setAutoCommit(false);
+                try (Statement s = conn.createStatement()) {
+                    for (String sql : MIGRATIONS[v]) s.executeUpdate(sql);
+                    s.executeUpdate("PRAGMA user_version = " + (v + 1));
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Falló la migración " + (v + 1) + " del historial", e);
+                }
+                System.out.println("Historial migrado a la versión " + (v + 1));
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return Math.max(current, MIGRATIONS.length);
+    }
+
+    /**
+     * Corre ANALYZE si las estadísticas de {@code messages} faltan o quedaron viejas (por
+     * ejemplo calculadas con la base vacía). Sin ellas SQLite puede empezar las páginas del
+     * historial por todos los mensajes visibles del usuario en lugar del índice de la
+     * conversación. Devuelve true si analizó.
+     */
+    static boolean analyzeIfStale(Connection conn) throws SQLException {
+        try (Statement s = conn.createStatement()) {
+            long rows;
+            try (ResultSet rs = s.executeQuery("SELECT COALESCE(MAX(rowid), 0) FROM messages")) {
+                rows = rs.next() ? rs.getLong(1) : 0;
+            }
+            if (rows < ANALYZE_MIN_ROWS) return false;
+            long analyzed = analyzedRows(s);
+            if (analyzed * 2 > rows) return false;
+
+            s.execute("PRAGMA analysis_limit=" + ANALYZE_LIMIT);
+            s.execute("ANALYZE");
+            System.out.println("Historial: estadísticas recalculadas (" + rows + " mensajes, antes " + analyzed + ")");
+            return true;
+        }
+    }
+
+    // Filas de messages según el último ANALYZE (el primer número de stat), 0 si no hay
+    private static long analyzedRows(Statement s) throws SQLException {
+        try (ResultSet rs = s.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'sqlite_stat1'")) {
+            if (!rs.next()) return 0;
+        }
+        try (ResultSet rs = s.executeQuery(
+                "SELECT stat FROM sqlite_stat1 WHERE tbl = 'messages' AND idx IS NOT NULL LIMIT 1")) {
+            if (!rs.next() || rs.getString(1) == null) return 0;
+            String stat = rs.getString(1);
+            int end = stat.indexOf(' ');
+            return Long.parseLong(end < 0 ? stat : stat.substring(0, end));
+        }
+    }
+
+    private static int userVersion(Connection conn) throws SQLException {
+        try (Statement s = conn.createStatement();
+             ResultSet rs = s.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package proyecto_chat.server;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Índice en memoria de sesiones y grupos. Guarda ambos sentidos: grupo -> miembros
+ * (con el handler de los que están conectados) y usuario -> grupos. Así el reparto de un
+ * mensaje recorre solo los handlers conectados del grupo, y unirse, conectarse o
+ * desconectarse cuesta lo que los grupos del propio usuario, no la tabla completa.
+ *
+ * Los usuarios se identifican por su nombre en minúsculas. Al conectarse o unirse a un
+ * grupo el nombre se interna: las búsquedas con {@link #userId(String)} lo encuentran sin
+ * normalizarlo otra vez y sin registrar nada. La entrada se borra cuando el usuario ya no
+ * tiene sesión ni grupos, así el índice no crece con cada nombre que se consulta. Los
+ * nombres de grupo se usan tal como llegan.
+ */
+public class GroupMembership {
+
+    private static final class Group {
+        final String name;
+        final Set<String> members = ConcurrentHashMap.newKeySet();               // ids
+        final ConcurrentHashMap<String, ClientHandler> online = new ConcurrentHashMap<>(); // id -> handler
+
+        Group(String name) {
+            this.name = name;
+        }
+    }
+
+    // nombre tal como llegó (o ya normalizado) -> id normalizado canónico, y formas de cada id
+    private final ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> aliases = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Group>> groupsByUser = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ClientHandler> sessions = new ConcurrentHashMap<>();
+
+    /** Id normalizado de un usuario, para búsquedas: no registra el nombre. */
+    public String userId(String name) {
+        String id = ids.get(name);
+        return id != null ? id : normalize(name);
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Registra el nombre mientras el usuario tenga sesión o grupos (ver release)
+    private String intern(String name) {
+        String id = ids.get(name);
+        if (id != null) return id;
+        String lower = normalize(name);
+        String canonical = ids.putIfAbsent(lower, lower);
+        if (canonical == null) canonical = lower;
+        Set<String> forms = aliases.computeIfAbsent(canonical, k -> ConcurrentHashMap.newKeySet());
+        forms.add(canonical);
+        if (!name.equals(canonical)) {
+            ids.putIfAbsent(name, canonical);
+            forms.add(name);
+        }
+        return canonical;
+    }
+
+    // Quita el id y las formas del nombre que apuntan a él
+    private void release(String id) {
+        Set<String> forms = aliases.remove(id);
+        if (forms == null) return;
+        for (String name : forms) ids.remove(name, id);
+    }
+
+    public boolean isGroup(String group) {
+        return group != null && groups.containsKey(group);
+    }
+
+    public void createGroup(String group) {
+        groups.computeIfAbsent(group, Group::new);
+    }
+
+    /** Agrega al usuario a un grupo existente; devuelve false si el grupo no existe. */
+    public boolean join(String group, String user) {
+        Group g = groups.get(group);
+        if (g == null) return false;
+        String id = intern(user);
+        g.members.add(id);
+        groupsByUser.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(g);
+
+        ClientHandler h = sessions.get(id);
+        if (h != null) g.online.put(id, h);
+        return true;
+    }
+
+    /** Registra la sesión del usuario (reemplaza una anterior) y la marca en sus grupos. */
+    public void online(String user, ClientHandler handler) {
+        String id = intern(user);
+        sessions.put(id, handler);
+        for (Group g : groupsByUser.getOrDefault(id, Collections.emptySet())) {
+            g.online.put(id, handler);
+        }
+    }
+
+    /** Quita la sesión si sigue siendo la registrada; la membresía se conserva. */
+    public void offline(String user, ClientHandler handler) {
+        String id = userId(user);
+        if (!sessions.remove(id, handler)) return;
+        Set<Group> userGroups = groupsByUser.get(id);
+        if (userGroups == null) {
+            // Sin sesión ni grupos nada usa el id internado
+            if (!sessions.containsKey(id)) release(id);
+            return;
+        }
+        for (Group g : userGroups) {
+            g.online.remove(id, handler);
+        }
+    }
+
+    public ClientHandler session(String user) {
+        return sessions.get(userId(user));
+    }
+
+    /** Aplica {@code action} a cada miembro conectado del grupo excepto {@code exceptUser}. */
+    public void forEachOnlineMember(String group, String exceptUser, Consumer<ClientHandler> action) {
+        Group g = groups.get(group);
+        if (g == null) return;
+        String except = exceptUser != null ? userId(exceptUser) : null;
+        for (var e : g.online.entrySet()) {
+            if (!e.getKey().equals(except)) action.accept(e.getValue());
+        }
+    }
+
+    /** Ids de los miembros del grupo (vista de solo lectura). */
+    public Set<String> members(String group) {
+        Group g = groups.get(group);
+        return g == null ? Collections.emptySet() : Collections.unmodifiableSet(g.members);
+    }
+
+    public Iterable<ClientHandler> sessions() {
+        return sessions.values();
+    }
+
+    public int groupCount() {
+        return groups.size();
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+}
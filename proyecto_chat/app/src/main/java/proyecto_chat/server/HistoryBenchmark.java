@@ -0,0 +1,275 @@
+package proyecto_chat.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Latencia de las consultas del historial sobre una base grande (tarea {@code runHistoryBench}).
+ * Llena {@code storage/chat_history.db} del directorio de trabajo con mensajes sintéticos
+ * (si ya tiene esa cantidad la reutiliza), la vuelve a abrir como al arrancar el servidor
+ * y mide con el {@link HistoryManager} real la
+ * última página de chats directos y de grupo, una página antigua por cursor, la
+ * sincronización desde una marca y los grupos de un usuario. Después repite las mismas
+ * consultas sin los índices de las migraciones 2 y 3 (dentro de una transacción que se
+ * deshace), para comparar.
+ *
+ * Propiedades: {@code chat.bench.messages} (1.000.000), {@code chat.bench.users} (200),
+ * {@code chat.bench.groups} (20), {@code chat.bench.queries} (200 por consulta).
+ */
+public class HistoryBenchmark {
+    static final int GROUP_SIZE = 10;
+    private static final double GROUP_SHARE = 0.3;
+
+    private final HistoryManager history;
+    private final int users;
+    private final int groups;
+    private final Random random = new Random(7);
+
+    HistoryBenchmark(HistoryManager history, int users, int groups) {
+        this.history = history;
+        this.users = users;
+        this.groups = groups;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = Integer.getInteger("chat.bench.messages", 1_000_000);
+        int users = Integer.getInteger("chat.bench.users", 200);
+        int groups = Integer.getInteger("chat.bench.groups", 20);
+        int queries = Integer.getInteger("chat.bench.queries", 200);
+
+        HistoryManager history = HistoryManager.open();
+        try {
+            new HistoryBenchmark(history, users, groups).seed(messages);
+        } finally {
+            history.close();
+        }
+
+        // Se vuelve a abrir como al arrancar el servidor: las lecturas no encuentran nada en caché ni en el WAL
+        long start = System.nanoTime();
+        history = HistoryManager.open();
+        System.out.printf("Base abierta en %.1f s%n", (System.nanoTime() - start) / 1e9);
+        try {
+            new HistoryBenchmark(history, users, groups).report(queries);
+        } finally {
+            history.close();
+        }
+        System.exit(0);
+    }
+
+    static String user(int i) { return "user" + i; }
+    static String group(int i) { return "grupo" + i; }
+
+    /** Deja la base con {@code messages} mensajes; no hace nada si ya los tiene. */
+    void seed(int messages) throws SQLException {
+        long existing = count("SELECT COUNT(*) FROM messages");
+        if (existing == messages) {
+            System.out.println("Base existente con " + messages + " mensajes");
+            return;
+        }
+        if (existing > 0) {
+            throw new IllegalStateException("La base tiene " + existing + " mensajes y se pidieron " + messages
+                    + "; borra storage/ del directorio de trabajo");
+        }
+
+        long start = System.nanoTime();
+        synchronized (history) {
+            Connection conn = history.getConnection();
+            conn.setAutoCommit(false);
+            try (PreparedStatement user = conn.prepareStatement("INSERT INTO users(username) VALUES(?)");
+                 PreparedStatement grp = conn.prepareStatement("INSERT INTO groups(group_name) VALUES(?)");
+                 PreparedStatement member = conn.prepareStatement(
+                         "INSERT INTO group_members(group_name, username) VALUES(?,?)");
+                 PreparedStatement msg = conn.prepareStatement(
+                         "INSERT INTO messages (id,type,sender,recipient,is_group,text_content,timestamp) VALUES (?,?,?,?,?,?,?)");
+                 PreparedStatement vis = conn.prepareStatement(
+                         "INSERT INTO message_visibility (message_id, username, visible) VALUES (?, ?, 1)")) {
+                for (int u = 0; u < users; u++) {
+                    user.setString(1, user(u));
+                    user.executeUpdate();
+                }
+                for (int g = 0; g < groups; g++) {
+                    grp.setString(1, group(g));
+                    grp.executeUpdate();
+                    for (int m : members(g)) {
+                        member.setString(1, group(g));
+                        member.setString(2, user(m));
+                        member.executeUpdate();
+                    }
+                }
+
+                // Un mensaje por segundo hasta ahora; 30 % a grupos
+                long t0 = System.currentTimeMillis() - messages * 1000L;
+                for (int i = 0; i < messages; i++) {
+                    String id = UUID.randomUUID().toString();
+                    boolean isGroup = random.nextDouble() < GROUP_SHARE;
+                    String sender, recipient;
+                    int[] visible;
+                    if (isGroup) {
+                        int g = random.nextInt(groups);
+                        int[] members = members(g);
+                        sender = user(members[random.nextInt(members.length)]);
+                        recipient = group(g);
+                        visible = members;
+                    } else {
+                        int a = random.nextInt(users);
+                        int b = (a + 1 + random.nextInt(users - 1)) % users;
+                        sender = user(a);
+                        recipient = user(b);
+                        visible = new int[] { a, b };
+                    }
+                    msg.setString(1, id);
+                    msg.setString(2, "TEXT");
+                    msg.setString(3, sender);
+                    msg.setString(4, recipient);
+                    msg.setInt(5, isGroup ? 1 : 0);
+                    msg.setString(6, "mensaje de prueba número " + i);
+                    msg.setLong(7, t0 + i * 1000L);
+                    msg.addBatch();
+                    for (int v : visible) {
+                        vis.setString(1, id);
+                        vis.setString(2, user(v));
+                        vis.addBatch();
+                    }
+                    if ((i + 1) % 10_000 == 0) {
+                        msg.executeBatch();
+                        vis.executeBatch();
+                        conn.commit();
+                        if ((i + 1) % 100_000 == 0) System.out.println("  " + (i + 1) + " mensajes...");
+                    }
+                }
+                msg.executeBatch();
+                vis.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        System.out.printf("Base llenada con %d mensajes en %.1f s%n", messages, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Miembros fijos de cada grupo: GROUP_SIZE usuarios consecutivos
+    int[] members(int g) {
+        int[] out = new int[Math.min(GROUP_SIZE, users)];
+        for (int i = 0; i < out.length; i++) out[i] = (g * GROUP_SIZE + i) % users;
+        return out;
+    }
+
+    private long count(String sql) throws SQLException {
+        synchronized (history) {
+            try (Statement s = history.getConnection().createStatement();
+                 ResultSet rs = s.executeQuery(sql)) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /** Una consulta que se mide; recibe la conexión con la que debe leer. */
+    interface Query {
+        void run(Connection c) throws SQLException;
+    }
+
+    private void report(int queries) throws SQLException {
+        long maxSeq = history.currentSequence();
+        long midTimestamp;
+        synchronized (history) {
+            try (Statement s = history.getConnection().createStatement();
+                 ResultSet rs = s.executeQuery("SELECT timestamp FROM messages WHERE rowid = " + Math.max(1, maxSeq / 2))) {
+                midTimestamp = rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+        HistoryCursor middle = new HistoryCursor(midTimestamp, "");
+        int page = ServerConfig.HISTORY_PAGE_SIZE;
+
+        String[] names = {
+            "última página, chat directo",
+            "última página, grupo",
+            "página antigua (before), directo",
+            "página antigua (before), grupo",
+            "sync desde marca (100 nuevos)",
+            "grupos de un usuario",
+        };
+        Query[] ops = {
+            c -> { int[] p = pair(); HistoryManager.fetchHistory(c, user(p[0]), user(p[1]), null, null, page, rs -> {}); },
+            c -> { int g = random.nextInt(groups);
+                   HistoryManager.fetchHistory(c, user(members(g)[0]), group(g), null, null, page, rs -> {}); },
+            c -> { int[] p = pair(); HistoryManager.fetchHistory(c, user(p[0]), user(p[1]), middle, null, page, rs -> {}); },
+            c -> { int g = random.nextInt(groups);
+                   HistoryManager.fetchHistory(c, user(members(g)[0]), group(g), middle, null, page, rs -> {}); },
+            c -> { int g = random.nextInt(groups);
+                   HistoryManager.fetchHistorySince(c, user(members(g)[0]), group(g), maxSeq - 100, 500, rs -> {}); },
+            c -> HistoryManager.listGroupsForUser(c, user(random.nextInt(users))),
+        };
+
+        System.out.println();
+        System.out.printf("Latencia por consulta (ms, %d repeticiones):%n", queries);
+        System.out.printf("  %-36s %8s %8s %8s %8s   %s%n", "consulta", "p50", "p95", "p99", "máx", "sin índices p50");
+
+        // Sin índices: se borran en una transacción de la conexión de escritura y se deshace al final
+        double[][] withoutIndexes = new double[ops.length][];
+        synchronized (history) {
+            Connection conn = history.getConnection();
+            conn.setAutoCommit(false);
+            try (Statement s = conn.createStatement()) {
+                s.execute("DROP INDEX idx_messages_recipient_ts_id");
+                s.execute("DROP INDEX idx_messages_pair_ts_id");
+                s.execute("DROP INDEX idx_visibility_user");
+                s.execute("DROP INDEX idx_group_members_user");
+                for (int i = 0; i < ops.length; i++) {
+                    // Sin índices cada consulta tarda segundos: menos repeticiones
+                    withoutIndexes[i] = measure(conn, ops[i], Math.max(3, queries / 20));
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+
+        for (int i = 0; i < ops.length; i++) {
+            Query op = ops[i];
+            double[] ms = new double[queries];
+            measure(op, 10); // calentamiento
+            for (int q = 0; q < queries; q++) {
+                long t = System.nanoTime();
+                history.withReader(c -> { op.run(c); return null; });
+                ms[q] = (System.nanoTime() - t) / 1e6;
+            }
+            Arrays.sort(ms);
+            System.out.printf("  %-36s %8.2f %8.2f %8.2f %8.2f   %8.1f%n", names[i], pct(ms, 0.5), pct(ms, 0.95),
+                    pct(ms, 0.99), ms[ms.length - 1], pct(withoutIndexes[i], 0.5));
+        }
+    }
+
+    private void measure(Query op, int times) throws SQLException {
+        for (int i = 0; i < times; i++) history.withReader(c -> { op.run(c); return null; });
+    }
+
+    private static double[] measure(Connection c, Query op, int times) throws SQLException {
+        double[] ms = new double[times];
+        for (int i = 0; i < times; i++) {
+            long t = System.nanoTime();
+            op.run(c);
+            ms[i] = (System.nanoTime() - t) / 1e6;
+        }
+        Arrays.sort(ms);
+        return ms;
+    }
+
+    // Dos usuarios distintos al azar
+    private int[] pair() {
+        int a = random.nextInt(users);
+        return new int[] { a, (a + 1 + random.nextInt(users - 1)) % users };
+    }
+
+    private static double pct(double[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
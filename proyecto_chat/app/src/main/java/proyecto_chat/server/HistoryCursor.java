@@ -0,0 +1,33 @@
+package proyecto_chat.server;
+
+/**
+ * Posición dentro de una conversación para paginar el historial por clave
+ * (timestamp, id) en vez de por OFFSET. En el protocolo viaja como texto
+ * {@code "<timestamp>:<id>"}, opaco para los clientes.
+ */
+public final class HistoryCursor {
+    public final long timestamp;
+    public final String id;
+
+    public HistoryCursor(long timestamp, String id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /** Devuelve null si el texto viene vacío. */
+    public static HistoryCursor parse(String s) {
+        if (s == null || s.isBlank()) return null;
+        int sep = s.indexOf(':');
+        if (sep <= 0) throw new IllegalArgumentException("cursor inválido: " + s);
+        try {
+            return new HistoryCursor(Long.parseLong(s.substring(0, sep)), s.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("cursor inválido: " + s);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + ":" + id;
+    }
+}
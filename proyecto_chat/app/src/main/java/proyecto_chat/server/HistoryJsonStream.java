@@ -0,0 +1,93 @@
+package proyecto_chat.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.json.JSONObject;
+
+/**
+ * Escribe una respuesta de historial directamente en el socket a medida que se leen
+ * las filas, sin armar un JSONArray ni un String con toda la respuesta. La memoria usada
+ * no depende del tamaño del historial. La forma es la misma que la respuesta armada:
+ *
+ *   {"messages":[{...},{...}],"status":"ok", ...campos finales}
+ *
+ * Los campos finales (cursores, marcas) van al cierre porque dependen de las filas; si la
+ * consulta falla entre dos filas se cierra el arreglo con "status":"error", así la
+ * línea sigue siendo JSON válido.
+ */
+final class HistoryJsonStream {
+    private final Writer out;
+    private final Object reqId;
+    private int count = 0;
+
+    /** {@code reqId} (puede ser null) se devuelve en el cierre para que el proxy asocie la respuesta. */
+    HistoryJsonStream(Writer out, Object reqId) throws IOException {
+        this.out = out;
+        this.reqId = reqId;
+        out.write("{\"messages\":[");
+    }
+
+    /**
+     * Para usar como {@link HistoryManager.RowHandler}; los errores de E/S salen como
+     * UncheckedIOException. Lee toda la fila antes de escribir: si la lectura falla no queda
+     * un objeto a medias y {@link #fail} cierra la línea como JSON válido.
+     */
+    void row(ResultSet rs) throws SQLException {
+        long timestamp = rs.getLong("timestamp");
+        String id = rs.getString("id");
+        String type = rs.getString("type");
+        String sender = rs.getString("sender");
+        String recipient = rs.getString("recipient");
+        String text = rs.getString("text_content");
+        String filePath = rs.getString("file_path");
+        try {
+            if (count++ > 0) out.write(',');
+            // Igual que JSONObject: los campos nulos no se escriben
+            out.write("{\"timestamp\":");
+            out.write(Long.toString(timestamp));
+            field("id", id);
+            field("type", type);
+            field("sender", sender);
+            field("recipient", recipient);
+            field("text_content", text);
+            field("file_path", filePath);
+            out.write('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    /** Cierra el arreglo y agrega {@code "status":"ok"} más los campos de {@code trailer}. */
+    void finish(JSONObject trailer) throws IOException {
+        trailer.put("status", "ok");
+        close(trailer);
+    }
+
+    void fail(String message) throws IOException {
+        close(new JSONObject().put("status", "error").put("message", String.valueOf(message)));
+    }
+
+    private void close(JSONObject trailer) throws IOException {
+        if (reqId != null) trailer.put("req_id", reqId);
+        out.write("],");
+        String t = trailer.toString();
+        out.write(t, 1, t.length() - 1); // sin la llave de apertura
+        out.write('\n');
+        out.flush();
+    }
+
+    private void field(String name, String value) throws IOException {
+        if (value == null) return;
+        out.write(",\"");
+        out.write(name);
+        out.write("\":");
+        JSONObject.quote(value, out);
+    }
+}
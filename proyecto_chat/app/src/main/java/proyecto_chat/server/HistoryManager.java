@@ -2,128 +2,119 @@ package proyecto_chat.server;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
 import java.sql.*;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
+/**
+ * Acceso a la base de historial. Todas las escrituras pasan por una única conexión
+ * (sincronizada sobre esta instancia y compartida con {@link HistoryWriter}); las
+ * lecturas usan un pool de conexiones de solo lectura y no esperan a las escrituras.
+ */
 public class HistoryManager {
-    private static final String DB_FILE = "storage/chat_history.db";
-    private static final String AUDIO_DIR = "storage/audio";
+    private static final String STORAGE_DIR = "storage";
 
-    private Connection conn;
+    /** Recibe cada fila de una consulta mientras la conexión de lectura sigue prestada. */
+    public interface RowHandler {
+        void row(ResultSet rs) throws SQLException;
+    }
+
+    private final File audioDir;
+    private final Connection conn; // conexión de escritura
+    private final ReadConnectionPool readers;
+    private HistoryWriter writer; // lo asigna open(), ya construida la instancia
 
-    public HistoryManager() throws Exception {
-        File storage = new File("storage");
-        if (!storage.exists()) storage.mkdirs();
-        File audio = new File(AUDIO_DIR);
-        if (!audio.exists()) audio.mkdirs();
+    private HistoryManager(Path storage) throws Exception {
+        File dir = storage.toFile();
+        if (!dir.exists()) dir.mkdirs();
+        audioDir = storage.resolve("audio").toFile();
+        if (!audioDir.exists()) audioDir.mkdirs();
 
+        String url = "jdbc:sqlite:" + storage.resolve("chat_history.db");
         Class.forName("org.sqlite.JDBC");
-        conn = DriverManager.getConnection("jdbc:sqlite:" + DB_FILE);
+        conn = DriverManager.getConnection(url);
         initTables();
+        readers = new ReadConnectionPool(url, ServerConfig.DB_READERS);
+    }
+
+    /** Abre la base en {@code storage/} con el escritor configurado en {@link ServerConfig}. */
+    public static HistoryManager open() throws Exception {
+        return open(Path.of(STORAGE_DIR), ServerConfig.HISTORY_QUEUE_CAPACITY, ServerConfig.HISTORY_BATCH_SIZE,
+                ServerConfig.HISTORY_LINGER_MS, "sync".equalsIgnoreCase(ServerConfig.HISTORY_DURABILITY));
+    }
+
+    /** Abre (o crea) la base y la carpeta de audio en {@code storage} y arranca su escritor. */
+    static HistoryManager open(Path storage, int queueCapacity, int batchSize, long lingerMs, boolean sync)
+            throws Exception {
+        HistoryManager history = new HistoryManager(storage);
+        history.writer = new HistoryWriter(history, queueCapacity, batchSize, lingerMs, sync);
+        history.writer.start();
+        return history;
+    }
+
+    public HistoryWriter getWriter() {
+        return writer;
+    }
+
+    /** Guarda lo pendiente y cierra la base de datos. */
+    public void close() {
+        writer.shutdown(ServerConfig.DRAIN_TIMEOUT_MS);
+        readers.close();
+        synchronized (this) {
+            try {
+                // Actualiza las estadísticas que las consultas de esta conexión hayan necesitado
+                try (Statement s = conn.createStatement()) {
+                    s.execute("PRAGMA optimize");
+                }
+                conn.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     //private String hey = "";
 
-    public Connection getConnection(){
+    /** Conexión de escritura; quien la use debe sincronizar sobre este HistoryManager. */
+    Connection getConnection(){
         return conn;
     }
 
-    private void initTables() throws SQLException {
-        try (Statement s = conn.createStatement()) {
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS users (" +
-                    "username TEXT PRIMARY KEY)");
-
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS groups (" +
-                    "group_name TEXT PRIMARY KEY)");
-
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS group_members (" +
-                    "group_name TEXT, " +
-                    "username TEXT, " +
-                    "PRIMARY KEY(group_name, username))");
-
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS messages (" +
-                    "id TEXT PRIMARY KEY, " +
-                    "type TEXT, " +
-                    "sender TEXT, " +
-                    "recipient TEXT, " +
-                    "is_group INTEGER, " +
-                    "text_content TEXT, " +
-                    "file_path TEXT, " +
-                    "timestamp INTEGER)");
-
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS message_visibility (" +
-                    "message_id TEXT, " +
-                    "username TEXT, " +
-                    "visible INTEGER DEFAULT 1, " +
-                    "PRIMARY KEY(message_id, username))");
-        }
+    /** Presta una conexión de lectura del pool (la usan los arneses de medición). */
+    <T> T withReader(ReadConnectionPool.Work<T> work) throws SQLException {
+        return readers.withConnection(work);
     }
 
-    public synchronized void saveTextMessage(String id, String sender, String recipient, boolean isGroup, String text, long timestamp) {
-        //hey = ""; // Limpiar debug
-        
-        // 1. Guardar el mensaje
-        try (PreparedStatement ps = conn.prepareStatement(
-                "INSERT INTO messages (id,type,sender,recipient,is_group,text_content,timestamp) VALUES (?,?,?,?,?,?,?)")) {
-            ps.setString(1, id);
-            ps.setString(2, "TEXT");
-            ps.setString(3, sender);
-            ps.setString(4, recipient);
-            ps.setInt(5, isGroup ? 1 : 0);
-            ps.setString(6, text);
-            ps.setLong(7, timestamp);
-            ps.executeUpdate();
-            //hey += ">> Mensaje guardado: " + text + " de " + sender + " a " + recipient + "\n";
-        } catch (SQLException ex) { 
-            ex.printStackTrace(); 
-            return;
-        }
+    public int getReaderCount() {
+        return readers.size();
+    }
 
-        // 2. Guardar visibilidad 
-        try {
-            // Visibilidad para el remitente
-            try (PreparedStatement pv = conn.prepareStatement(
-                    "INSERT INTO message_visibility (message_id, username, visible) VALUES (?, ?, 1)")) {
-                pv.setString(1, id);
-                pv.setString(2, sender);
-                pv.executeUpdate();
-                //hey += ">> Visibilidad añadida para remitente: " + sender + "\n";
-            }
+    public int getIdleReaderCount() {
+        return readers.idleCount();
+    }
 
-            if (isGroup) {
-                // Para grupos: todos los miembros excepto el remitente
-                try (PreparedStatement gm = conn.prepareStatement(
-                        "SELECT username FROM group_members WHERE group_name = ?")) {
-                    gm.setString(1, recipient);
-                    try (ResultSet rs = gm.executeQuery()) {
-                        // Usar un nuevo PreparedStatement para cada inserción
-                        try (PreparedStatement pvGroup = conn.prepareStatement(
-                                "INSERT INTO message_visibility (message_id, username, visible) VALUES (?, ?, 1)")) {
-                            while (rs.next()) {
-                                String member = rs.getString("username");
-                                if (!member.equals(sender)) {
-                                    pvGroup.setString(1, id);
-                                    pvGroup.setString(2, member);
-                                    pvGroup.executeUpdate();
-                                    //hey += ">> Visibilidad añadida para miembro: " + member + "\n";
-                                }
-                            }
-                        }
-                    }
-                }
-            } else {
-                // Para chat directo: el destinatario
-                try (PreparedStatement pvDirect = conn.prepareStatement(
-                        "INSERT INTO message_visibility (message_id, username, visible) VALUES (?, ?, 1)")) {
-                    pvDirect.setString(1, id);
-                    pvDirect.setString(2, recipient);
-                    pvDirect.executeUpdate();
-                    //hey += ">> Visibilidad añadida para destinatario: " + recipient + "\n";
-                }
-            }
-        } catch (SQLException ex) { 
-            ex.printStackTrace(); 
-        }
+    private void initTables() throws SQLException {
+        DatabaseSchema.configure(conn);
+        DatabaseSchema.migrate(conn);
+        DatabaseSchema.analyzeIfStale(conn);
+    }
+
+    /**
+     * Deja el mensaje en la cola de escritura diferida (ver {@link HistoryWriter}) y devuelve
+     * el futuro que se completa al guardarlo (o con el error). En modo "async" retorna sin
+     * esperar a SQLite; en modo "sync" retorna cuando el lote ya se confirmó o falló.
+     */
+    public CompletableFuture<Void> saveTextMessage(String id, String sender, String recipient, boolean isGroup,
+                                                   String text, long timestamp) {
+        CompletableFuture<Void> saved = writer.enqueue(id, sender, recipient, isGroup, text, timestamp);
+        if (writer.isSync()) saved.handle((v, e) -> null).join();
+        return saved;
     }
 
     /*
@@ -132,7 +123,15 @@ public class HistoryManager {
     }
      */
 
-    public void insertGroup(String groupName) {
+    public synchronized void insertUser(String username) {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT OR IGNORE INTO users(username) VALUES(?)")) {
+            ps.setString(1, username);
+            ps.executeUpdate();
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    public synchronized void insertGroup(String groupName) {
         try (PreparedStatement ps = conn.prepareStatement(
                 "INSERT OR IGNORE INTO groups(group_name) VALUES(?)")) {
             ps.setString(1, groupName);
@@ -140,7 +139,7 @@ public class HistoryManager {
         } catch (Exception e) { e.printStackTrace(); }
     }
 
-    public void insertGroupMember(String group, String user) {
+    public synchronized void insertGroupMember(String group, String user) {
         try (PreparedStatement ps = conn.prepareStatement(
                 "INSERT OR IGNORE INTO group_members(group_name, username) VALUES(?,?)")) {
             ps.setString(1, group);
@@ -170,10 +169,42 @@ public class HistoryManager {
         }
     }
 
-    public ResultSet fetchAllUsersEver() throws SQLException {
-        return conn.createStatement().executeQuery(
-            "SELECT DISTINCT sender FROM messages"
-        );
+    public List<String> fetchAllUsersEver() throws SQLException {
+        return readers.withConnection(c -> {
+            List<String> out = new ArrayList<>();
+            try (Statement s = c.createStatement();
+                 ResultSet rs = s.executeQuery("SELECT DISTINCT sender FROM messages")) {
+                while (rs.next()) out.add(rs.getString("sender"));
+            }
+            return out;
+        });
+    }
+
+    public Set<String> listGroupsForUser(String username) throws SQLException {
+        return readers.withConnection(c -> listGroupsForUser(c, username));
+    }
+
+    static Set<String> listGroupsForUser(Connection c, String username) throws SQLException {
+        Set<String> out = ConcurrentHashMap.newKeySet();
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT group_name FROM group_members WHERE username = ?")) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(rs.getString("group_name"));
+            }
+        }
+        return out;
+    }
+
+    /** Recorre todas las membresías (grupo, usuario). */
+    public void forEachGroupMember(BiConsumer<String, String> action) throws SQLException {
+        readers.withConnection(c -> {
+            try (Statement s = c.createStatement();
+                 ResultSet rs = s.executeQuery("SELECT group_name, username FROM group_members")) {
+                while (rs.next()) action.accept(rs.getString("group_name"), rs.getString("username"));
+            }
+            return null;
+        });
     }
 
     public synchronized void saveTextMessage(String id, String sender, String recipient, String text, long timestamp) {
@@ -195,7 +226,7 @@ public class HistoryManager {
     public synchronized String saveVoiceNoteToDiskAndDb(String id, String sender, String recipient, byte[] content, String originalFileName, long timestamp) {
         try {
             String safeName = Instant.ofEpochMilli(timestamp).toString().replace(":", "-") + "_" + originalFileName;
-            File outFile = new File(AUDIO_DIR, safeName);
+            File outFile = new File(audioDir, safeName);
             try (FileOutputStream fos = new FileOutputStream(outFile)) {
                 fos.write(content);
             }
@@ -219,7 +250,16 @@ public class HistoryManager {
     }
 
     public boolean isGroup(String name) {
-        try (PreparedStatement ps = conn.prepareStatement(
+        try {
+            return readers.withConnection(c -> isGroup(c, name));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static boolean isGroup(Connection c, String name) {
+        try (PreparedStatement ps = c.prepareStatement(
                 "SELECT COUNT(*) FROM groups WHERE group_name = ?")) {
             ps.setString(1, name);
             try (ResultSet rs = ps.executeQuery()) {
@@ -233,34 +273,140 @@ public class HistoryManager {
         return false;
     }
 
-    public synchronized ResultSet fetchHistory(String username, String chatTarget) throws SQLException {
-        boolean isGroup = isGroup(chatTarget);
+    /**
+     * Una página del historial visible para {@code username}, siempre en orden ascendente.
+     * Sin cursores devuelve la página más reciente; con {@code before} la anterior a esa
+     * posición y con {@code after} la siguiente.
+     */
+    public void fetchHistory(String username, String chatTarget, HistoryCursor before, HistoryCursor after,
+                             int limit, RowHandler handler) throws SQLException {
+        readers.withConnection(c -> {
+            fetchHistory(c, username, chatTarget, before, after, limit, handler);
+            return null;
+        });
+    }
+
+    static void fetchHistory(Connection c, String username, String chatTarget, HistoryCursor before,
+                             HistoryCursor after, int limit, RowHandler handler) throws SQLException {
+        boolean isGroup = isGroup(c, chatTarget);
+
+        String page = pageQuery(isGroup, before != null, after != null);
+        try (PreparedStatement ps = c.prepareStatement(page)) {
+            int i = 1;
+            if (isGroup) {
+                ps.setString(i++, chatTarget);
+                ps.setString(i++, username);
+            } else {
+                ps.setString(i++, username);
+                ps.setString(i++, username);
+                ps.setString(i++, chatTarget);
+                ps.setString(i++, chatTarget);
+                ps.setString(i++, username);
+            }
+            HistoryCursor cursor = after != null ? after : before;
+            if (cursor != null) {
+                ps.setLong(i++, cursor.timestamp);
+                ps.setLong(i++, cursor.timestamp);
+                ps.setString(i++, cursor.id);
+            }
+            ps.setInt(i, limit);
+            forEachRow(ps, handler);
+        }
+    }
 
+    /**
+     * Consulta de una página del historial. Con estadísticas (ver
+     * {@link DatabaseSchema#analyzeIfStale}) SQLite recorre el índice de la conversación en
+     * orden y comprueba la visibilidad por clave primaria.
+     */
+    static String pageQuery(boolean isGroup, boolean before, boolean after) {
+        String where;
         if (isGroup) {
-            PreparedStatement ps = conn.prepareStatement(
-                "SELECT m.* FROM messages m " +
+            where = "WHERE m.recipient = ? AND m.is_group = 1 AND v.username = ? AND v.visible = 1 ";
+        } else {
+            // Consulta para chats directos
+            where = "WHERE m.is_group = 0 AND v.username = ? AND v.visible = 1 " +
+                    "AND ((m.sender = ? AND m.recipient = ?) OR (m.sender = ? AND m.recipient = ?)) ";
+        }
+
+        if (after) {
+            return "SELECT m.* FROM messages m JOIN message_visibility v ON m.id = v.message_id " + where +
+                   "AND (m.timestamp > ? OR (m.timestamp = ? AND m.id > ?)) " +
+                   "ORDER BY m.timestamp ASC, m.id ASC LIMIT ?";
+        }
+        // Se toman los más recientes hacia atrás y se devuelven en orden ascendente
+        return "SELECT * FROM (" +
+               "SELECT m.* FROM messages m JOIN message_visibility v ON m.id = v.message_id " + where +
+               (before ? "AND (m.timestamp < ? OR (m.timestamp = ? AND m.id < ?)) " : "") +
+               "ORDER BY m.timestamp DESC, m.id DESC LIMIT ?" +
+               ") ORDER BY timestamp ASC, id ASC";
+    }
+
+    private static void forEachRow(PreparedStatement ps, RowHandler handler) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) handler.row(rs);
+        }
+    }
+
+    /**
+     * Marca de agua del historial: el rowid más alto guardado. El escritor es único, así
+     * que un mensaje confirmado después siempre tiene un rowid mayor aunque su timestamp
+     * sea anterior; por eso la sincronización usa esta secuencia y no el timestamp.
+     */
+    public long currentSequence() throws SQLException {
+        return readers.withConnection(c -> {
+            try (Statement s = c.createStatement();
+                 ResultSet rs = s.executeQuery("SELECT COALESCE(MAX(rowid), 0) FROM messages")) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+    }
+
+    /**
+     * Mensajes visibles de la conversación guardados después de {@code since} (columna
+     * {@code seq}), en orden de guardado. El costo es proporcional a lo nuevo: NOT INDEXED
+     * obliga a recorrer solo el rango de rowid posterior a la marca.
+     */
+    public void fetchHistorySince(String username, String chatTarget, long since, int limit, RowHandler handler)
+            throws SQLException {
+        readers.withConnection(c -> {
+            fetchHistorySince(c, username, chatTarget, since, limit, handler);
+            return null;
+        });
+    }
+
+    static void fetchHistorySince(Connection c, String username, String chatTarget, long since, int limit,
+                                  RowHandler handler) throws SQLException {
+        PreparedStatement ps;
+        if (isGroup(c, chatTarget)) {
+            ps = c.prepareStatement(
+                "SELECT m.rowid AS seq, m.* FROM messages m NOT INDEXED " +
                 "JOIN message_visibility v ON m.id = v.message_id " +
-                "WHERE m.recipient = ? AND m.is_group = 1 AND v.username = ? AND v.visible = 1 " +
-                "ORDER BY m.timestamp ASC"
+                "WHERE m.rowid > ? AND m.recipient = ? AND m.is_group = 1 AND v.username = ? AND v.visible = 1 " +
+                "ORDER BY m.rowid ASC LIMIT ?"
             );
-            ps.setString(1, chatTarget);
-            ps.setString(2, username);
-            return ps.executeQuery();
+            ps.setLong(1, since);
+            ps.setString(2, chatTarget);
+            ps.setString(3, username);
+            ps.setInt(4, limit);
         } else {
-            // Consulta para chats directos
-            PreparedStatement ps = conn.prepareStatement(
-                "SELECT DISTINCT m.* FROM messages m " +
+            ps = c.prepareStatement(
+                "SELECT m.rowid AS seq, m.* FROM messages m NOT INDEXED " +
                 "JOIN message_visibility v ON m.id = v.message_id " +
-                "WHERE m.is_group = 0 AND v.username = ? AND v.visible = 1 " +
+                "WHERE m.rowid > ? AND m.is_group = 0 AND v.username = ? AND v.visible = 1 " +
                 "AND ((m.sender = ? AND m.recipient = ?) OR (m.sender = ? AND m.recipient = ?)) " +
-                "ORDER BY m.timestamp ASC"
+                "ORDER BY m.rowid ASC LIMIT ?"
             );
-            ps.setString(1, username);
+            ps.setLong(1, since);
             ps.setString(2, username);
-            ps.setString(3, chatTarget);
+            ps.setString(3, username);
             ps.setString(4, chatTarget);
-            ps.setString(5, username);
-            return ps.executeQuery();
+            ps.setString(5, chatTarget);
+            ps.setString(6, username);
+            ps.setInt(7, limit);
+        }
+        try (ps) {
+            forEachRow(ps, handler);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,168 @@
+package proyecto_chat.server;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Respuesta de {@code fetch_history} armada con JSONArray (como antes de {@link HistoryJsonStream})
+ * contra la escrita fila por fila, tal como la arma {@link ProxyListener} (tarea
+ * {@code runHistoryStreamBench}). Usa la base de {@link HistoryBenchmark} (la llena si hace falta)
+ * y pide páginas de un grupo de distintos tamaños. Informa latencia, bytes asignados por
+ * respuesta (contador de asignación del hilo) y el pico de heap durante la medición.
+ *
+ * Propiedades: las de {@link HistoryBenchmark} para la base y {@code chat.bench.pages}
+ * (tamaños de página separados por coma, {@code 50,500,10000}).
+ */
+public class HistoryStreamBenchmark {
+    private static final int SOCKET_BUFFER = 16 * 1024; // el mismo BufferedWriter que el socket del proxy
+
+    private final HistoryManager history;
+    private final String username;
+    private final String group;
+
+    HistoryStreamBenchmark(HistoryManager history, String username, String group) {
+        this.history = history;
+        this.username = username;
+        this.group = group;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = Integer.getInteger("chat.bench.messages", 1_000_000);
+        int users = Integer.getInteger("chat.bench.users", 200);
+        int groups = Integer.getInteger("chat.bench.groups", 20);
+        int[] pages = Arrays.stream(System.getProperty("chat.bench.pages", "50,500,10000").split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+
+        HistoryManager history = HistoryManager.open();
+        try {
+            HistoryBenchmark seeder = new HistoryBenchmark(history, users, groups);
+            seeder.seed(messages);
+            HistoryStreamBenchmark bench = new HistoryStreamBenchmark(history,
+                    HistoryBenchmark.user(seeder.members(0)[0]), HistoryBenchmark.group(0));
+
+            System.out.println("Página de historial de un grupo, de la consulta al socket:");
+            System.out.printf("  %-8s %-10s %10s %10s %14s %12s %12s%n", "filas", "respuesta", "p50 ms",
+                    "p95 ms", "asignado/resp", "pico heap", "tamaño");
+            for (int page : pages) {
+                int times = Math.max(10, 50_000 / page);
+                bench.report(page, "JSONArray", times, bench::jsonArray);
+                bench.report(page, "stream", times, bench::stream);
+            }
+        } finally {
+            history.close();
+        }
+        System.exit(0);
+    }
+
+    /** Una forma de escribir la respuesta de una página en {@code out}. */
+    interface Response {
+        void write(int page, Writer out) throws Exception;
+    }
+
+    private void report(int page, String name, int times, Response response) throws Exception {
+        for (int i = 0; i < Math.min(times, 20); i++) response.write(page, socket()); // calentamiento
+
+        StringWriter text = new StringWriter();
+        response.write(page, text);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        System.gc();
+        long baseline = heapUsed();
+        resetHeapPeaks();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        double[] ms = new double[times];
+        for (int i = 0; i < times; i++) {
+            long t = System.nanoTime();
+            response.write(page, socket());
+            ms[i] = (System.nanoTime() - t) / 1e6;
+        }
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        long peak = heapPeak() - baseline;
+
+        Arrays.sort(ms);
+        System.out.printf("  %-8d %-10s %10.2f %10.2f %11.0f KB %9.1f MB %9.0f KB%n", page, name,
+                ms[ms.length / 2], ms[Math.min(ms.length - 1, (int) (ms.length * 0.95))],
+                allocated / 1024.0 / times, peak / 1048576.0, text.toString().length() / 1024.0);
+    }
+
+    // Lo que hacía ProxyListener antes: un JSONObject por fila, el JSONArray y el String de la línea
+    private void jsonArray(int page, Writer out) throws Exception {
+        JSONArray arr = new JSONArray();
+        history.withReader(c -> {
+            HistoryManager.fetchHistory(c, username, group, null, null, page, rs -> arr.put(historyRow(rs)));
+            return null;
+        });
+        JSONObject resp = new JSONObject().put("status", "ok").put("messages", arr)
+                .put("has_more", arr.length() == page).put("since", 0);
+        out.write(resp.toString());
+        out.write('\n');
+        out.flush();
+    }
+
+    private static JSONObject historyRow(ResultSet rs) throws SQLException {
+        JSONObject m = new JSONObject();
+        m.put("id", rs.getString("id"));
+        m.put("type", rs.getString("type"));
+        m.put("sender", rs.getString("sender"));
+        m.put("recipient", rs.getString("recipient"));
+        m.put("text_content", rs.getString("text_content"));
+        m.put("file_path", rs.getString("file_path"));
+        m.put("timestamp", rs.getLong("timestamp"));
+        return m;
+    }
+
+    // Lo que hace ProxyListener: filas al buffer de la respuesta y, si pasa el límite, directo al socket
+    private void stream(int page, Writer out) throws Exception {
+        try (ProxyListener.ResponseWriter response = new ProxyListener.ResponseWriter(out, new ReentrantLock(),
+                ServerConfig.PROXY_STREAM_BUFFER_KIB * 1024)) {
+            HistoryJsonStream stream = new HistoryJsonStream(response, null);
+            history.withReader(c -> {
+                HistoryManager.fetchHistory(c, username, group, null, null, page, stream::row);
+                return null;
+            });
+            stream.finish(new JSONObject().put("has_more", stream.count() == page).put("since", 0));
+            response.complete();
+        }
+    }
+
+    private static Writer socket() {
+        return new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8),
+                SOCKET_BUFFER);
+    }
+
+    private static long heapUsed() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static void resetHeapPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package proyecto_chat.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persistencia diferida de mensajes de texto. Quien enruta un mensaje solo lo deja en
+ * un buffer circular acotado; un hilo escritor dedicado los agrupa (hasta
+ * {@code batchSize} mensajes o {@code lingerMs} de espera) y los guarda en una sola
+ * transacción, así el costo de fsync se reparte entre muchos mensajes.
+ *
+ * Cada mensaje encolado lleva un futuro que se completa cuando su lote queda confirmado
+ * (o con el error si no se pudo guardar). En modo "sync" quien guarda espera ese futuro;
+ * en modo "async" (por defecto) retorna de inmediato y un cierre ordenado vacía lo pendiente.
+ */
+public class HistoryWriter implements Runnable {
+
+    /** Mensaje pendiente de guardar. */
+    private static final class Pending {
+        final String id, sender, recipient, text;
+        final boolean isGroup;
+        final long timestamp;
+        final CompletableFuture<Void> done; // se completa al confirmar el lote
+
+        Pending(String id, String sender, String recipient, boolean isGroup, String text, long timestamp,
+                CompletableFuture<Void> done) {
+            this.id = id;
+            this.sender = sender;
+            this.recipient = recipient;
+            this.isGroup = isGroup;
+            this.text = text;
+            this.timestamp = timestamp;
+            this.done = done;
+        }
+    }
+
+    private final HistoryManager history;
+    private final ArrayBlockingQueue<Pending> ring;
+    private final int batchSize;
+    private final long lingerMs;
+    private final boolean sync;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean stopped; // el hilo escritor ya terminó
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    HistoryWriter(HistoryManager history, int capacity, int batchSize, long lingerMs, boolean sync) {
+        this.history = history;
+        this.ring = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.sync = sync;
+        this.thread = new Thread(this, "history-writer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Encola el mensaje; si el buffer está lleno espera (contrapresión hacia quien envía).
+     * El futuro se completa cuando el mensaje queda guardado, o con el error si falla o si
+     * el escritor ya se detuvo.
+     */
+    CompletableFuture<Void> enqueue(String id, String sender, String recipient, boolean isGroup, String text,
+                                    long timestamp) {
+        Pending p = new Pending(id, sender, recipient, isGroup, text, timestamp, new CompletableFuture<>());
+        if (!running) return reject(p);
+        try {
+            while (!ring.offer(p, 100, TimeUnit.MILLISECONDS)) {
+                if (!running) return reject(p);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return reject(p);
+        }
+        // Pudo llegar justo cuando el escritor salía: lo que quede ya no se va a guardar
+        if (stopped) rejectPending();
+        return p.done;
+    }
+
+    private CompletableFuture<Void> reject(Pending p) {
+        failed.increment();
+        p.done.completeExceptionally(new IllegalStateException("HistoryWriter detenido: mensaje " + p.id + " sin guardar"));
+        return p.done;
+    }
+
+    // Falla lo que quedó en el buffer después de que el hilo escritor terminó
+    private void rejectPending() {
+        Pending p;
+        while ((p = ring.poll()) != null) reject(p);
+    }
+
+    @Override
+    public void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !ring.isEmpty()) {
+            try {
+                Pending first = ring.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // Esperar un poco a que lleguen más mensajes para el mismo lote
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < batchSize) {
+                    ring.drainTo(batch, batchSize - batch.size());
+                    long left = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || left <= 0) break;
+                    Pending next = ring.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                running = false;
+                if (!batch.isEmpty()) flush(batch); // lo ya tomado del buffer no se pierde
+            } finally {
+                batch.clear();
+            }
+        }
+        stopped = true;
+        rejectPending();
+    }
+
+    // Cualquier error (no solo de SQL) falla el lote y el hilo escritor sigue con el siguiente
+    private void flush(List<Pending> batch) {
+        Throwable error = null;
+        synchronized (history) {
+            Connection conn = history.getConnection();
+            try {
+                conn.setAutoCommit(false);
+                int ignored = writeBatch(conn, batch);
+                conn.commit();
+                written.add(batch.size() - ignored);
+                duplicates.add(ignored);
+                batches.increment();
+            } catch (Throwable e) {
+                error = e;
+                failed.add(batch.size());
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                e.printStackTrace();
+            } finally {
+                try { conn.setAutoCommit(true); } catch (SQLException ignored) {}
+            }
+        }
+
+        for (Pending p : batch) {
+            if (error == null) p.done.complete(null);
+            else p.done.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Guarda el lote y devuelve cuántos mensajes no se insertaron porque su id ya existía
+     * (un reintento del cliente). Esos se informan y no reciben visibilidad: con otro
+     * remitente o destinatario le abrirían a alguien un mensaje ajeno.
+     */
+    private static int writeBatch(Connection conn, List<Pending> batch) throws SQLException {
+        try (PreparedStatement msg = conn.prepareStatement(
+                "INSERT OR IGNORE INTO messages (id,type,sender,recipient,is_group,text_content,timestamp) VALUES (?,?,?,?,?,?,?)");
+             PreparedStatement vis = conn.prepareStatement(
+                "INSERT OR IGNORE INTO message_visibility (message_id, username, visible) VALUES (?, ?, 1)");
+             // Para grupos: todos los miembros excepto el remitente, en una sola sentencia
+             PreparedStatement groupVis = conn.prepareStatement(
+                "INSERT OR IGNORE INTO message_visibility (message_id, username, visible) " +
+                "SELECT ?, username, 1 FROM group_members WHERE group_name = ? AND username <> ?")) {
+
+            for (Pending p : batch) {
+                msg.setString(1, p.id);
+                msg.setString(2, "TEXT");
+                msg.setString(3, p.sender);
+                msg.setString(4, p.recipient);
+                msg.setInt(5, p.isGroup ? 1 : 0);
+                msg.setString(6, p.text);
+                msg.setLong(7, p.timestamp);
+                msg.addBatch();
+            }
+            int[] inserted = msg.executeBatch();
+
+            int ignored = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Pending p = batch.get(i);
+                if (inserted[i] == 0) {
+                    ignored++;
+                    System.err.println("HistoryWriter: mensaje " + p.id + " duplicado, no se guardó otra vez");
+                    continue;
+                }
+
+                // Visibilidad para el remitente
+                vis.setString(1, p.id);
+                vis.setString(2, p.sender);
+                vis.addBatch();
+
+                if (p.isGroup) {
+                    groupVis.setString(1, p.id);
+                    groupVis.setString(2, p.recipient);
+                    groupVis.setString(3, p.sender);
+                    groupVis.addBatch();
+                } else {
+                    // Para chat directo: el destinatario
+                    vis.setString(1, p.id);
+                    vis.setString(2, p.recipient);
+                    vis.addBatch();
+                }
+            }
+            vis.executeBatch();
+            groupVis.executeBatch();
+            return ignored;
+        }
+    }
+
+    /** Deja de aceptar trabajo y espera a que se guarde todo lo pendiente. */
+    void shutdown(long timeoutMs) {
+        running = false;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!ring.isEmpty()) {
+            System.err.println("HistoryWriter: quedaron " + ring.size() + " mensajes sin guardar");
+        }
+    }
+
+    public int getQueued() { return ring.size(); }
+    public long getWritten() { return written.sum(); }
+    public long getBatches() { return batches.sum(); }
+    public long getFailed() { return failed.sum(); }
+    /** Mensajes que no se guardaron porque ya había uno con el mismo id. */
+    public long getDuplicates() { return duplicates.sum(); }
+    public boolean isSync() { return sync; }
+}
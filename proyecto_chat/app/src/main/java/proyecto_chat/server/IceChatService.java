@@ -2,78 +2,222 @@ package proyecto_chat.server;
 
 import Chat.*; // Clases generadas por slice2java
 import com.zeroc.Ice.Current;
+import proyecto_chat.common.Message;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class IceChatService implements Service, PresenceService.Listener, ChatCore.Listener {
+
+    // Clientes conectados por id normalizado (GroupMembership#userId)
+    private final Map<String, IceClient> clients = new ConcurrentHashMap<>();
+
+    // Cliente autenticado en cada conexión (getHistory no recibe el nombre)
+    private final Map<com.zeroc.Ice.Connection, IceClient> sessions = new ConcurrentHashMap<>();
+
+    private final ChatCore core; // guardado y grupos compartidos con TCP y proxy
+    private final GroupMembership membership;
+    private final PresenceService presence;
+
+    // Modo batch: tamaño del lote y temporizador que vacía los lotes de todos los clientes
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+
+    private IceChatService(ChatCore core, PresenceService presence) {
+        this.core = core;
+        this.membership = core.getMembership();
+        this.presence = presence;
+
+        if ("batch".equalsIgnoreCase(ServerConfig.ICE_DELIVERY)) {
+            batchSize = Math.max(1, ServerConfig.ICE_BATCH_SIZE);
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ice-lotes");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            batchSize = 0;
+            flusher = null;
+        }
+    }
 
-public class IceChatService implements Service {
-
-    // Lista de clientes conectados (callback)
-    private final Map<String, ClientCallbackPrx> clients = new ConcurrentHashMap<>();
-
-    public IceChatService() {}
+    /** Crea el servicio y recién entonces lo suscribe a la presencia, a los mensajes y al temporizador de lotes. */
+    public static IceChatService create(ChatCore core, PresenceService presence) {
+        IceChatService service = new IceChatService(core, presence);
+        presence.addListener(service);
+        core.addListener(service);
+        if (service.flusher != null) {
+            service.flusher.scheduleWithFixedDelay(service::flushAll, ServerConfig.ICE_BATCH_FLUSH_MS,
+                    ServerConfig.ICE_BATCH_FLUSH_MS, TimeUnit.MILLISECONDS);
+        }
+        return service;
+    }
 
     @Override
     public void login(String username, ClientCallbackPrx cb, Current current) {
         System.out.println("[ICE] login: " + username);
-        clients.put(username, cb);
+        if (current.con != null) {
+            // El callback del navegador no tiene endpoints: se invoca por la misma conexión (bidireccional)
+            cb = cb.ice_fixed(current.con);
+        }
+        com.zeroc.Ice.Connection con = current.con;
+        IceClient client = new IceClient(username, cb, ServerConfig.ICE_MAX_IN_FLIGHT,
+                ServerConfig.ICE_CALLBACK_TIMEOUT_MS, batchSize, c -> {
+                    if (con != null) sessions.remove(con, c);
+                    endSession(c);
+                });
+        clients.put(membership.userId(username), client);
+        if (con != null) {
+            IceClient previous = sessions.put(con, client);
+            if (previous != null) endSession(previous);
+            con.setCloseCallback(closed -> {
+                IceClient c = sessions.remove(closed);
+                if (c != null) endSession(c);
+            });
+        }
+
+        // Los demás se enteran en el próximo lote de presencia
+        presence.connected(username);
+    }
 
-        // Notificar a los demás
-        broadcastUserJoined(username);
+    // Fin de la sesión de un cliente: se cerró la conexión, la reemplazó otro login o se lo
+    // desalojó porque su callback falló. Cualquiera sea el camino, la presencia baja una sola vez
+    private void endSession(IceClient client) {
+        if (!client.end()) return;
+        clients.remove(membership.userId(client.getUsername()), client);
+        presence.disconnected(client.getUsername());
     }
 
     @Override
     public void sendText(String username, String recipient, String text, Current current) {
         System.out.println("[ICE] sendText: " + username + " -> " + recipient);
 
-        Msg msg = new Msg();
-        msg.id = UUID.randomUUID().toString();
-        msg.sender = username;
-        msg.recipient = recipient;
-        msg.text = text;
-        msg.timestamp = System.currentTimeMillis();
-
-        broadcastNewMessage(msg);
+        // Se entrega a TCP e ICE (este servicio lo recibe en onText) y se guarda sin bloquear
+        // el despacho de ICE. En modo "sync" ya terminó y el error le llega al cliente
+        CompletableFuture<Message> saved = core.sendText(username, recipient, text);
+        if (saved.isDone()) {
+            saved.join();
+        } else {
+            saved.whenComplete((m, e) -> {
+                if (e != null) System.err.println("[ICE] sendText: no se guardó el mensaje de " + username + ": " + e);
+            });
+        }
     }
 
     @Override
     public void createGroup(String username, String group, Current current) {
         System.out.println("[ICE] createGroup: " + username + " crea " + group);
+        core.createGroup(group);
     }
 
     @Override
     public void joinGroup(String username, String group, Current current) {
         System.out.println("[ICE] joinGroup: " + username + " se une a " + group);
+        // Igual que el proxy: si el grupo no existe se crea
+        core.registerUser(username);
+        core.createGroup(group);
+        core.joinGroup(username, group);
     }
 
     @Override
     public Msg[] getHistory(String recipient, int limit, Current current) {
         System.out.println("[ICE] getHistory: " + recipient + " (limit=" + limit + ")");
 
-        // TODO: conectar con HistoryManager
-        return new Msg[0];
+        IceClient session = current.con != null ? sessions.get(current.con) : null;
+        if (session == null) return new Msg[0];
+        String username = session.getUsername();
+
+        // Solo la página más reciente; limit se acota igual que en el proxy
+        int pageSize = limit <= 0 ? ServerConfig.HISTORY_PAGE_SIZE
+                                  : Math.min(limit, ServerConfig.HISTORY_MAX_PAGE_SIZE);
+        List<Msg> out = new ArrayList<>();
+        try {
+            core.fetchHistory(username, recipient, null, null, pageSize, rs -> {
+                Msg m = new Msg();
+                m.id = rs.getString("id");
+                m.sender = rs.getString("sender");
+                m.recipient = rs.getString("recipient");
+                String text = rs.getString("text_content");
+                m.text = text != null ? text : "";
+                m.timestamp = rs.getLong("timestamp");
+                out.add(m);
+            });
+        } catch (Exception e) {
+            System.err.println("[ICE] Error getHistory: " + e.getMessage());
+        }
+        return out.toArray(new Msg[0]);
     }
 
     // ---------------------------
     // Métodos auxiliares internos
     // ---------------------------
 
-    private void broadcastNewMessage(Msg msg) {
-        for (var entry : clients.entrySet()) {
+    // Solo al destinatario directo o a los miembros del grupo (menos el remitente);
+    // las entregas son asíncronas y el hilo del remitente no espera a ningún navegador
+    @Override
+    public void onText(Message message, boolean isGroup) {
+        Msg msg = new Msg();
+        msg.id = message.getId();
+        msg.sender = message.getSender();
+        msg.recipient = message.getRecipient();
+        msg.text = message.getTextContent() != null ? message.getTextContent() : "";
+        msg.timestamp = message.getTimestamp();
+
+        if (isGroup) {
+            String senderId = membership.userId(msg.sender);
+            for (String memberId : membership.members(msg.recipient)) {
+                if (memberId.equals(senderId)) continue;
+                IceClient client = clients.get(memberId);
+                if (client != null) client.deliver(msg);
+            }
+        } else {
+            IceClient client = clients.get(membership.userId(msg.recipient));
+            if (client != null) client.deliver(msg);
+        }
+    }
+
+    private void flushAll() {
+        for (IceClient client : clients.values()) {
             try {
-                entry.getValue().onNewMessage(msg);
+                client.flush();
             } catch (Exception e) {
-                System.err.println("[ICE] Error notify newMessage: " + e.getMessage());
+                e.printStackTrace();
             }
         }
     }
 
-    private void broadcastUserJoined(String username) {
+    /** Envía lo pendiente y detiene el temporizador de lotes. */
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flushAll();
+        }
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Lote de presencia: a cada cliente se le encolan todos los cambios en un proxy batch
+     * oneway y se envían en un solo mensaje, sin esperar respuesta.
+     */
+    @Override
+    public void onPresence(List<String> joined, List<String> left) {
         for (var entry : clients.entrySet()) {
             try {
-                entry.getValue().onUserJoined(username);
+                ClientCallbackPrx batch = entry.getValue().getCallback().ice_batchOneway();
+                for (String u : joined) {
+                    if (!u.equals(entry.getKey())) batch.onUserJoined(u);
+                }
+                for (String u : left) batch.onUserLeft(u);
+                batch.ice_flushBatchRequestsAsync();
             } catch (Exception e) {
-                System.err.println("[ICE] Error notify userJoined: " + e.getMessage());
+                System.err.println("[ICE] Error notify presence: " + e.getMessage());
             }
         }
     }
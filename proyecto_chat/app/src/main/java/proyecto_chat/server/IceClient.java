@@ -0,0 +1,167 @@
+package proyecto_chat.server;
+
+import Chat.ClientCallbackPrx;
+import Chat.Msg;
+import com.zeroc.Ice.InvocationTimeoutException;
+import com.zeroc.Ice.LocalException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Callback de un cliente ICE con entregas asíncronas acotadas. Quien enruta no espera
+ * la respuesta del navegador: si el cliente ya tiene {@code maxInFlight} entregas sin
+ * confirmar, el aviso se descarta (el mensaje ya está en el historial y el cliente lo
+ * recupera con su próxima sincronización).
+ *
+ * En modo batch los mensajes se acumulan y salen juntos en un solo {@code onNewMessages}
+ * oneway cuando se llega a {@code batchSize} o cuando el temporizador llama a {@link #flush}.
+ */
+final class IceClient {
+
+    // Métricas globales de todos los clientes ICE
+    private static final LongAdder DELIVERED = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final LongAdder EVICTED = new LongAdder();
+
+    private final String username;
+    private final ClientCallbackPrx callback;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Consumer<IceClient> evict;
+    private volatile boolean dead = false;
+    private final AtomicBoolean ended = new AtomicBoolean();
+
+    // Solo en modo batch
+    private final ClientCallbackPrx batchCallback;
+    private final int batchSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<Msg> pending = new ArrayList<>();
+
+    IceClient(String username, ClientCallbackPrx callback, int maxInFlight, long timeoutMs,
+              int batchSize, Consumer<IceClient> evict) {
+        this.username = username;
+        this.callback = callback.ice_invocationTimeout((int) timeoutMs);
+        this.maxInFlight = maxInFlight;
+        this.batchSize = batchSize;
+        this.batchCallback = batchSize > 0 ? callback.ice_batchOneway() : null;
+        this.evict = evict;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    ClientCallbackPrx getCallback() {
+        return callback;
+    }
+
+    /** Da por terminada la sesión y deja de entregar; true solo la primera vez. */
+    boolean end() {
+        dead = true;
+        return ended.compareAndSet(false, true);
+    }
+
+    /** Envía sin bloquear. Devuelve false si el aviso se descartó. */
+    boolean deliver(Msg msg) {
+        if (dead) return false;
+        if (batchCallback != null) return enqueue(msg);
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            DROPPED.increment();
+            return false;
+        }
+        try {
+            callback.onNewMessageAsync(msg).whenComplete((r, ex) -> {
+                inFlight.decrementAndGet();
+                if (ex == null) DELIVERED.increment();
+                else failed(ex);
+            });
+            return true;
+        } catch (LocalException e) {
+            inFlight.decrementAndGet();
+            failed(e);
+            return false;
+        }
+    }
+
+    private boolean enqueue(Msg msg) {
+        boolean full;
+        lock.lock();
+        try {
+            pending.add(msg);
+            full = pending.size() >= batchSize;
+        } finally {
+            lock.unlock();
+        }
+        if (full) flush();
+        return true;
+    }
+
+    /** Envía lo acumulado como un solo onNewMessages oneway. */
+    void flush() {
+        if (batchCallback == null || dead) return;
+        int count;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) return;
+            count = pending.size();
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                // La conexión no da abasto: se descarta el lote (queda en el historial)
+                inFlight.decrementAndGet();
+                pending = new ArrayList<>();
+                DROPPED.add(count);
+                return;
+            }
+            try {
+                // Se encola bajo el candado para que los lotes salgan en orden
+                batchCallback.onNewMessages(pending.toArray(new Msg[0]));
+            } catch (LocalException e) {
+                inFlight.decrementAndGet();
+                pending = new ArrayList<>();
+                failed(e);
+                return;
+            }
+            pending = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            batchCallback.ice_flushBatchRequestsAsync().whenComplete((r, ex) -> {
+                inFlight.decrementAndGet();
+                if (ex == null) DELIVERED.add(count);
+                else failed(ex);
+            });
+        } catch (LocalException e) {
+            inFlight.decrementAndGet();
+            failed(e);
+        }
+    }
+
+    // Un timeout puede ser un navegador lento; cualquier otro error local indica
+    // conexión perdida o callback inexistente y el cliente se saca de la tabla
+    private void failed(Throwable ex) {
+        if (ex instanceof InvocationTimeoutException) {
+            DROPPED.increment();
+            return;
+        }
+        if (dead) return;
+        dead = true;
+        EVICTED.increment();
+        System.err.println("[ICE] Callback de " + username + " descartado: " + ex);
+        evict.accept(this);
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    static long getDelivered() { return DELIVERED.sum(); }
+    static long getDropped() { return DROPPED.sum(); }
+    static long getEvicted() { return EVICTED.sum(); }
+}
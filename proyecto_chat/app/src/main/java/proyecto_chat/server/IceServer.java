@@ -3,23 +3,29 @@ package proyecto_chat.server;
 import Chat.*;                 // Servicio generado por slice2java
 import com.zeroc.Ice.*;        // API principal de Ice
 
+/**
+ * Servicio ICE por WebSocket. Normalmente lo arranca {@link Server} en el mismo proceso
+ * (comparte historial y presencia); {@link #main} lo corre por separado.
+ */
 public class IceServer {
+    private final Communicator communicator;
+    private final IceChatService service;
 
-    public static void main(String[] args) {
-        int status = 0;
+    private IceServer(Communicator communicator, IceChatService service) {
+        this.communicator = communicator;
+        this.service = service;
+    }
 
+    /** Crea el adaptador en {@code endpoints} (p. ej. "ws -h 127.0.0.1 -p 12000") y lo activa. */
+    public static IceServer start(String[] args, String endpoints, ChatCore core, PresenceService presence) {
         // Inicializamos el comunicador de Ice
-        try (Communicator communicator = Util.initialize(args)) {
-
+        Communicator communicator = Util.initialize(args);
+        try {
             // Creamos el adaptador con endpoint WebSocket (ws)
-            // Escucha en ws://127.0.0.1:12000
-            ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints(
-                    "ChatAdapter",
-                    "ws -h 127.0.0.1 -p 12000"
-            );
+            ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints("ChatAdapter", endpoints);
 
             // Creamos la implementación del servicio
-            IceChatService service = new IceChatService();
+            IceChatService service = IceChatService.create(core, presence);
 
             // Registramos la instancia con una identidad
             Identity id = Util.stringToIdentity("ChatService");
@@ -28,10 +34,38 @@ public class IceServer {
             // Activamos el adaptador
             adapter.activate();
 
-            System.out.println("[ICE] Servidor ICE escuchando en ws://127.0.0.1:12000 como 'ChatService'");
+            System.out.println("[ICE] Servidor ICE escuchando en " + endpoints + " como 'ChatService'");
+            return new IceServer(communicator, service);
+        } catch (RuntimeException e) {
+            communicator.destroy();
+            throw e;
+        }
+    }
+
+    public IceChatService getService() {
+        return service;
+    }
+
+    public void shutdown() {
+        service.shutdown();
+        communicator.destroy();
+    }
+
+    public static void main(String[] args) {
+        int status = 0;
+
+        try {
+            HistoryManager history = HistoryManager.open();
+            GroupMembership membership = new GroupMembership();
+            PresenceService presence = new PresenceService(membership, ServerConfig.PRESENCE_FLUSH_MS, ServerConfig.PRESENCE_LEASE_MS);
+            ChatCore core = new ChatCore(membership, history);
+            core.load();
+            IceServer server = start(args, ServerConfig.ICE_ENDPOINTS, core, presence);
 
             // Esperamos a que el servidor termine (Ctrl+C o shutdown)
-            communicator.waitForShutdown();
+            server.communicator.waitForShutdown();
+            presence.shutdown();
+            history.close();
 
         } catch (java.lang.Exception e) {
             e.printStackTrace();
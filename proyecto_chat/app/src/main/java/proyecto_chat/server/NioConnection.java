@@ -0,0 +1,293 @@
+package proyecto_chat.server;
+
+import proyecto_chat.common.Message;
+import proyecto_chat.common.MessageFrames;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Estado de una conexión del transporte NIO: buffer de lectura que se va llenando
+ * hasta completar tramas, y cola de escritura con control de contrapresión.
+ *
+ * El event loop solo decodifica: cada mensaje se atiende en un hilo de trabajo (ver
+ * {@link NioTransport}), en orden y de a uno por conexión, así una escritura lenta a disco
+ * o a la base no frena a las demás conexiones del loop. Si se juntan más de
+ * {@link #MAX_INBOX} mensajes sin atender se deja de leer de ese cliente.
+ *
+ * Si lo pendiente por escribir supera {@link ServerConfig#NIO_HIGH_WATERMARK}, se deja
+ * de leer de ese cliente hasta que baje de la mitad; si supera
+ * {@link ServerConfig#NIO_MAX_PENDING_BYTES}, se aplica la política de cliente lento
+ * ({@link ClientHandler#slowConsumerPolicy}) igual que en las colas del modo bloqueante.
+ */
+public class NioConnection {
+    private static final int MAX_INBOX = 64; // mensajes recibidos sin atender antes de dejar de leer
+
+    private final SocketChannel channel;
+    private final NioTransport.EventLoop loop;
+    private final NioTransport transport;
+    private SelectionKey key;
+    private ClientHandler handler;
+
+    private ByteBuffer readBuf = ByteBuffer.allocate(8 * 1024);
+    private boolean handshakeDone = false;
+    private volatile byte version = MessageFrames.VERSION_SERIALIZED;
+    private boolean loggedIn = false; // solo lo usa la tarea que atiende los mensajes
+
+    // Cola de escritura; se accede desde el loop y desde los hilos que envían mensajes
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private long pendingBytes = 0;
+    private boolean readPaused = false;
+    private volatile boolean closed = false;
+
+    // Tareas de la conexión (mensajes y desconexión), en orden; a lo sumo una en curso
+    private final ArrayDeque<Runnable> inbox = new ArrayDeque<>();
+    private boolean inboxScheduled = false;
+    private volatile boolean inboxPaused = false;
+
+    NioConnection(SocketChannel channel, NioTransport.EventLoop loop, NioTransport transport) {
+        this.channel = channel;
+        this.loop = loop;
+        this.transport = transport;
+    }
+
+    void attach(ClientHandler handler, SelectionKey key) {
+        this.handler = handler;
+        this.key = key;
+    }
+
+    // ----- Lectura (solo desde el event loop) -----
+
+    void onReadable() {
+        try {
+            int n = channel.read(readBuf);
+            if (n < 0) {
+                close();
+                return;
+            }
+            readBuf.flip();
+            boolean ok = parseFrames();
+            readBuf.compact();
+            if (!ok) close();
+        } catch (Exception e) {
+            close();
+        }
+    }
+
+    private boolean parseFrames() throws IOException, ClassNotFoundException {
+        if (!handshakeDone) {
+            if (readBuf.remaining() < MessageFrames.HANDSHAKE_SIZE) return true;
+            byte[] hs = new byte[MessageFrames.HANDSHAKE_SIZE];
+            readBuf.get(hs);
+            byte offered = hs[MessageFrames.MAGIC.length];
+            byte chosen = MessageFrames.negotiate(offered);
+            if (!MessageFrames.isMagic(hs, 0) || chosen < 0) {
+                System.err.println("NIO: handshake inválido desde " + channel.getRemoteAddress());
+                return false;
+            }
+            version = chosen;
+            if (MessageFrames.expectsReply(offered)) {
+                enqueue(new byte[] { chosen });
+            }
+            handshakeDone = true;
+        }
+
+        while (readBuf.remaining() >= MessageFrames.HEADER_SIZE && !closed) {
+            int len = readBuf.getInt(readBuf.position());
+            if (len < 0 || len > MessageFrames.MAX_FRAME_SIZE) return false;
+            if (readBuf.remaining() < MessageFrames.HEADER_SIZE + len) {
+                ensureCapacity(MessageFrames.HEADER_SIZE + len);
+                return true;
+            }
+            readBuf.position(readBuf.position() + MessageFrames.HEADER_SIZE);
+            Object obj = MessageFrames.decode(readBuf.array(), readBuf.arrayOffset() + readBuf.position(), len, version);
+            readBuf.position(readBuf.position() + len);
+            dispatch(obj);
+        }
+        return true;
+    }
+
+    // Agranda el buffer si la trama no cabe (se llama con el buffer en modo lectura)
+    private void ensureCapacity(int frameSize) {
+        if (readBuf.capacity() >= frameSize) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Integer.highestOneBit(frameSize - 1) << 1);
+        bigger.put(readBuf);
+        bigger.flip();
+        readBuf = bigger;
+    }
+
+    private void dispatch(Object obj) {
+        submit(() -> {
+            if (closed) return;
+            if (!loggedIn) {
+                handler.onLogin((String) obj);
+                loggedIn = true;
+            } else {
+                handler.onMessage((Message) obj);
+            }
+        });
+    }
+
+    // ----- Atención de mensajes (hilos de trabajo) -----
+
+    // Encola una tarea; las de una misma conexión nunca corren en paralelo ni se desordenan
+    private void submit(Runnable task) {
+        boolean pause;
+        synchronized (inbox) {
+            inbox.add(task);
+            pause = !inboxPaused && inbox.size() > MAX_INBOX;
+            if (pause) inboxPaused = true;
+            if (inboxScheduled) task = null;
+            else inboxScheduled = true;
+        }
+        if (pause) updateReadInterest();
+        if (task == null) return; // ya hay un hilo vaciando la cola
+        try {
+            transport.getWorkers().execute(this::drainInbox);
+        } catch (RejectedExecutionException e) {
+            drainInbox(); // apagando: se atiende en este hilo
+        }
+    }
+
+    private void drainInbox() {
+        while (true) {
+            Runnable task;
+            boolean resume = false;
+            synchronized (inbox) {
+                task = inbox.poll();
+                if (task == null) {
+                    inboxScheduled = false;
+                    return;
+                }
+                if (inboxPaused && inbox.size() <= MAX_INBOX / 2) {
+                    inboxPaused = false;
+                    resume = true;
+                }
+            }
+            if (resume) updateReadInterest();
+            try {
+                task.run();
+            } catch (Exception e) {
+                // Igual que en el modo bloqueante: un mensaje que no se puede atender cierra la sesión
+                e.printStackTrace();
+                close();
+            }
+        }
+    }
+
+    // Se lee del socket solo si no hay contrapresión de escritura ni mensajes acumulados
+    private void updateReadInterest() {
+        synchronized (writeQueue) {
+            if (closed) return;
+            if (readPaused || inboxPaused) key.interestOpsAnd(~SelectionKey.OP_READ);
+            else key.interestOpsOr(SelectionKey.OP_READ);
+        }
+        loop.wakeup();
+    }
+
+    // ----- Escritura (desde cualquier hilo) -----
+
+    void send(OutboundMessage message) throws IOException {
+        enqueue(message.frameBuffer(version), SlowConsumerPolicy.isPersisted(message));
+    }
+
+    private void enqueue(byte[] frame) {
+        enqueue(ByteBuffer.wrap(frame), false);
+    }
+
+    private void enqueue(ByteBuffer frame, boolean persisted) {
+        int length = frame.remaining();
+        synchronized (writeQueue) {
+            if (closed) return;
+            if (pendingBytes + length > ServerConfig.NIO_MAX_PENDING_BYTES && !makeRoom(length, persisted)) {
+                return;
+            }
+            writeQueue.add(frame);
+            pendingBytes += length;
+            if (pendingBytes > ServerConfig.NIO_HIGH_WATERMARK && !readPaused) {
+                readPaused = true;
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+            }
+            key.interestOpsOr(SelectionKey.OP_WRITE);
+        }
+        loop.wakeup();
+    }
+
+    // Aplica la política de cliente lento; devuelve true si la trama nueva se puede encolar
+    private boolean makeRoom(int length, boolean persisted) {
+        SlowConsumerPolicy policy = ClientHandler.slowConsumerPolicy();
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+            System.err.println("NIO: cliente lento, se cierra la conexión (" + pendingBytes + " bytes pendientes)");
+            OutboundQueue.recordDisconnect();
+            close();
+            return false;
+        }
+        if (policy == SlowConsumerPolicy.SPILL_TO_HISTORY && persisted) {
+            OutboundQueue.recordSpilled();
+            return false;
+        }
+        // Descartar las tramas más viejas, menos la que ya se empezó a escribir
+        Iterator<ByteBuffer> it = writeQueue.iterator();
+        if (it.hasNext() && writeQueue.peek().position() > 0) it.next();
+        while (pendingBytes + length > ServerConfig.NIO_MAX_PENDING_BYTES && it.hasNext()) {
+            pendingBytes -= it.next().remaining();
+            it.remove();
+            OutboundQueue.recordDropped();
+        }
+        return pendingBytes + length <= ServerConfig.NIO_MAX_PENDING_BYTES;
+    }
+
+    int queuedFrames() {
+        synchronized (writeQueue) {
+            return writeQueue.size();
+        }
+    }
+
+    void onWritable() {
+        try {
+            synchronized (writeQueue) {
+                ByteBuffer head;
+                while ((head = writeQueue.peek()) != null) {
+                    int written = channel.write(head);
+                    pendingBytes -= written;
+                    if (head.hasRemaining()) break; // el socket está lleno, se sigue en el próximo OP_WRITE
+                    writeQueue.poll();
+                }
+                if (writeQueue.isEmpty()) {
+                    key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                }
+                if (readPaused && pendingBytes <= ServerConfig.NIO_HIGH_WATERMARK / 2) {
+                    readPaused = false;
+                    if (!inboxPaused) key.interestOpsOr(SelectionKey.OP_READ);
+                }
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Se puede llamar desde cualquier hilo: cancelar la llave hace que el loop la descarte
+    void close() {
+        synchronized (writeQueue) {
+            if (closed) return;
+            closed = true;
+            writeQueue.clear();
+            pendingBytes = 0;
+        }
+        if (key != null) key.cancel();
+        try { channel.close(); } catch (IOException ignored) {}
+        afterClose();
+    }
+
+    // La desconexión va por la misma cola: se atiende después de los mensajes ya recibidos
+    private void afterClose() {
+        submit(() -> {
+            if (handler != null) handler.onDisconnect();
+            transport.connectionClosed();
+        });
+    }
+}
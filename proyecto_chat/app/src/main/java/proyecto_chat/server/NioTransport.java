@@ -0,0 +1,216 @@
+package proyecto_chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transporte TCP no bloqueante para los clientes CLI. Un hilo acepta conexiones y las
+ * reparte entre unos pocos event loops (uno por Selector); cada conexión es un
+ * {@link NioConnection} con sus buffers, así que el número de conexiones no depende
+ * del número de hilos. Solo habla el protocolo por tramas (ver MessageFrames).
+ *
+ * Los loops no atienden los mensajes: los pasan a hilos de trabajo del mismo tipo que los
+ * de conexión ({@code chat.connection.threads}), en orden por conexión.
+ *
+ * Admite hasta {@code chat.connection.max} conexiones a la vez, igual que el listener
+ * bloqueante; las que pasan del cupo se cierran apenas se aceptan.
+ */
+public class NioTransport implements Runnable {
+    private final int port;
+    private final EventLoop[] loops;
+    private final ChatCore core;
+    private final PresenceService presence;
+    private final CallRelay callRelay;
+    private final ExecutorService workers; // atienden los mensajes decodificados
+
+    private final int maxConnections = ServerConfig.MAX_CONNECTIONS;
+    // Conexiones admitidas: se cuentan al aceptarlas, antes de que un loop las registre
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    public NioTransport(int port, int loopCount,
+                        ChatCore core,
+                        PresenceService presence,
+                        CallRelay callRelay) throws IOException {
+        this.port = port;
+        this.core = core;
+        this.presence = presence;
+        this.callRelay = callRelay;
+        this.workers = ConnectionExecutor.newExecutor("nio-worker", ServerConfig.CONNECTION_THREADS);
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    @Override
+    public void run() {
+        for (EventLoop loop : loops) {
+            Thread t = new Thread(loop, "nio-loop-" + loop.index);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            serverChannel = ssc;
+            ssc.bind(new InetSocketAddress(port));
+            System.out.println("Transporte NIO con " + loops.length + " event loops en el puerto " + port);
+
+            int next = 0;
+            while (running) {
+                SocketChannel ch;
+                try {
+                    ch = ssc.accept(); // el hilo aceptador sí bloquea
+                } catch (IOException e) {
+                    if (!running || !ssc.isOpen()) break;
+                    // Falla de una conexión o falta de descriptores: se sigue aceptando
+                    System.err.println("Error al aceptar en transporte NIO: " + e.getMessage());
+                    pauseAfterAcceptError();
+                    continue;
+                }
+                if (!admit(ch)) continue;
+                try {
+                    ch.configureBlocking(false);
+                    ch.socket().setTcpNoDelay(true);
+                } catch (IOException e) {
+                    activeConnections.decrementAndGet();
+                    try { ch.close(); } catch (IOException ignored) {}
+                    continue;
+                }
+                loops[next].register(ch);
+                next = (next + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            if (running) System.err.println("Error en transporte NIO: " + e.getMessage());
+        }
+    }
+
+    // Toma un lugar del cupo o cierra la conexión
+    private boolean admit(SocketChannel ch) {
+        if (activeConnections.incrementAndGet() <= maxConnections) return true;
+        activeConnections.decrementAndGet();
+        rejected.increment();
+        try { ch.close(); } catch (IOException ignored) {}
+        return false;
+    }
+
+    // Sin descriptores accept() falla enseguida otra vez: se espera un poco para no girar en vacío
+    private static void pauseAfterAcceptError() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {}
+        for (EventLoop loop : loops) loop.close();
+        workers.shutdown(); // las desconexiones ya encoladas se atienden igual
+    }
+
+    ExecutorService getWorkers() {
+        return workers;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Un hilo con su Selector. Las conexiones nuevas llegan por una cola y se
+     * registran dentro del propio loop (registrar desde otro hilo bloquearía en select()).
+     */
+    final class EventLoop implements Runnable {
+        private final int index;
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            pending.add(ch);
+            selector.wakeup();
+        }
+
+        void wakeup() {
+            selector.wakeup();
+        }
+
+        void close() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof NioConnection conn) conn.close();
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException ignored) {}
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    registerPending();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection conn = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            conn.close();
+                            continue;
+                        }
+                        if (key.isReadable()) conn.onReadable();
+                        if (key.isValid() && key.isWritable()) conn.onWritable();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) System.err.println("Event loop " + index + " detenido: " + e.getMessage());
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel ch;
+            while ((ch = pending.poll()) != null) {
+                try {
+                    NioConnection conn = new NioConnection(ch, this, NioTransport.this);
+                    ClientHandler handler =
+                            new ClientHandler(conn, core, presence, callRelay);
+                    conn.attach(handler, ch.register(selector, SelectionKey.OP_READ, conn));
+                } catch (IOException e) {
+                    activeConnections.decrementAndGet();
+                    try { ch.close(); } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package proyecto_chat.server;
+
+import proyecto_chat.common.Message;
+import proyecto_chat.common.MessageFrames;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Mensaje listo para enviarse a varios destinatarios. La trama se codifica una sola
+ * vez por versión de protocolo y ese mismo arreglo de bytes se escribe en el socket
+ * de cada destinatario; nadie debe modificarlo después de creado.
+ */
+public class OutboundMessage {
+    private final Message message;
+    private final AtomicReferenceArray<byte[]> frames =
+            new AtomicReferenceArray<>(MessageFrames.VERSION_MAX + 1);
+
+    public OutboundMessage(Message message) {
+        this.message = message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /** Trama completa (longitud + cuerpo) para la versión dada; se codifica la primera vez. */
+    public byte[] frame(byte version) throws IOException {
+        byte[] frame = frames.get(version);
+        if (frame == null) {
+            // Si dos hilos llegan a la vez ambos codifican, pero se queda con una sola copia
+            frames.compareAndSet(version, null, MessageFrames.encode(message, version));
+            frame = frames.get(version);
+        }
+        return frame;
+    }
+
+    /** Vista de solo lectura sobre la trama compartida, con su propia posición. */
+    public ByteBuffer frameBuffer(byte version) throws IOException {
+        return ByteBuffer.wrap(frame(version)).asReadOnlyBuffer();
+    }
+}
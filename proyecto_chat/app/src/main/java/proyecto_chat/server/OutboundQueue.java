@@ -0,0 +1,152 @@
+package proyecto_chat.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de un cliente, vaciada por su propio hilo escritor. Quien
+ * enruta un mensaje solo lo encola, así un destinatario lento no frena al remitente
+ * y nunca hay dos hilos escribiendo en el mismo socket.
+ *
+ * Se usa ReentrantLock y no synchronized para no fijar hilos virtuales a su carrier.
+ */
+public class OutboundQueue {
+
+    /** Escribe un mensaje en el socket del cliente. */
+    public interface Writer {
+        void write(OutboundMessage message) throws IOException;
+    }
+
+    // Métricas globales de todas las colas
+    private static final LongAdder ENQUEUED = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final LongAdder SPILLED = new LongAdder();
+    private static final LongAdder DISCONNECTS = new LongAdder();
+
+    private final ArrayDeque<OutboundMessage> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final Writer writer;
+    private final Runnable disconnect;
+    private boolean closed = false;
+
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy, Writer writer, Runnable disconnect) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.writer = writer;
+        this.disconnect = disconnect;
+    }
+
+    public void start(String name) {
+        ServerConfig.startThread(name, this::drain);
+    }
+
+    /** Encola sin bloquear. Devuelve false si el mensaje no se va a entregar en vivo. */
+    public boolean offer(OutboundMessage message) {
+        boolean disconnectNow = false;
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DISCONNECT:
+                        disconnectNow = true;
+                        closed = true;
+                        queue.clear();
+                        notEmpty.signalAll();
+                        break;
+                    case SPILL_TO_HISTORY:
+                        if (SlowConsumerPolicy.isPersisted(message)) {
+                            SPILLED.increment();
+                            return false;
+                        }
+                        // los mensajes de control no están en el historial: se hace espacio
+                        queue.pollFirst();
+                        DROPPED.increment();
+                        break;
+                    default:
+                        queue.pollFirst();
+                        DROPPED.increment();
+                }
+            }
+            if (!disconnectNow) {
+                queue.addLast(message);
+                ENQUEUED.increment();
+                notEmpty.signal();
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        DISCONNECTS.increment();
+        System.err.println("Cliente lento: cola de salida llena (" + capacity + "), se desconecta.");
+        disconnect.run();
+        return false;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                OutboundMessage next;
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && !closed) notEmpty.await();
+                    if (closed) return;
+                    next = queue.pollFirst();
+                } finally {
+                    lock.unlock();
+                }
+                writer.write(next);
+            }
+        } catch (IOException e) {
+            // el socket se cayó: el lector lo detecta y limpia
+            close();
+            disconnect.run();
+        } catch (RuntimeException e) {
+            // Sin el hilo escritor la cola solo se llenaría: se cierra la conexión
+            System.err.println("Cola de salida: error al escribir, se desconecta al cliente");
+            e.printStackTrace();
+            close();
+            disconnect.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ----- métricas -----
+
+    static void recordDropped() { DROPPED.increment(); }
+    static void recordSpilled() { SPILLED.increment(); }
+    static void recordDisconnect() { DISCONNECTS.increment(); }
+
+    public static long getEnqueued() { return ENQUEUED.sum(); }
+    public static long getDropped() { return DROPPED.sum(); }
+    public static long getSpilled() { return SPILLED.sum(); }
+    public static long getDisconnects() { return DISCONNECTS.sum(); }
+}
@@ -0,0 +1,185 @@
+package proyecto_chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Quién está conectado, sin importar por dónde: sesiones TCP, sesiones ICE y usuarios web
+ * del proxy HTTP (que no mantienen conexión, así que cuentan por un "lease" que renuevan
+ * con cada petición).
+ *
+ * Los cambios no se avisan uno por uno: se anotan y un hilo los publica cada
+ * {@code flushMillis} como un solo lote (entraron / salieron). Si un usuario entra y sale
+ * dentro de la misma ventana no se publica nada, así una reconexión masiva tras reiniciar
+ * el servidor cuesta un lote por ventana y no una notificación por cada par de usuarios.
+ */
+public class PresenceService {
+
+    /** Recibe los lotes de cambios; se llama desde el hilo de presencia y no debe bloquear. */
+    public interface Listener {
+        void onPresence(List<String> joined, List<String> left);
+    }
+
+    private static final class Entry {
+        int sessions;       // TCP + ICE abiertas
+        long leaseUntil;    // proxy HTTP
+        boolean published;  // último estado avisado
+
+        boolean online(long now) {
+            return sessions > 0 || leaseUntil > now;
+        }
+    }
+
+    private final GroupMembership membership; // normaliza los nombres igual que las sesiones
+    private final ConcurrentHashMap<String, Entry> users = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();   // cambiaron desde el último lote
+    private final Set<String> leased = ConcurrentHashMap.newKeySet();  // tienen lease vigente
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final long leaseMillis;
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public PresenceService(GroupMembership membership, long flushMillis, long leaseMillis) {
+        this.membership = membership;
+        this.leaseMillis = leaseMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presencia");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    /** Se abrió una sesión con conexión propia (TCP o ICE). */
+    public void connected(String user) {
+        update(user, e -> e.sessions++);
+    }
+
+    public void disconnected(String user) {
+        update(user, e -> e.sessions = Math.max(0, e.sessions - 1));
+    }
+
+    /** El usuario hizo una petición por el proxy HTTP: sigue en línea un lease más. */
+    public void touch(String user) {
+        String id = membership.userId(user);
+        Entry e = users.computeIfAbsent(id, k -> new Entry());
+        long now = System.currentTimeMillis();
+        synchronized (e) {
+            boolean renew = e.leaseUntil > now;
+            e.leaseUntil = now + leaseMillis;
+            if (renew) return; // ya estaba vigente: no hay cambio que avisar
+        }
+        leased.add(id);
+        dirty.add(id);
+    }
+
+    /** Cierre explícito de la sesión web (logout). */
+    public void expire(String user) {
+        update(user, e -> e.leaseUntil = 0);
+    }
+
+    private interface Change {
+        void apply(Entry e);
+    }
+
+    private void update(String user, Change change) {
+        String id = membership.userId(user);
+        Entry e = users.computeIfAbsent(id, k -> new Entry());
+        synchronized (e) {
+            change.apply(e);
+        }
+        dirty.add(id);
+    }
+
+    public boolean isOnline(String user) {
+        Entry e = users.get(membership.userId(user));
+        if (e == null) return false;
+        synchronized (e) {
+            return e.online(System.currentTimeMillis());
+        }
+    }
+
+    /** Usuarios en línea según el último lote publicado. */
+    public List<String> onlineUsers() {
+        List<String> out = new ArrayList<>();
+        for (Map.Entry<String, Entry> me : users.entrySet()) {
+            synchronized (me.getValue()) {
+                if (me.getValue().published) out.add(me.getKey());
+            }
+        }
+        return out;
+    }
+
+    // Hilo de presencia: junta lo cambiado, descarta lo que volvió a su estado y publica
+    private void flush() {
+        try {
+            long now = System.currentTimeMillis();
+            for (String id : leased) {
+                Entry e = users.get(id);
+                if (e == null) { leased.remove(id); continue; }
+                synchronized (e) {
+                    if (e.leaseUntil <= now) {
+                        leased.remove(id);
+                        dirty.add(id);
+                    }
+                }
+            }
+            if (dirty.isEmpty()) return;
+
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            for (String id : dirty) {
+                dirty.remove(id);
+                Entry e = users.get(id);
+                if (e == null) continue;
+                boolean online;
+                synchronized (e) {
+                    online = e.online(now);
+                    if (online == e.published) {
+                        coalesced.increment();
+                        continue;
+                    }
+                    e.published = online;
+                }
+                (online ? joined : left).add(id);
+            }
+            if (joined.isEmpty() && left.isEmpty()) return;
+
+            batches.increment();
+            published.add(joined.size() + left.size());
+            for (Listener l : listeners) {
+                try {
+                    l.onPresence(joined, left);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    public void shutdown() {
+        flusher.shutdownNow();
+    }
+
+    public long getBatches() { return batches.sum(); }
+    public long getPublished() { return published.sum(); }
+    public long getCoalesced() { return coalesced.sum(); }
+    public int getOnlineCount() { return onlineUsers().size(); }
+}
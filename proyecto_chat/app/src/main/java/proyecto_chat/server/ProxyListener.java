@@ -3,7 +3,11 @@ package proyecto_chat.server;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.sql.ResultSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
@@ -13,61 +17,327 @@ import org.json.JSONArray;
  *
  * { "action":"create_group" , "username":"alice", "group":"equipo" }
  * { "action":"send_text" , "username":"alice", "recipient":"bob" , "text":"hola" }
- * { "action":"fetch_history", "recipient":"equipo" }
+ * { "action":"fetch_history", "username":"alice", "recipient":"equipo", "limit":50, "before":"<cursor>" }
+ * { "action":"sync_history", "username":"alice", "recipient":"equipo", "since":1234 }
  *
  * Responde con JSON en la misma conexión (una línea).
+ *
+ * Si la petición trae "req_id" la respuesta lo repite y la petición se atiende en paralelo
+ * con las demás de la misma conexión, así el proxy Node puede mantener pocas conexiones
+ * abiertas y enviar varias peticiones sin esperar (las respuestas pueden llegar en otro
+ * orden). Sin "req_id" se atiende en orden, como antes.
  */
 public class ProxyListener implements Runnable {
     private final int port;
-    private final Server server; // referencia al Server para acceder a maps y historyManager
+    private final Server server; // referencia al Server para acceder al núcleo de chat y métricas
+    private final ConnectionExecutor executor;
+    private final ExecutorService requests; // peticiones con req_id
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = true;
 
     public ProxyListener(int port, Server server) {
         this.port = port;
         this.server = server;
+        this.executor = new ConnectionExecutor("proxy",
+                ServerConfig.CONNECTION_THREADS, ServerConfig.MAX_CONNECTIONS);
+        this.requests = ConnectionExecutor.newExecutor("proxy-req", ServerConfig.CONNECTION_THREADS);
     }
 
     @Override
     public void run() {
         try (ServerSocket ss = new ServerSocket(port)) {
+            serverSocket = ss;
             System.out.println("ProxyListener escuchando en puerto " + port);
-            while (true) {
+            while (running) {
                 Socket s = ss.accept();
-                new Thread(() -> handleConnection(s)).start();
+                executor.submit(s, () -> handleConnection(s));
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            if (running) e.printStackTrace();
         }
     }
 
-    private void handleConnection(Socket s) {
+    public void shutdown(long drainTimeoutMs) {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {}
+        executor.shutdown(drainTimeoutMs);
+        requests.shutdown();
+    }
+
+    public ConnectionExecutor getExecutor() {
+        return executor;
+    }
+
+    void handleConnection(Socket s) {
+        int maxInFlight = ServerConfig.PROXY_MAX_IN_FLIGHT;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ReentrantLock writeLock = new ReentrantLock(); // una respuesta completa a la vez
+
         try (BufferedReader br = new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8"));
-             PrintWriter pw = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), "UTF-8"), true)) {
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), "UTF-8"), 16 * 1024)) {
 
             String line;
             while ((line = br.readLine()) != null) {
+                JSONObject req;
                 try {
-                    JSONObject req = new JSONObject(line);
-                    JSONObject resp = processRequest(req);
-                    pw.println(resp.toString());
+                    req = new JSONObject(line);
                 } catch (Exception ex) {
-                    JSONObject err = new JSONObject();
-                    err.put("status", "error");
-                    err.put("message", ex.getMessage());
-                    pw.println(err.toString());
+                    writeResponse(out, writeLock, error(ex.getMessage()));
+                    continue;
+                }
+
+                Object reqId = req.opt("req_id");
+                if (reqId == null) {
+                    handleRequest(req, null, out, writeLock);
+                    continue;
+                }
+
+                // Con req_id se atiende en paralelo; el semáforo limita cuántas hay en curso
+                inFlight.acquire();
+                try {
+                    requests.execute(() -> {
+                        try {
+                            handleRequest(req, reqId, out, writeLock);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    handleRequest(req, reqId, out, writeLock);
                 }
             }
+
+            // El cliente cerró su lado: terminar las respuestas pendientes antes de cerrar
+            inFlight.tryAcquire(maxInFlight, ServerConfig.DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             // conexión cerrada o error
         }
     }
 
+    private void handleRequest(JSONObject req, Object reqId, Writer out, ReentrantLock writeLock) {
+        // El historial se escribe fila por fila; el lock solo se toma para volcar la
+        // respuesta, o desde que pasa el límite del buffer (ver ResponseWriter)
+        ResponseWriter response = new ResponseWriter(out, writeLock, ServerConfig.PROXY_STREAM_BUFFER_KIB * 1024);
+        try {
+            try (response) {
+                if (streamRequest(req, reqId, response)) {
+                    response.complete();
+                    return;
+                }
+            }
+
+            JSONObject resp = processRequest(req);
+            if (reqId != null) resp.put("req_id", reqId);
+            writeResponse(out, writeLock, resp);
+        } catch (Exception ex) {
+            // Si ya salió parte de la respuesta, ResponseWriter cerró la conexión: una línea de
+            // error detrás de la mitad de otra no se podría leer
+            if (response.isSent()) return;
+            JSONObject err = error(ex.getMessage());
+            if (reqId != null) err.put("req_id", reqId);
+            try {
+                writeResponse(out, writeLock, err);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static void writeResponse(Writer out, ReentrantLock writeLock, JSONObject resp) throws IOException {
+        String line = resp.toString();
+        writeLock.lock();
+        try {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Respuesta de historial en curso. Se arma en memoria sin el lock de la conexión, así
+     * la consulta (y la espera por una conexión de lectura) no frena las respuestas de las
+     * otras peticiones; {@link #complete()} la escribe de una vez. Si pasa {@code limit}
+     * caracteres toma el lock, escribe lo acumulado y sigue directo al socket: una página
+     * enorme no ocupa memoria sin tope. {@link #close()} suelta el lock si lo tomó; si la
+     * respuesta quedó a medio enviar (falló antes de {@link #complete()}) cierra además la
+     * conexión, porque la línea ya no se puede terminar.
+     */
+    static final class ResponseWriter extends Writer {
+        private final Writer out;
+        private final ReentrantLock writeLock;
+        private final int limit;
+        private final StringBuilder buffer = new StringBuilder(1024);
+        private boolean direct;    // con el lock tomado, escribiendo en out
+        private boolean sent;      // ya se escribió algo en out
+        private boolean completed;
+
+        ResponseWriter(Writer out, ReentrantLock writeLock, int limit) {
+            this.out = out;
+            this.writeLock = writeLock;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (!direct && !fits(len)) spill();
+            if (direct) out.write(cbuf, off, len);
+            else buffer.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            if (!direct && !fits(len)) spill();
+            if (direct) out.write(str, off, len);
+            else buffer.append(str, off, off + len);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (!direct && !fits(1)) spill();
+            if (direct) out.write(c);
+            else buffer.append((char) c);
+        }
+
+        /** Mientras se arma en memoria no hay nada que enviar: se envía en {@link #complete()}. */
+        @Override
+        public void flush() throws IOException {
+            if (direct) out.flush();
+        }
+
+        /** Escribe lo que quede y lo envía. */
+        void complete() throws IOException {
+            if (!direct) spill();
+            out.flush();
+            completed = true;
+        }
+
+        /** true si parte de la respuesta ya salió hacia el cliente. */
+        boolean isSent() {
+            return sent;
+        }
+
+        @Override
+        public void close() {
+            if (!direct) return;
+            try {
+                // Antes de soltar el lock: ninguna otra respuesta debe escribirse detrás
+                if (!completed) out.close();
+            } catch (IOException ignored) {
+            } finally {
+                direct = false;
+                writeLock.unlock();
+            }
+        }
+
+        private boolean fits(int len) {
+            return buffer.length() + len <= limit;
+        }
+
+        private void spill() throws IOException {
+            writeLock.lock();
+            direct = true;
+            sent = true;
+            out.append(buffer);
+            buffer.setLength(0);
+        }
+    }
+
+    private static JSONObject error(String message) {
+        return new JSONObject().put("status", "error").put("message", String.valueOf(message));
+    }
+
+    /**
+     * Atiende las acciones de historial escribiendo la respuesta mientras se lee la base.
+     * Devuelve false si la acción no es de historial.
+     */
+    private boolean streamRequest(JSONObject req, Object reqId, Writer out) throws IOException {
+        String action = req.optString("action", "");
+        if (!action.equals("fetch_history") && !action.equals("sync_history")) return false;
+
+        String username = req.optString("username", null);
+        String chatTarget = req.optString("recipient", null);
+        if (username == null || chatTarget == null) {
+            JSONObject err = error("username and recipient required");
+            if (reqId != null) err.put("req_id", reqId);
+            out.write(err + "\n");
+            out.flush();
+            return true;
+        }
+        server.getPresence().touch(username);
+
+        if (action.equals("fetch_history")) {
+            HistoryCursor before = HistoryCursor.parse(req.optString("before", null));
+            HistoryCursor after = HistoryCursor.parse(req.optString("after", null));
+            int limit = Math.max(1, Math.min(req.optInt("limit", ServerConfig.HISTORY_PAGE_SIZE),
+                                             ServerConfig.HISTORY_MAX_PAGE_SIZE));
+
+            HistoryJsonStream stream = new HistoryJsonStream(out, reqId);
+            HistoryCursor[] bounds = new HistoryCursor[2]; // primero y último de la página
+            long since;
+            try {
+                // La marca se lee antes de la página: lo que se guarde entre ambas lecturas
+                // puede repetirse en la siguiente sincronización, pero no perderse
+                since = server.getCore().historySequence();
+                server.getCore().fetchHistory(username, chatTarget, before, after, limit, rs -> {
+                    stream.row(rs);
+                    bounds[1] = new HistoryCursor(rs.getLong("timestamp"), rs.getString("id"));
+                    if (bounds[0] == null) bounds[0] = bounds[1];
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (Exception e) {
+                e.printStackTrace();
+                stream.fail(e.getMessage());
+                return true;
+            }
+            HistoryCursor first = bounds[0], last = bounds[1];
+
+            // prev_cursor: para pedir la página anterior (before); next_cursor: para pedir lo nuevo (after).
+            // has_more indica si puede haber más páginas hacia el sentido pedido.
+            // since: marca para pedir solo lo nuevo con sync_history
+            JSONObject trailer = new JSONObject()
+                .put("has_more", stream.count() == limit).put("since", since);
+            if (first != null) trailer.put("prev_cursor", first.toString());
+            else if (before != null) trailer.put("prev_cursor", before.toString());
+            if (last != null) trailer.put("next_cursor", last.toString());
+            else if (after != null) trailer.put("next_cursor", after.toString());
+            stream.finish(trailer);
+        } else {
+            long since = req.optLong("since", 0);
+            int limit = Math.max(1, Math.min(req.optInt("limit", ServerConfig.HISTORY_MAX_PAGE_SIZE),
+                                             ServerConfig.HISTORY_MAX_PAGE_SIZE));
+
+            HistoryJsonStream stream = new HistoryJsonStream(out, reqId);
+            long[] last = { since };
+            try {
+                server.getCore().fetchHistorySince(username, chatTarget, since, limit, rs -> {
+                    stream.row(rs);
+                    last[0] = rs.getLong("seq");
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (Exception e) {
+                e.printStackTrace();
+                stream.fail(e.getMessage());
+                return true;
+            }
+
+            // has_more: la página se llenó y hay que volver a pedir desde "since"
+            stream.finish(new JSONObject().put("since", last[0]).put("has_more", stream.count() == limit));
+        }
+        return true;
+    }
+
     private JSONObject processRequest(JSONObject req) {
         String action = req.optString("action", "");
         JSONObject res = new JSONObject();
         switch (action) {
             case "create_group": {
                 String group = req.getString("group");
-                server.createGroupFromProxy(group);
+                server.getCore().createGroup(group);
                 res.put("status", "ok");
                 break;
             }
@@ -78,7 +348,10 @@ public class ProxyListener implements Runnable {
                 if (group == null || username == null) {
                     return new JSONObject().put("status","error").put("message","username and group required");
                 }
-                server.joinGroupFromProxy(username, group);
+                ChatCore core = server.getCore();
+                core.registerUser(username);
+                core.createGroup(group);
+                core.joinGroup(username, group);
                 return new JSONObject().put("status","ok");
             }
 
@@ -89,7 +362,10 @@ public class ProxyListener implements Runnable {
                 if (sender == null || recipient == null || text == null) {
                     return new JSONObject().put("status","error").put("message","username, recipient and text required");
                 }
-                server.handleProxySendText(sender, recipient, text);
+                server.getPresence().touch(sender);
+                // El navegador vuelve a leer el historial al terminar el envío: se responde
+                // cuando el mensaje ya está guardado
+                server.getCore().sendText(sender, recipient, text).join();
                 return new JSONObject().put("status","ok");
             }
 
@@ -99,41 +375,18 @@ public class ProxyListener implements Runnable {
                 if (sender == null || recipient == null) {
                     return new JSONObject().put("status","error").put("message","username and recipient required");
                 }
-                server.deleteChatFromProxy(sender, recipient);
+                server.getCore().deleteConversation(sender, recipient);
                 return new JSONObject().put("status","ok").put("message","conversation deleted");
             }
 
 
-            case "fetch_history": {
-                String username = req.optString("username", null);
-                String chatTarget = req.optString("recipient", null);
-                if (username == null || chatTarget == null) {
-                    return new JSONObject().put("status","error").put("message","username and recipient required");
-                }
-                JSONArray arr = new JSONArray();
-                try (ResultSet rs = server.fetchHistoryForRecipient(username, chatTarget)) {
-                    while (rs.next()) {
-                        JSONObject m = new JSONObject();
-                        m.put("id", rs.getString("id"));
-                        m.put("type", rs.getString("type"));
-                        m.put("sender", rs.getString("sender"));
-                        m.put("recipient", rs.getString("recipient"));
-                        m.put("text_content", rs.getString("text_content"));
-                        m.put("file_path", rs.getString("file_path"));
-                        m.put("timestamp", rs.getLong("timestamp"));
-                        arr.put(m);
-                    }
-                } catch (Exception e) { e.printStackTrace(); }
-                return new JSONObject().put("status","ok").put("messages", arr);
-            }
-
             case "list_groups": {
                 String username = req.optString("username", null);
                 if (username == null) {
                     return new JSONObject().put("status","error").put("message","username required");
                 }
                 JSONArray arr = new JSONArray();
-                for (String gname : server.listGroupsForUserFromDb(username)) {
+                for (String gname : server.getCore().listGroupsForUser(username)) {
                     arr.put(gname);
                 }
                 return new JSONObject().put("status","ok").put("groups", arr);
@@ -144,16 +397,81 @@ public class ProxyListener implements Runnable {
                 if (username == null) {
                     return new JSONObject().put("status","error").put("message","username required");
                 }
-                server.registerUserIfNotExists(username);
+                server.getCore().registerUser(username);
+                server.getPresence().touch(username);
                 return new JSONObject().put("status","ok");
             }
 
+            case "logout": {
+                String username = req.optString("username", null);
+                if (username == null) {
+                    return new JSONObject().put("status","error").put("message","username required");
+                }
+                server.getPresence().expire(username);
+                return new JSONObject().put("status","ok");
+            }
+
+
+            case "server_stats": {
+                JSONArray arr = new JSONArray();
+                arr.put(executorStats(executor));
+                ConnectionExecutor clientExec = server.getClientExecutor();
+                if (clientExec != null) arr.put(executorStats(clientExec));
+                JSONObject outbound = new JSONObject()
+                    .put("policy", ServerConfig.SLOW_CONSUMER_POLICY.name().toLowerCase())
+                    .put("capacity", ServerConfig.OUTBOUND_CAPACITY)
+                    .put("queued_now", server.totalOutboundDepth())
+                    .put("enqueued", OutboundQueue.getEnqueued())
+                    .put("dropped", OutboundQueue.getDropped())
+                    .put("spilled", OutboundQueue.getSpilled())
+                    .put("slow_disconnects", OutboundQueue.getDisconnects());
+                HistoryManager hm = server.getHistoryManager();
+                HistoryWriter writer = hm.getWriter();
+                JSONObject history = new JSONObject()
+                    .put("durability", writer.isSync() ? "sync" : "async")
+                    .put("queued_now", writer.getQueued())
+                    .put("written", writer.getWritten())
+                    .put("batches", writer.getBatches())
+                    .put("failed", writer.getFailed())
+                    .put("duplicates", writer.getDuplicates())
+                    .put("readers", hm.getReaderCount())
+                    .put("idle_readers", hm.getIdleReaderCount());
+                PresenceService ps = server.getPresence();
+                JSONObject presence = new JSONObject()
+                    .put("online", ps.getOnlineCount())
+                    .put("batches", ps.getBatches())
+                    .put("published", ps.getPublished())
+                    .put("coalesced", ps.getCoalesced());
+                JSONObject ice = new JSONObject()
+                    .put("delivered", IceClient.getDelivered())
+                    .put("dropped", IceClient.getDropped())
+                    .put("evicted", IceClient.getEvicted());
+                CallRelay callRelay = server.getCallRelay();
+                JSONObject relay = new JSONObject()
+                    .put("shards", callRelay.getShardCount())
+                    .put("calls", callRelay.getCallCount())
+                    .put("received", callRelay.getReceived())
+                    .put("forwarded", callRelay.getForwarded())
+                    .put("dropped", callRelay.getDropped())
+                    .put("mix", callRelay.isMixing())
+                    .put("mixedCalls", callRelay.getMixedCalls())
+                    .put("mixedFrames", callRelay.getMixedFrames())
+                    .put("mixSent", callRelay.getMixSent());
+                IceServer iceServer = server.getIceServer();
+                if (iceServer != null) ice.put("clients", iceServer.getService().getClientCount());
+                return new JSONObject().put("status","ok").put("listeners", arr)
+                    .put("outbound", outbound).put("history", history).put("presence", presence)
+                    .put("ice", ice).put("relay", relay);
+            }
 
             case "list_users": {
                 JSONArray arr = new JSONArray();
-                for (String u : server.getUsers()) arr.put(u);
+                for (String u : server.getCore().getUsers()) arr.put(u);
+                JSONArray online = new JSONArray();
+                for (String u : server.getPresence().onlineUsers()) online.put(u);
                 res.put("status", "ok");
                 res.put("users", arr);
+                res.put("online", online);
                 break;
             }
 
@@ -165,4 +483,16 @@ public class ProxyListener implements Runnable {
         }
         return res;
     }
+
+    private static JSONObject executorStats(ConnectionExecutor ex) {
+        return new JSONObject()
+            .put("name", ex.getName())
+            .put("active", ex.getActive())
+            .put("peak", ex.getPeak())
+            .put("max", ex.getMaxConnections())
+            .put("accepted", ex.getAccepted())
+            .put("rejected", ex.getRejected())
+            .put("closed", ex.getCompleted())
+            .put("avg_session_ms", ex.getAverageSessionMillis());
+    }
 }
\ No newline at end of file
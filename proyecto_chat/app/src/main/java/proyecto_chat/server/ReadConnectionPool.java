@@ -0,0 +1,68 @@
+package proyecto_chat.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Conexiones de solo lectura a la base de historial. Con WAL cada una lee una foto
+ * consistente sin bloquear al escritor ni ser bloqueada por él, así las consultas del
+ * proxy y de ICE no esperan a que termine un lote de inserciones.
+ */
+final class ReadConnectionPool {
+
+    /** Trabajo que usa una conexión prestada del pool. */
+    interface Work<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> all = new ArrayList<>();
+
+    ReadConnectionPool(String url, int size) throws SQLException {
+        idle = new ArrayBlockingQueue<>(size);
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        for (int i = 0; i < size; i++) {
+            Connection c = DriverManager.getConnection(url, config.toProperties());
+            DatabaseSchema.configureReader(c);
+            all.add(c);
+            idle.add(c);
+        }
+    }
+
+    /** Presta una conexión mientras dura {@code work}; si no hay libres espera. */
+    <T> T withConnection(Work<T> work) throws SQLException {
+        Connection c;
+        try {
+            c = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrumpido esperando una conexión de lectura", e);
+        }
+        try {
+            return work.run(c);
+        } finally {
+            idle.add(c);
+        }
+    }
+
+    int size() {
+        return all.size();
+    }
+
+    int idleCount() {
+        return idle.size();
+    }
+
+    void close() {
+        for (Connection c : all) {
+            try { c.close(); } catch (SQLException ignored) {}
+        }
+    }
+}
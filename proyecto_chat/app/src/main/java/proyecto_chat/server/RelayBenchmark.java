@@ -0,0 +1,162 @@
+package proyecto_chat.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import proyecto_chat.common.AudioCodecs;
+import proyecto_chat.common.RelayProtocol;
+
+/**
+ * Memoria que asigna el relay por paquete (tarea {@code runRelayBench}). Levanta un
+ * {@link CallRelay} local, registra varias llamadas y un hilo les envía audio tan rápido
+ * como puede. Mide los paquetes que recibe el relay por segundo, los que envía y los bytes
+ * que asignan sus hilos (recepción y mezcla, con el contador de asignación de cada hilo)
+ * por paquete recibido. Casos: versión 1, versión 2 con reenvío, versión 2 con mezcla
+ * (llamadas de tres) y un único remitente. Con varios remitentes intercalados queda la
+ * dirección de origen que arma {@code DatagramChannel.receive} cuando el remitente cambia
+ * respecto del paquete anterior (unos 128 bytes); con uno solo el JDK la reutiliza.
+ *
+ * Propiedades: {@code chat.bench.millis} (duración de cada caso, 3000), {@code chat.bench.calls}
+ * (llamadas, 20) y {@code chat.bench.port} (10200).
+ */
+public class RelayBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_BYTES = 640; // 20 ms de PCM de 16 bits
+    private static final long WARMUP_MILLIS = 1000;
+
+    private static volatile boolean sending;
+
+    public static void main(String[] args) throws Exception {
+        long millis = Long.getLong("chat.bench.millis", 3000L);
+        int calls = Integer.getInteger("chat.bench.calls", 20);
+        int port = Integer.getInteger("chat.bench.port", 10200);
+
+        System.out.println("Relay con " + calls + " llamadas (" + millis + " ms por caso):");
+        System.out.printf("  %-16s %14s %14s %16s%n", "caso", "recibidos/s", "enviados/s", "bytes asig./paq.");
+        run("v1, reenvío", 1, false, 2, calls, false, port, millis);
+        run("v2, reenvío", 2, false, 2, calls, false, port, millis);
+        run("v2, mezcla", 2, true, AudioMixer.MIN_PARTICIPANTS, calls, false, port, millis);
+        run("v2, 1 remitente", 2, false, 2, 1, true, port, millis);
+        System.exit(0);
+    }
+
+    private static void run(String name, int version, boolean mix, int members, int calls, boolean oneSender,
+                            int port, long millis) throws Exception {
+        CallRelay relay = new CallRelay(port, 1, mix);
+        Thread relayThread = new Thread(relay, "relay-bench");
+        relayThread.setDaemon(true);
+        relayThread.start();
+
+        InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        List<DatagramChannel> clients = new ArrayList<>();
+        List<ByteBuffer> packets = new ArrayList<>();
+        Thread sender = null;
+        try {
+            Random random = new Random(7);
+            for (int c = 0; c < calls; c++) {
+                String callId = "bench-" + c;
+                for (int m = 0; m < members; m++) {
+                    DatagramChannel ch = DatagramChannel.open();
+                    clients.add(ch);
+                    ch.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                    ch.connect(target);
+                    packets.add(version == 1 ? registerV1(ch, callId, random) : registerV2(ch, callId, random));
+                }
+            }
+
+            sending = true;
+            int senders = oneSender ? 1 : clients.size();
+            sender = new Thread(() -> send(clients.subList(0, senders), packets), "relay-bench-envío");
+            sender.setDaemon(true);
+            sender.start();
+            Thread.sleep(WARMUP_MILLIS);
+
+            long received = relay.getReceived();
+            long sent = relay.getForwarded() + relay.getMixSent();
+            long allocated = relayAllocatedBytes();
+            long start = System.nanoTime();
+            Thread.sleep(millis);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated = relayAllocatedBytes() - allocated;
+            received = relay.getReceived() - received;
+            sent = relay.getForwarded() + relay.getMixSent() - sent;
+
+            System.out.printf("  %-16s %14.0f %14.0f %16.2f%n", name, received / seconds, sent / seconds,
+                    received == 0 ? 0.0 : allocated / (double) received);
+        } finally {
+            sending = false;
+            if (sender != null) sender.join();
+            relay.close();
+            relayThread.join(1000);
+            for (DatagramChannel ch : clients) ch.close();
+        }
+    }
+
+    // Versión 1: el registro es el callId sin payload y el audio va detrás del callId
+    private static ByteBuffer registerV1(DatagramChannel ch, String callId, Random random) throws Exception {
+        byte[] id = callId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer register = ByteBuffer.allocate(4 + id.length).putInt(id.length).put(id).flip();
+        ch.write(register);
+        byte[] audio = new byte[4 + id.length + FRAME_BYTES];
+        ByteBuffer.wrap(audio).putInt(id.length).put(id);
+        fillAudio(audio, 4 + id.length, random);
+        return ByteBuffer.wrap(audio);
+    }
+
+    // Versión 2: REGISTER con codec y frecuencia, espera el ACK con el token
+    private static ByteBuffer registerV2(DatagramChannel ch, String callId, Random random) throws Exception {
+        ch.write(ByteBuffer.wrap(RelayProtocol.register(callId, AudioCodecs.PCM, SAMPLE_RATE)));
+        ByteBuffer ack = ByteBuffer.allocate(64);
+        ch.read(ack);
+        int token = ack.getInt(2);
+        byte[] audio = new byte[RelayProtocol.AUDIO_HEADER + FRAME_BYTES];
+        RelayProtocol.writeHeader(audio, RelayProtocol.AUDIO, token);
+        RelayProtocol.writeSequence(audio, 0, 0);
+        fillAudio(audio, RelayProtocol.AUDIO_HEADER, random);
+        return ByteBuffer.wrap(audio);
+    }
+
+    // Ruido bajo: la mezcla lo decodifica y lo suma como si fuera voz
+    private static void fillAudio(byte[] audio, int offset, Random random) {
+        for (int i = offset; i + 1 < audio.length; i += 2) {
+            int v = random.nextInt(2000) - 1000;
+            audio[i] = (byte) v;
+            audio[i + 1] = (byte) (v >> 8);
+        }
+    }
+
+    private static void send(List<DatagramChannel> clients, List<ByteBuffer> packets) {
+        try {
+            while (sending) {
+                for (int i = 0; i < clients.size(); i++) {
+                    ByteBuffer p = packets.get(i);
+                    p.rewind();
+                    clients.get(i).write(p);
+                }
+            }
+        } catch (Exception e) {
+            if (sending) e.printStackTrace();
+        }
+    }
+
+    // Bytes asignados por los hilos del relay: el de recepción y el de la mezcla
+    private static long relayAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info == null) continue;
+            String name = info.getThreadName();
+            if (name.equals("relay-bench") || name.equals("relay-mezcla")) {
+                total += threads.getThreadAllocatedBytes(info.getThreadId());
+            }
+        }
+        return total;
+    }
+}
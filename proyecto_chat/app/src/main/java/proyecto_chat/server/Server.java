@@ -3,19 +3,20 @@ package proyecto_chat.server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.sql.PreparedStatement;
-import java.sql.*;
-import java.util.concurrent.*;
-import java.util.Set;
-import java.util.UUID;
 
 public class Server implements Runnable {
     private int port;
-    private ConcurrentHashMap<String, ClientHandler> clients = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, Set<String>> groups = new ConcurrentHashMap<>();
-    private Set<String> users = ConcurrentHashMap.newKeySet(); 
+    private final GroupMembership membership = new GroupMembership(); // sesiones y grupos en memoria
     private HistoryManager historyManager;
+    private ChatCore core; // lógica común a TCP, proxy e ICE
+    private PresenceService presence;
+    private IceServer iceServer; // ICE/WebSocket en el mismo proceso
     private CallRelay callRelay;
+    private ProxyListener proxyListener;
+    private ServerSocket serverSocket;
+    private ConnectionExecutor clientExecutor;
+    private NioTransport nioTransport;
+    private volatile boolean running = true;
 
     public Server(int port) {
         this.port = port;
@@ -25,60 +26,11 @@ public class Server implements Runnable {
         new Thread(this).start();
     }
 
-    public void registerUserIfNotExists(String username) {
-        if (username == null || username.isBlank()) return;
-
-        users.add(username);
-
-        try (PreparedStatement ps = historyManager.getConnection()
-            .prepareStatement("INSERT OR IGNORE INTO users(username) VALUES(?)")) {
-            ps.setString(1, username);
-            ps.executeUpdate();
-        } catch (Exception ignored) {}
-    }
-
-
-
-    public Set<String> getUsers() {
-        return users;
-    }
-
-    public Set<String> listGroupsForUserFromDb(String username) {
-        Set<String> out = ConcurrentHashMap.newKeySet();
-        try (PreparedStatement ps = historyManager.getConnection()
-                .prepareStatement("SELECT group_name FROM group_members WHERE username = ?")) {
-            ps.setString(1, username);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) out.add(rs.getString("group_name"));
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return out;
-    }
-
-    private void hydrateGroupsFromDb() {
-        try (PreparedStatement ps = historyManager.getConnection()
-                .prepareStatement("SELECT group_name, username FROM group_members");
-            ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                String g = rs.getString("group_name");
-                String u = rs.getString("username");
-                groups.putIfAbsent(g, java.util.concurrent.ConcurrentHashMap.newKeySet());
-                groups.get(g).add(u);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-
     @Override
     public void run() {
         System.out.println("Servidor de chat iniciado en el puerto " + port);
         try {
-            historyManager = new HistoryManager();
-            hydrateGroupsFromDb();
+            open(HistoryManager.open());
         } catch (Exception e) {
             System.err.println("No se pudo iniciar HistoryManager: " + e.getMessage());
             return;
@@ -101,124 +53,113 @@ public class Server implements Runnable {
          */
         
 
-        try (var rs = historyManager.fetchAllUsersEver()) {
-            while (rs.next()) {
-                users.add(rs.getString("sender"));
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-
 
         // Relay UDP para llamadas
-        callRelay = new CallRelay(10000);
+        callRelay = new CallRelay(10000, ServerConfig.RELAY_SHARDS, ServerConfig.RELAY_MIX);
         new Thread(callRelay).start();
 
+        if (ServerConfig.ICE_ENABLED) {
+            try {
+                iceServer = IceServer.start(new String[0], ServerConfig.ICE_ENDPOINTS, core, presence);
+            } catch (Exception e) {
+                System.err.println("No se pudo iniciar el servicio ICE: " + e.getMessage());
+            }
+        }
+
         int proxyPort = 10001;
-        ProxyListener proxyListener = new ProxyListener(proxyPort, this);
+        proxyListener = new ProxyListener(proxyPort, this);
         new Thread(proxyListener).start();
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
+        if ("nio".equalsIgnoreCase(ServerConfig.TRANSPORT)) {
+            try {
+                nioTransport = new NioTransport(port, ServerConfig.NIO_LOOPS,
+                        core, presence, callRelay);
+                nioTransport.run();
+            } catch (IOException e) {
+                System.err.println("Error en el servidor: " + e.getMessage());
+            }
+            return;
+        }
+
+        clientExecutor = new ConnectionExecutor("cliente",
+                ServerConfig.CONNECTION_THREADS, ServerConfig.MAX_CONNECTIONS);
+
+        try (ServerSocket ss = new ServerSocket(port)) {
+            serverSocket = ss;
+            while (running) {
+                Socket clientSocket = ss.accept();
                 //System.out.println("Nuevo cliente conectado: " + clientSocket);
                 ClientHandler clientHandler =
-                        new ClientHandler(clientSocket, clients, groups, historyManager, callRelay);
-                new Thread(clientHandler).start();
+                        new ClientHandler(clientSocket, core, presence, callRelay);
+                clientExecutor.submit(clientSocket, clientHandler);
             }
         } catch (IOException e) {
-            System.err.println("Error en el servidor: " + e.getMessage());
+            if (running) System.err.println("Error en el servidor: " + e.getMessage());
         }
     }
 
-    public static void main(String[] args) {
-        new Server(9090).start();
+    /** Carga el núcleo de chat (usuarios, grupos y presencia) sobre el historial ya abierto. */
+    void open(HistoryManager history) {
+        historyManager = history;
+        core = new ChatCore(membership, history);
+        core.load();
+        presence = new PresenceService(membership, ServerConfig.PRESENCE_FLUSH_MS, ServerConfig.PRESENCE_LEASE_MS);
     }
 
-    public void createGroupFromProxy(String groupName) {
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
-
-        historyManager.insertGroup(groupName);
-
-        //System.out.println("Grupo creado: " + groupName);
+    /**
+     * Apagado ordenado: deja de aceptar conexiones, drena las abiertas
+     * (clientes TCP y conexiones del proxy) y guarda el historial pendiente.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {}
+
+        if (nioTransport != null) nioTransport.shutdown();
+        if (proxyListener != null) proxyListener.shutdown(ServerConfig.DRAIN_TIMEOUT_MS);
+        if (clientExecutor != null) clientExecutor.shutdown(ServerConfig.DRAIN_TIMEOUT_MS);
+        if (iceServer != null) iceServer.shutdown();
+        if (presence != null) presence.shutdown();
+        if (callRelay != null) callRelay.close();
+
+        // Al final, para guardar también lo que llegó durante el drenado
+        if (historyManager != null) historyManager.close();
     }
 
-
-    public void joinGroupFromProxy(String username, String groupName) {
-        registerUserIfNotExists(username);
-        createGroupFromProxy(groupName);
-
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
-        groups.get(groupName).add(username);
-
-        historyManager.insertGroupMember(groupName, username);
-
-        //System.out.println(username + " se unió al grupo: " + groupName);
+    public CallRelay getCallRelay() {
+        return callRelay;
     }
 
-
-
-    public void handleProxySendText(String sender, String recipient, String text) {
-
-        registerUserIfNotExists(sender);
-        if (!groups.containsKey(recipient)) {
-            registerUserIfNotExists(recipient);
-        }
-
-        
-
-
-        // Guardar en historial
-        boolean isGroup = groups.containsKey(recipient);
-        historyManager.saveTextMessage(
-            UUID.randomUUID().toString(), sender, recipient, isGroup, text, System.currentTimeMillis()
-        );
-
-
-        // Si es grupo -> reenviar a miembros (si hay handlers conectados en 'clients')
-        if (groups.containsKey(recipient)) {
-            for (String member : groups.get(recipient)) {
-                if (!member.equals(sender) && clients.containsKey(member)) {
-                    // Creamos un Message y lo enviamos por sendMessage
-                    proyecto_chat.common.Message msg =
-                        new proyecto_chat.common.Message(proyecto_chat.common.Message.MessageType.TEXT, sender, recipient, text);
-                    clients.get(member).sendMessage(msg);
-                }
-            }
-        } else if (clients.containsKey(recipient)) {
-            proyecto_chat.common.Message msg =
-                new proyecto_chat.common.Message(proyecto_chat.common.Message.MessageType.TEXT, sender, recipient, text);
-            clients.get(recipient).sendMessage(msg);
-        }
-
-        /* DEBUG
-        System.out.println(">> Nuevo mensaje recibido:");
-        System.out.println("   De: " + sender);
-        System.out.println("   Para: " + recipient);
-        System.out.println("   Texto: " + text);
-        System.out.println(">> Guardada visibilidad para: " + sender + " y " + recipient);
-        System.out.println(historyManager.pStringHey());
-        */
+    public IceServer getIceServer() {
+        return iceServer;
     }
 
-    public ResultSet fetchHistoryForRecipient(String username, String chatTarget) throws SQLException {
-        return this.historyManager.fetchHistory(username, chatTarget);
+    public PresenceService getPresence() {
+        return presence;
     }
 
+    public ChatCore getCore() {
+        return core;
+    }
 
-    public void deleteChatFromProxy(String user, String other) {
-        try {
-            historyManager.deleteConversation(user, other);
-            //System.out.println(">> Conversación eliminada entre " + user + " y " + other);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    public HistoryManager getHistoryManager() {
+        return historyManager;
     }
 
-    public ConcurrentHashMap<String, Set<String>> getGroups() {
-        return groups;
+    public int totalOutboundDepth() {
+        int total = 0;
+        for (ClientHandler h : membership.sessions()) total += h.getOutboundDepth();
+        return total;
     }
 
+    public ConnectionExecutor getClientExecutor() {
+        return clientExecutor;
+    }
 
-}
\ No newline at end of file
+    public static void main(String[] args) {
+        Server server = new Server(9090);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+        server.start();
+    }
+}
@@ -0,0 +1,103 @@
+package proyecto_chat.server;
+
+/**
+ * Parámetros de arranque del servidor. Se leen de propiedades del sistema
+ * (por ejemplo {@code -Dchat.connection.threads=platform}) con valores por defecto
+ * pensados para una sola máquina.
+ */
+final class ServerConfig {
+    private ServerConfig() {}
+
+    // Modelo de hilos por conexión: "virtual" (JDK 21) o "platform"
+    static final String CONNECTION_THREADS = System.getProperty("chat.connection.threads", "virtual");
+
+    // Máximo de conexiones simultáneas admitidas por cada listener (control de admisión)
+    static final int MAX_CONNECTIONS = Integer.getInteger("chat.connection.max", 50_000);
+
+    // Tiempo máximo para drenar conexiones abiertas al apagar el servidor
+    static final long DRAIN_TIMEOUT_MS = Long.getLong("chat.shutdown.drainMillis", 5_000L);
+
+    // Transporte de los clientes TCP: "blocking" (un hilo por cliente) o "nio" (selectores)
+    static final String TRANSPORT = System.getProperty("chat.transport", "blocking");
+
+    // Número de event loops del transporte NIO
+    static final int NIO_LOOPS = Integer.getInteger("chat.nio.loops",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    // Bytes pendientes de escritura a partir de los cuales se deja de leer de ese cliente
+    static final int NIO_HIGH_WATERMARK = Integer.getInteger("chat.nio.highWatermark", 1024 * 1024);
+
+    // Bytes pendientes a partir de los cuales se cierra la conexión (cliente lento)
+    static final int NIO_MAX_PENDING_BYTES = Integer.getInteger("chat.nio.maxPendingBytes", 8 * 1024 * 1024);
+
+    // Mensajes que caben en la cola de salida de cada cliente
+    static final int OUTBOUND_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+
+    // Qué hacer con un cliente lento: drop_oldest, disconnect o spill (queda en el historial)
+    static final SlowConsumerPolicy SLOW_CONSUMER_POLICY =
+            SlowConsumerPolicy.parse(System.getProperty("chat.outbound.policy", "drop_oldest"));
+
+    // Escritura diferida del historial: capacidad del buffer, tamaño máximo de lote y espera por lote
+    static final int HISTORY_QUEUE_CAPACITY = Integer.getInteger("chat.history.queueCapacity", 65_536);
+    static final int HISTORY_BATCH_SIZE = Integer.getInteger("chat.history.batchSize", 256);
+    static final long HISTORY_LINGER_MS = Long.getLong("chat.history.lingerMillis", 5L);
+
+    // "async": se entrega sin esperar a SQLite; "sync": el remitente espera a que su lote se confirme
+    static final String HISTORY_DURABILITY = System.getProperty("chat.history.durability", "async");
+
+    // Servicio ICE (WebSocket) dentro del mismo proceso que el servidor TCP
+    static final boolean ICE_ENABLED = Boolean.parseBoolean(System.getProperty("chat.ice.enabled", "true"));
+    static final String ICE_ENDPOINTS = System.getProperty("chat.ice.endpoints", "ws -h 127.0.0.1 -p 12000");
+
+    // Avisos onNewMessage sin confirmar por cliente ICE y espera máxima de cada uno
+    static final int ICE_MAX_IN_FLIGHT = Integer.getInteger("chat.ice.maxInFlight", 32);
+    static final long ICE_CALLBACK_TIMEOUT_MS = Long.getLong("chat.ice.callbackTimeoutMillis", 5_000L);
+
+    // Entrega de mensajes a clientes ICE: "twoway" (un onNewMessage por mensaje) o "batch"
+    // (onNewMessages oneway cada batchFlushMillis o al juntar batchSize mensajes)
+    static final String ICE_DELIVERY = System.getProperty("chat.ice.delivery", "twoway");
+    static final int ICE_BATCH_SIZE = Integer.getInteger("chat.ice.batchSize", 64);
+    static final long ICE_BATCH_FLUSH_MS = Long.getLong("chat.ice.batchFlushMillis", 10L);
+
+    // Presencia: cada cuánto se publica un lote de cambios y cuánto dura en línea un usuario web sin peticiones
+    static final long PRESENCE_FLUSH_MS = Long.getLong("chat.presence.flushMillis", 250L);
+    static final long PRESENCE_LEASE_MS = Long.getLong("chat.presence.leaseMillis", 15_000L);
+
+    // Shards del relay UDP de llamadas: cada llamada la procesa uno, según el hash del callId
+    static final int RELAY_SHARDS = Integer.getInteger("chat.relay.shards",
+            Runtime.getRuntime().availableProcessors());
+
+    // Mezcla en el relay de las llamadas de 3 o más participantes (una sola corriente por participante)
+    static final boolean RELAY_MIX = Boolean.parseBoolean(System.getProperty("chat.relay.mix", "false"));
+
+    // Peticiones con req_id en curso por cada conexión del proxy
+    static final int PROXY_MAX_IN_FLIGHT = Integer.getInteger("chat.proxy.maxInFlight", 64);
+
+    // Respuesta de historial que se arma en memoria antes de tomar el lock de la conexión (en KiB);
+    // las más grandes se escriben directo al socket con el lock tomado
+    static final int PROXY_STREAM_BUFFER_KIB = Integer.getInteger("chat.proxy.streamBufferKiB", 256);
+
+    // Pragmas de SQLite para la base de historial
+    static final String DB_JOURNAL_MODE = System.getProperty("chat.db.journalMode", "WAL");
+    static final String DB_SYNCHRONOUS = System.getProperty("chat.db.synchronous", "NORMAL");
+    static final int DB_CACHE_KIB = Integer.getInteger("chat.db.cacheKiB", 16 * 1024);
+    static final long DB_MMAP_BYTES = Long.getLong("chat.db.mmapBytes", 256L * 1024 * 1024);
+
+    // Conexiones de solo lectura para historial, grupos y usuarios (la escritura usa una sola conexión)
+    static final int DB_READERS = Integer.getInteger("chat.db.readers", 4);
+
+    // Tamaño de página del historial: por defecto y máximo que puede pedir un cliente
+    static final int HISTORY_PAGE_SIZE = Integer.getInteger("chat.history.pageSize", 50);
+    static final int HISTORY_MAX_PAGE_SIZE = Integer.getInteger("chat.history.maxPageSize", 500);
+
+    /** Arranca un hilo auxiliar del mismo tipo que los de conexión (virtual o de plataforma). */
+    static Thread startThread(String name, Runnable task) {
+        if ("platform".equalsIgnoreCase(CONNECTION_THREADS)) {
+            Thread t = new Thread(task, name);
+            t.setDaemon(true);
+            t.start();
+            return t;
+        }
+        return Thread.ofVirtual().name(name).start(task);
+    }
+}
@@ -0,0 +1,41 @@
+package proyecto_chat.server;
+
+/**
+ * Qué hacer cuando la cola de salida de un cliente está llena.
+ */
+public enum SlowConsumerPolicy {
+    // Se descarta el mensaje más viejo de la cola para hacer espacio
+    DROP_OLDEST,
+    // Se desconecta al cliente
+    DISCONNECT,
+    // Se descarta el mensaje nuevo de la entrega en vivo; el cliente lo recupera del historial
+    SPILL_TO_HISTORY;
+
+    static SlowConsumerPolicy parse(String value) {
+        switch (value.toLowerCase()) {
+            case "disconnect": return DISCONNECT;
+            case "spill": case "spill_to_history": return SPILL_TO_HISTORY;
+            default: return DROP_OLDEST;
+        }
+    }
+
+    /**
+     * La política para un cliente concreto: {@link #SPILL_TO_HISTORY} solo sirve si el
+     * cliente vuelve a pedir el historial. El cliente CLI no lo hace, así que para él un
+     * mensaje omitido se perdería sin aviso; se lo desconecta como con {@link #DISCONNECT}.
+     */
+    SlowConsumerPolicy forClient(boolean canResync) {
+        return this == SPILL_TO_HISTORY && !canResync ? DISCONNECT : this;
+    }
+
+    // Solo los mensajes que quedan en SQLite pueden recuperarse del historial
+    static boolean isPersisted(OutboundMessage m) {
+        switch (m.getMessage().getType()) {
+            case TEXT:
+            case VOICE_NOTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package proyecto_chat.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import proyecto_chat.common.AudioCodecs;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JitterBufferTest {
+    private static final int RATE = 16000;
+    private static final int FRAME_SAMPLES = 320; // 20 ms
+
+    // Con retraso máximo 0 la profundidad objetivo queda en 1 frame, sin depender de los tiempos de llegada
+    private static JitterBuffer fixedBuffer() {
+        return new JitterBuffer(AudioCodecs.create(AudioCodecs.PCM), RATE, 0);
+    }
+
+    // Frame PCM de dos muestras con el valor seq * 100 + 1000, para reconocerlo al reproducirlo
+    private static void put(JitterBuffer jb, int seq) {
+        short v = (short) (seq * 100 + 1000);
+        byte[] frame = { (byte) v, (byte) (v >> 8), (byte) v, (byte) (v >> 8) };
+        jb.put(frame, 0, frame.length, seq, seq * FRAME_SAMPLES);
+    }
+
+    private static int play(JitterBuffer jb) throws InterruptedException {
+        byte[] pcm = new byte[64];
+        assertEquals(4, jb.next(pcm));
+        return (short) ((pcm[0] & 0xFF) | (pcm[1] << 8));
+    }
+
+    private static int frameOf(int seq) {
+        return (short) (seq * 100 + 1000);
+    }
+
+    @Test
+    void playsInSequenceOrder() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        put(jb, 2);
+        put(jb, 1);
+        assertEquals(frameOf(0), play(jb));
+        assertEquals(frameOf(1), play(jb));
+        assertEquals(frameOf(2), play(jb));
+        assertEquals(0, jb.getDepth());
+    }
+
+    @Test
+    void dropsDuplicatesAndLatePackets() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        put(jb, 0);
+        assertEquals(1, jb.getDepth());
+        assertEquals(frameOf(0), play(jb));
+        put(jb, 0); // ya se reprodujo
+        assertEquals(0, jb.getDepth());
+        assertTrue(jb.stats().contains("duplicados=1"), jb.stats());
+        assertTrue(jb.stats().contains("tarde=1"), jb.stats());
+    }
+
+    @Test
+    void concealsALostPacketWithTheFadedLastFrame() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        assertEquals(frameOf(0), play(jb));
+        put(jb, 2);
+        // Falta el 1 y ya está el 2: se da por perdido y se repite el 0 atenuado
+        int concealed = play(jb);
+        assertTrue(concealed > 0 && concealed < frameOf(0), "ocultado " + concealed);
+        assertEquals(frameOf(2), play(jb));
+        assertTrue(jb.stats().contains("perdidos=1"), jb.stats());
+        assertTrue(jb.stats().contains("ocultados=1"), jb.stats());
+    }
+
+    @Test
+    void waitsForALatePacketWhileConcealing() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        play(jb);
+        // Sin nada detrás el hueco se cubre sin avanzar; si el paquete llega se reproduce
+        assertTrue(play(jb) < frameOf(0));
+        put(jb, 1);
+        assertEquals(frameOf(1), play(jb));
+        assertTrue(jb.stats().contains("perdidos=0"), jb.stats());
+    }
+
+    @Test
+    void underrunWaitsUntilRefilled() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        play(jb);
+        for (int i = 0; i < 3; i++) play(jb); // ocultados
+
+        AtomicInteger played = new AtomicInteger(Integer.MIN_VALUE);
+        Thread player = new Thread(() -> {
+            try {
+                played.set(play(jb));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        player.start();
+        player.join(200);
+        assertTrue(player.isAlive(), "debería esperar a que lleguen paquetes");
+
+        put(jb, 1);
+        player.join(2000);
+        assertFalse(player.isAlive());
+        assertEquals(frameOf(1), played.get());
+        assertTrue(jb.stats().contains("vacíos=1"), jb.stats());
+    }
+
+    @Test
+    void trimsExcessDepth() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        for (int seq = 0; seq < 5; seq++) put(jb, seq);
+        // Objetivo 1 más el margen de 2: se descartan los dos más viejos
+        assertEquals(frameOf(2), play(jb));
+        assertEquals(2, jb.getDepth());
+        assertTrue(jb.stats().contains("recortados=2"), jb.stats());
+    }
+
+    @Test
+    void sequenceWrapsAround() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 65534);
+        put(jb, 0);
+        put(jb, 65535);
+        assertEquals(frameOf(65534), play(jb));
+        assertEquals(frameOf(65535), play(jb));
+        assertEquals(frameOf(0), play(jb));
+    }
+
+    @Test
+    void restartsAfterALargeJump() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        put(jb, 1);
+        put(jb, 1000);
+        assertEquals(1, jb.getDepth());
+        assertEquals(frameOf(1000), play(jb));
+    }
+
+    @Test
+    void closeWakesTheReader() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        AtomicInteger result = new AtomicInteger();
+        Thread player = new Thread(() -> {
+            try {
+                result.set(jb.next(new byte[64]));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        player.start();
+        player.join(100);
+        jb.close();
+        player.join(2000);
+        assertFalse(player.isAlive());
+        assertEquals(-1, result.get());
+
+        put(jb, 0);
+        assertEquals(0, jb.getDepth());
+    }
+
+    @Test
+    void silencePlaysComfortNoiseUntilVoiceReturns() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        play(jb);
+        jb.putSilence(1, FRAME_SAMPLES, 40);
+        // -40 dBov: ruido uniforme de amplitud 32768 * 10^-2 * raíz de 3
+        for (int i = 0; i < 10; i++) {
+            assertTrue(Math.abs(play(jb)) <= 568, "ruido de confort");
+        }
+        put(jb, 2);
+        assertEquals(frameOf(2), play(jb));
+        assertTrue(jb.stats().contains("perdidos=0"), jb.stats());
+        assertTrue(jb.stats().contains("ocultados=0"), jb.stats());
+        assertTrue(jb.stats().contains("vacíos=0"), jb.stats());
+        assertTrue(jb.stats().contains("silencios=1"), jb.stats());
+    }
+
+    @Test
+    void lostFirstVoicePacketAfterSilence() throws Exception {
+        JitterBuffer jb = fixedBuffer();
+        put(jb, 0);
+        play(jb);
+        jb.putSilence(1, FRAME_SAMPLES, 60);
+        play(jb);
+        put(jb, 3);
+        // El 2 no llegó: se sigue con ruido de confort en su lugar
+        assertTrue(Math.abs(play(jb)) <= 57);
+        assertEquals(frameOf(3), play(jb));
+        assertTrue(jb.stats().contains("perdidos=1"), jb.stats());
+        assertTrue(jb.stats().contains("ocultados=0"), jb.stats());
+    }
+
+    @Test
+    void targetFollowsJitterUpToTheMaximumDelay() {
+        // Paquetes que llegan todos juntos con timestamps de 20 ms: unos 20 ms de jitter
+        JitterBuffer jb = new JitterBuffer(AudioCodecs.create(AudioCodecs.PCM), RATE, 200);
+        for (int seq = 0; seq < 40; seq++) put(jb, seq);
+        assertTrue(jb.getJitterMillis() > 10, "jitter " + jb.getJitterMillis());
+        assertTrue(jb.getTarget() >= 3 && jb.getTarget() <= 10, "objetivo " + jb.getTarget());
+
+        JitterBuffer capped = new JitterBuffer(AudioCodecs.create(AudioCodecs.PCM), RATE, 40);
+        for (int seq = 0; seq < 40; seq++) put(capped, seq);
+        assertEquals(2, capped.getTarget());
+    }
+
+    private static void put(JitterMixer m, int source, int seq, int value) {
+        short v = (short) value;
+        byte[] frame = { (byte) v, (byte) (v >> 8), (byte) v, (byte) (v >> 8) };
+        m.put(source, frame, 0, frame.length, seq, seq * FRAME_SAMPLES);
+    }
+
+    private static int play(JitterMixer m) throws InterruptedException {
+        byte[] pcm = new byte[64];
+        assertEquals(4, m.next(pcm));
+        return (short) ((pcm[0] & 0xFF) | (pcm[1] << 8));
+    }
+
+    @Test
+    void interleavedSpeakersKeepTheirOwnSequence() throws Exception {
+        // Llamada grupal reenviada sin mezclar: llegan intercaladas dos secuencias sin relación
+        JitterMixer m = new JitterMixer(AudioCodecs.create(AudioCodecs.PCM), RATE, 0);
+        for (int i = 0; i < 5; i++) {
+            put(m, 1, 100 + i, 1000 + i * 100);
+            put(m, 2, 40000 + i, 20000 + i);
+            assertEquals(21000 + i * 101, play(m));
+        }
+        assertEquals(2, m.getSourceCount());
+        for (String source : m.stats().split("; ")) {
+            assertTrue(source.contains("recibidos=5 duplicados=0 tarde=0 perdidos=0"), m.stats());
+        }
+
+        // La suma se recorta a 16 bits
+        put(m, 1, 105, 30000);
+        put(m, 2, 40005, 30000);
+        assertEquals(Short.MAX_VALUE, play(m));
+    }
+
+    @Test
+    void mixerWithASingleSourcePlaysItAsIs() throws Exception {
+        JitterMixer m = new JitterMixer(AudioCodecs.create(AudioCodecs.PCM), RATE, 0);
+        put(m, 0, 1, frameOf(1));
+        assertEquals(frameOf(1), play(m));
+        assertTrue(m.stats().startsWith("recibidos=1 "), m.stats());
+    }
+
+    @Test
+    void mixerWaitsForAudioAndWakesOnClose() throws Exception {
+        JitterMixer m = new JitterMixer(AudioCodecs.create(AudioCodecs.PCM), RATE, 0);
+        AtomicInteger got = new AtomicInteger(Integer.MIN_VALUE);
+        Thread player = new Thread(() -> {
+            try {
+                got.set(play(m));
+                byte[] pcm = new byte[64];
+                int n;
+                while ((n = m.next(pcm)) >= 0) assertEquals(4, n);
+                got.set(n);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        player.start();
+        player.join(100);
+        assertTrue(player.isAlive(), "sin audio debería esperar");
+
+        put(m, 3, 9, frameOf(9));
+        // Tras el frame oculta a lo sumo tres más y después vuelve a esperar hasta el cierre
+        player.join(100);
+        assertTrue(player.isAlive());
+        assertEquals(frameOf(9), got.get());
+        m.close();
+        player.join(2000);
+        assertFalse(player.isAlive());
+        assertEquals(-1, got.get());
+    }
+}
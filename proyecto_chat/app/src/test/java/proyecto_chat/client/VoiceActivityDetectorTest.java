@@ -0,0 +1,104 @@
+package proyecto_chat.client;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class VoiceActivityDetectorTest {
+    private static final int RATE = 16000;
+    private static final int FRAME_SAMPLES = 320; // 20 ms
+
+    private static byte[] frame(int[] samples) {
+        byte[] pcm = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            pcm[2 * i] = (byte) samples[i];
+            pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return pcm;
+    }
+
+    // Seno con ese valor eficaz
+    private static byte[] sine(double hz, double rms) {
+        int[] s = new int[FRAME_SAMPLES];
+        for (int i = 0; i < s.length; i++) s[i] = (int) (rms * Math.sqrt(2) * Math.sin(2 * Math.PI * hz * i / RATE));
+        return frame(s);
+    }
+
+    // Cambia de signo en cada muestra, como una s o una f: muchos cruces y poca energía
+    private static byte[] hiss(double rms) {
+        int[] s = new int[FRAME_SAMPLES];
+        for (int i = 0; i < s.length; i++) s[i] = (int) ((i & 1) == 0 ? rms : -rms);
+        return frame(s);
+    }
+
+    private static boolean speech(VoiceActivityDetector vad, byte[] pcm) {
+        return vad.isSpeech(pcm, pcm.length);
+    }
+
+    @Test
+    void digitalSilenceIsNeverSpeech() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(0);
+        for (int i = 0; i < 50; i++) assertFalse(speech(vad, new byte[FRAME_SAMPLES * 2]));
+        assertFalse(vad.isSpeech(new byte[1], 1));
+        assertFalse(vad.isSpeech(new byte[0], 0));
+    }
+
+    @Test
+    void loudToneIsSpeech() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(0);
+        for (int i = 0; i < 20; i++) speech(vad, new byte[FRAME_SAMPLES * 2]);
+        assertTrue(speech(vad, sine(200, 3000)));
+    }
+
+    @Test
+    void hangoverKeepsSendingAfterTheLastSpeechFrame() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(3);
+        byte[] quiet = new byte[FRAME_SAMPLES * 2];
+        assertTrue(speech(vad, sine(200, 3000)));
+        for (int i = 0; i < 3; i++) assertTrue(speech(vad, quiet), "frame " + i + " de cola");
+        assertFalse(speech(vad, quiet));
+    }
+
+    @Test
+    void adaptsToSteadyBackgroundNoise() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(0);
+        Random random = new Random(3);
+        int[] s = new int[FRAME_SAMPLES];
+        boolean last = true;
+        // Ruido blanco a unos -30 dBov: al principio pasa por voz, después se aprende como fondo
+        for (int f = 0; f < 300; f++) {
+            for (int i = 0; i < s.length; i++) s[i] = (int) (random.nextGaussian() * 1000);
+            last = speech(vad, frame(s));
+        }
+        assertFalse(last);
+        assertEquals(30, vad.noiseLevel(), 2);
+        // Una frase por encima del ruido se sigue detectando
+        assertTrue(speech(vad, sine(200, 10000)));
+    }
+
+    @Test
+    void noiseFloorDoesNotSwallowALongPhrase() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(0);
+        for (int i = 0; i < 20; i++) speech(vad, new byte[FRAME_SAMPLES * 2]);
+        // Dos segundos de voz seguida a nivel constante
+        for (int f = 0; f < 100; f++) assertTrue(speech(vad, sine(200, 3000)), "frame " + f);
+    }
+
+    @Test
+    void weakUnvoicedSoundsCountOnlyWithManyCrossings() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(0);
+        for (int f = 0; f < 200; f++) speech(vad, sine(100, 1000));
+        // 5 dB sobre el fondo: no alcanza por energía, sí si cruza mucho por cero
+        double weak = 1000 * Math.pow(10, 5 / 20.0);
+        assertFalse(speech(vad, sine(100, weak)));
+        assertTrue(speech(vad, hiss(weak)));
+    }
+
+    @Test
+    void noiseLevelStaysInRange() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(0);
+        for (int f = 0; f < 100; f++) speech(vad, new byte[FRAME_SAMPLES * 2]);
+        assertTrue(vad.noiseLevel() >= 0 && vad.noiseLevel() <= 127);
+        assertTrue(vad.noiseLevel() > 60, "nivel " + vad.noiseLevel());
+    }
+}
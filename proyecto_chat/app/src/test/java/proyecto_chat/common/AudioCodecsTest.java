@@ -0,0 +1,192 @@
+package proyecto_chat.common;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioCodecsTest {
+
+    // Tono de 440 Hz a 16 kHz, PCM de 16 bits little-endian
+    private static byte[] tone(int samples, int amplitude) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short s = (short) (amplitude * Math.sin(2 * Math.PI * 440 * i / 16000.0));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    private static short sample(byte[] pcm, int i) {
+        return (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+    }
+
+    private static byte[] roundTrip(AudioCodec encoder, AudioCodec decoder, byte[] pcm) {
+        byte[] encoded = new byte[encoder.maxEncodedSize(pcm.length)];
+        int n = encoder.encode(pcm, 0, pcm.length, encoded, 0);
+        assertTrue(n <= encoded.length, "excede maxEncodedSize");
+        byte[] decoded = new byte[decoder.maxDecodedSize(n)];
+        int m = decoder.decode(encoded, 0, n, decoded, 0);
+        assertEquals(pcm.length, m);
+        return decoded;
+    }
+
+    @Test
+    void pcmIsCopiedAsIs() {
+        AudioCodec pcm = AudioCodecs.create(AudioCodecs.PCM);
+        byte[] in = tone(320, 20000);
+        byte[] out = roundTrip(pcm, pcm, in);
+        for (int i = 0; i < 320; i++) assertEquals(sample(in, i), sample(out, i));
+    }
+
+    @Test
+    void muLawHalvesTheSize() {
+        AudioCodec ulaw = AudioCodecs.create(AudioCodecs.ULAW);
+        assertEquals(320, ulaw.maxEncodedSize(640));
+        byte[] encoded = new byte[320];
+        assertEquals(320, ulaw.encode(tone(320, 10000), 0, 640, encoded, 0));
+    }
+
+    @Test
+    void muLawErrorStaysWithinItsStep() {
+        AudioCodec ulaw = new MuLawCodec();
+        byte[] in = tone(800, 30000);
+        byte[] out = roundTrip(ulaw, ulaw, in);
+        for (int i = 0; i < 800; i++) {
+            int s = sample(in, i);
+            // µ-law cuantiza con error relativo de ~1/16 más un piso cerca de cero
+            assertTrue(Math.abs(s - sample(out, i)) <= Math.abs(s) / 16 + 8, "muestra " + i);
+        }
+    }
+
+    @Test
+    void muLawSamplesAreStable() {
+        // Decodificar y volver a codificar da el mismo byte (salvo el cero negativo, que es 0x7F)
+        for (int b = 0; b < 256; b++) {
+            if (b == 0x7F) continue;
+            assertEquals((byte) b, MuLawCodec.encodeSample(MuLawCodec.decodeSample((byte) b)), "byte " + b);
+        }
+        assertEquals(MuLawCodec.encodeSample(32767), MuLawCodec.encodeSample(40000));
+    }
+
+    @Test
+    void muLawDropsAnOddTrailingByte() {
+        AudioCodec ulaw = new MuLawCodec();
+        byte[] encoded = new byte[8];
+        assertEquals(2, ulaw.encode(new byte[5], 0, 5, encoded, 0));
+    }
+
+    @Test
+    void adpcmQuartersTheSize() {
+        AudioCodec adpcm = AudioCodecs.create(AudioCodecs.ADPCM);
+        byte[] encoded = new byte[adpcm.maxEncodedSize(640)];
+        assertEquals(ImaAdpcmCodec.HEADER + 160, adpcm.encode(tone(320, 10000), 0, 640, encoded, 0));
+    }
+
+    @Test
+    void adpcmTracksATone() {
+        AudioCodec encoder = new ImaAdpcmCodec();
+        AudioCodec decoder = new ImaAdpcmCodec();
+        // Varios paquetes seguidos: el encabezado lleva el estado, el decodificador no guarda nada
+        for (int packet = 0; packet < 5; packet++) {
+            byte[] in = tone(320, 12000);
+            byte[] out = roundTrip(encoder, decoder, in);
+            double err = 0, signal = 0;
+            for (int i = 0; i < 320; i++) {
+                double d = sample(in, i) - sample(out, i);
+                err += d * d;
+                signal += (double) sample(in, i) * sample(in, i);
+            }
+            assertTrue(10 * Math.log10(signal / err) > 15, "SNR del paquete " + packet);
+        }
+    }
+
+    @Test
+    void adpcmOddSampleCountsSetThePaddingFlag() {
+        for (int samples : new int[] { 1, 2, 3, 159, 160, 161 }) {
+            AudioCodec encoder = new ImaAdpcmCodec();
+            byte[] in = tone(samples, 8000);
+            byte[] encoded = new byte[encoder.maxEncodedSize(in.length)];
+            int n = encoder.encode(in, 0, in.length, encoded, 0);
+            assertEquals(ImaAdpcmCodec.HEADER + (samples + 1) / 2, n, samples + " muestras");
+            assertEquals(samples & 1, encoded[3] & 1, "flag con " + samples + " muestras");
+
+            byte[] out = new byte[new ImaAdpcmCodec().maxDecodedSize(n)];
+            assertEquals(in.length, new ImaAdpcmCodec().decode(encoded, 0, n, out, 0));
+        }
+    }
+
+    @Test
+    void adpcmPacketsDecodeOutOfOrder() {
+        AudioCodec encoder = new ImaAdpcmCodec();
+        byte[][] packets = new byte[3][];
+        byte[][] expected = new byte[3][];
+        AudioCodec inOrder = new ImaAdpcmCodec();
+        for (int i = 0; i < 3; i++) {
+            byte[] in = tone(160, 9000 + 3000 * i);
+            packets[i] = new byte[encoder.maxEncodedSize(in.length)];
+            int n = encoder.encode(in, 0, in.length, packets[i], 0);
+            expected[i] = new byte[in.length];
+            inOrder.decode(packets[i], 0, n, expected[i], 0);
+        }
+        // Sin el primero y al revés, cada paquete da lo mismo
+        AudioCodec decoder = new ImaAdpcmCodec();
+        for (int i = 2; i >= 1; i--) {
+            byte[] out = new byte[expected[i].length];
+            decoder.decode(packets[i], 0, packets[i].length, out, 0);
+            assertArrayEquals(expected[i], out);
+        }
+    }
+
+    @Test
+    void adpcmIgnoresShortPackets() {
+        assertEquals(0, new ImaAdpcmCodec().decode(new byte[3], 0, 3, new byte[16], 0));
+        assertEquals(0, new ImaAdpcmCodec().maxDecodedSize(2));
+    }
+
+    @Test
+    void adpcmClampsFullScaleInput() {
+        AudioCodec codec = new ImaAdpcmCodec();
+        byte[] in = new byte[400];
+        for (int i = 0; i < 200; i++) {
+            short s = (i / 20) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            in[2 * i] = (byte) s;
+            in[2 * i + 1] = (byte) (s >> 8);
+        }
+        byte[] out = roundTrip(codec, new ImaAdpcmCodec(), in);
+        // Si desbordara, la onda cuadrada cambiaría de signo dentro de un mismo tramo
+        assertTrue(sample(out, 19) > 0);
+        assertTrue(sample(out, 39) < 0);
+    }
+
+    @Test
+    void createKnowsEveryOfferedCodec() {
+        for (String name : AudioCodecs.offer().split(",")) {
+            AudioCodec codec = AudioCodecs.create(name);
+            assertNotNull(codec, name);
+            assertEquals(name, codec.name());
+            assertEquals(name, AudioCodecs.nameOf(AudioCodecs.id(name)));
+        }
+        assertEquals(AudioCodecs.ULAW, AudioCodecs.create(" ULaw ").name());
+        assertNull(AudioCodecs.create("opus"));
+        assertNull(AudioCodecs.create(null));
+        assertEquals(AudioCodecs.PCM, AudioCodecs.nameOf(99));
+        assertEquals(0, AudioCodecs.id("opus"));
+    }
+
+    @Test
+    void chooseTakesTheBestCommonCodec() {
+        assertEquals(AudioCodecs.ADPCM, AudioCodecs.choose(AudioCodecs.offer()));
+        // Manda la preferencia propia, no el orden de la oferta
+        assertEquals(AudioCodecs.ADPCM, AudioCodecs.choose("pcm,ulaw,adpcm"));
+        assertEquals(AudioCodecs.ULAW, AudioCodecs.choose(" PCM , ULAW "));
+        assertEquals(AudioCodecs.PCM, AudioCodecs.choose("pcm"));
+    }
+
+    @Test
+    void chooseFallsBackToPcm() {
+        assertEquals(AudioCodecs.PCM, AudioCodecs.choose(null));
+        assertEquals(AudioCodecs.PCM, AudioCodecs.choose(""));
+        assertEquals(AudioCodecs.PCM, AudioCodecs.choose("  "));
+        assertEquals(AudioCodecs.PCM, AudioCodecs.choose("opus,speex"));
+    }
+}
@@ -0,0 +1,55 @@
+package proyecto_chat.common;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CallProfileTest {
+
+    @Test
+    void withoutAnOfferFallsBackToLegacy() {
+        assertSame(CallProfile.LEGACY, CallProfile.choose(null, CallProfile.WB20));
+        assertSame(CallProfile.LEGACY, CallProfile.choose("", CallProfile.WB20));
+        assertSame(CallProfile.LEGACY, CallProfile.choose(" ", CallProfile.WB20));
+    }
+
+    @Test
+    void prefersItsOwnProfileWhenOffered() {
+        assertSame(CallProfile.WB10, CallProfile.choose("wb20,wb10,nb20", CallProfile.WB10));
+        assertSame(CallProfile.NB20, CallProfile.choose(" wb20 , nb20 ", CallProfile.NB20));
+    }
+
+    @Test
+    void otherwiseTakesTheFirstKnownOffered() {
+        assertSame(CallProfile.NB20, CallProfile.choose("uwb20,NB20,wb20", CallProfile.WB10));
+        assertSame(CallProfile.LEGACY, CallProfile.choose("uwb20,swb10", CallProfile.WB20));
+    }
+
+    @Test
+    void offerRoundTripsThroughChoose() {
+        for (CallProfile preferred : CallProfile.all()) {
+            String offer = CallProfile.offer(preferred);
+            assertTrue(offer.startsWith(preferred.name() + ","), offer);
+            assertEquals(CallProfile.all().size(), offer.split(",").length);
+            // Quien acepta con otra preferencia elige la suya; con la misma, la del que llama
+            assertSame(preferred, CallProfile.choose(offer, preferred));
+            assertSame(CallProfile.WB20, CallProfile.choose(offer, CallProfile.WB20));
+        }
+    }
+
+    @Test
+    void forNameIgnoresCaseAndSpaces() {
+        for (CallProfile p : CallProfile.all()) assertSame(p, CallProfile.forName(" " + p.name().toUpperCase() + " "));
+        assertNull(CallProfile.forName("opus"));
+        assertNull(CallProfile.forName(null));
+    }
+
+    @Test
+    void frameSizes() {
+        assertEquals(640, CallProfile.WB20.frameBytes());
+        assertEquals(20.0, CallProfile.WB20.frameMillis(), 1e-9);
+        assertEquals(10.0, CallProfile.WB10.frameMillis(), 1e-9);
+        assertEquals(20.0, CallProfile.NB20.frameMillis(), 1e-9);
+        // El formato anterior: bloques de 4096 bytes a 44.1 kHz
+        assertEquals(4096, CallProfile.LEGACY.frameBytes());
+    }
+}
@@ -0,0 +1,110 @@
+package proyecto_chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FramedMessageStreamTest {
+
+    // Lado servidor sobre bytes ya escritos por el cliente; la respuesta queda en reply
+    private static FramedMessageStream accept(byte[] fromClient, ByteArrayOutputStream reply) throws IOException {
+        return FramedMessageStream.accept(new ByteArrayInputStream(fromClient), reply);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = new byte[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    @Test
+    void currentClientAndServerAgreeOnTheBinaryCodec() throws Exception {
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Object> received = CompletableFuture.supplyAsync(() -> {
+                try (Socket s = ss.accept();
+                     FramedMessageStream server = FramedMessageStream.accept(s.getInputStream(), s.getOutputStream())) {
+                    assertEquals(MessageFrames.VERSION_BINARY, server.getVersion());
+                    String username = (String) server.readObject();
+                    Message m = (Message) server.readObject();
+                    server.writeObject(new Message(Message.MessageType.TEXT, "server", username, "eco: " + m.getTextContent()));
+                    return m;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            try (Socket s = new Socket(InetAddress.getLoopbackAddress(), ss.getLocalPort());
+                 FramedMessageStream client = FramedMessageStream.connect(s.getInputStream(), s.getOutputStream())) {
+                assertEquals(MessageFrames.VERSION_MAX, client.getVersion());
+                client.writeObject("alice");
+                client.writeObject(new Message(Message.MessageType.TEXT, "alice", "bob", "hola"));
+                Message echo = (Message) client.readObject();
+                assertEquals("eco: hola", echo.getTextContent());
+                assertEquals("alice", echo.getRecipient());
+            }
+            assertEquals("hola", ((Message) received.get(2, TimeUnit.SECONDS)).getTextContent());
+        }
+    }
+
+    @Test
+    void versionOneClientGetsNoReplyAndSerializedFrames() throws Exception {
+        Message m = new Message(Message.MessageType.TEXT, "alice", "bob", "hola");
+        byte[] fromClient = concat(MessageFrames.handshake(MessageFrames.VERSION_SERIALIZED),
+                MessageFrames.encode(m, MessageFrames.VERSION_SERIALIZED));
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+
+        FramedMessageStream server = accept(fromClient, reply);
+        assertEquals(MessageFrames.VERSION_SERIALIZED, server.getVersion());
+        // El cliente viejo no espera el byte de versión: lo primero que recibe es una trama
+        assertEquals(0, reply.size());
+        assertEquals("hola", ((Message) server.readObject()).getTextContent());
+
+        server.writeObject(m);
+        assertArrayEquals(MessageFrames.encode(m, MessageFrames.VERSION_SERIALIZED), reply.toByteArray());
+    }
+
+    @Test
+    void newerClientIsOfferedTheHighestKnownVersion() throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        FramedMessageStream server = accept(MessageFrames.handshake((byte) 7), reply);
+        assertEquals(MessageFrames.VERSION_MAX, server.getVersion());
+        assertArrayEquals(new byte[] { MessageFrames.VERSION_MAX }, reply.toByteArray());
+    }
+
+    @Test
+    void invalidHandshakesAreRejected() {
+        byte[] noMagic = MessageFrames.handshake(MessageFrames.VERSION_BINARY);
+        noMagic[0] = 'X';
+        assertThrows(IOException.class, () -> accept(noMagic, new ByteArrayOutputStream()));
+        assertThrows(IOException.class, () -> accept(MessageFrames.handshake((byte) 0), new ByteArrayOutputStream()));
+        // Handshake cortado
+        assertThrows(IOException.class, () -> accept(new byte[] { 'C', 'H' }, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void clientRejectsAnUnknownVersionFromTheServer() {
+        byte[] fromServer = { (byte) (MessageFrames.VERSION_MAX + 1) };
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        assertThrows(IOException.class,
+                () -> FramedMessageStream.connect(new ByteArrayInputStream(fromServer), sent));
+        assertArrayEquals(MessageFrames.handshake(MessageFrames.VERSION_MAX), sent.toByteArray());
+    }
+
+    @Test
+    void oversizeFrameIsRejectedBeforeReadingIt() throws IOException {
+        byte[] length = new byte[MessageFrames.HEADER_SIZE];
+        MessageFrames.writeLength(length, 0, MessageFrames.MAX_FRAME_SIZE + 1);
+        FramedMessageStream server = accept(concat(MessageFrames.handshake(MessageFrames.VERSION_BINARY), length),
+                new ByteArrayOutputStream());
+        IOException e = assertThrows(IOException.class, server::readObject);
+        assertTrue(e.getMessage().contains("Trama inválida"), e.getMessage());
+    }
+}
@@ -0,0 +1,187 @@
+package proyecto_chat.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+
+    private static Message roundTrip(Message m) throws IOException {
+        byte[] body = MessageCodec.encode(m);
+        return (Message) MessageCodec.decode(body, 0, body.length);
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getRecipient(), actual.getRecipient());
+        assertArrayEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getFileName(), actual.getFileName());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+
+    @Test
+    void textMessageRoundTrips() throws IOException {
+        Message m = new Message(Message.MessageType.TEXT, "alice", "bob", "hola, ¿cómo vas? ñandú 🎉");
+        Message decoded = roundTrip(m);
+        assertSameMessage(m, decoded);
+        assertEquals(m.getTextContent(), decoded.getTextContent());
+    }
+
+    @Test
+    void everyTypeRoundTrips() throws IOException {
+        for (Message.MessageType type : Message.MessageType.values()) {
+            Message m = new Message(type, "a", "b", "x");
+            assertSameMessage(m, roundTrip(m));
+        }
+    }
+
+    @Test
+    void voiceNoteRoundTrips() throws IOException {
+        byte[] audio = new byte[32 * 1024];
+        for (int i = 0; i < audio.length; i++) audio[i] = (byte) (i * 31);
+        Message m = new Message(Message.MessageType.VOICE_NOTE, "alice", "equipo", audio, "nota.wav");
+        assertSameMessage(m, roundTrip(m));
+    }
+
+    @Test
+    void canonicalUuidIdTakesSixteenBytes() throws IOException {
+        Message m = new Message(Message.MessageType.TEXT, "a", "b", "x");
+        Message other = new Message(Message.MessageType.TEXT, "no-es-un-uuid", "a", "b",
+                "x".getBytes(StandardCharsets.UTF_8), null, m.getTimestamp());
+        // tipo + flags + 16 bytes de id + 3 campos cortos + null + timestamp
+        assertEquals(2 + 16 + 2 + 2 + 2 + 1 + 8, MessageCodec.encode(m).length);
+        assertSameMessage(other, roundTrip(other));
+    }
+
+    @Test
+    void nonCanonicalUuidKeepsItsSpelling() throws IOException {
+        // En mayúsculas no se comprime: al decodificar volvería en minúsculas
+        String id = "123E4567-E89B-12D3-A456-426614174000";
+        Message m = new Message(Message.MessageType.TEXT, id, "a", "b", new byte[0], null, 1L);
+        assertEquals(id, roundTrip(m).getId());
+    }
+
+    @Test
+    void nullFieldsStayNull() throws IOException {
+        Message m = new Message(Message.MessageType.CALL_END, null, null, null, null, null, 0L);
+        Message decoded = roundTrip(m);
+        assertNull(decoded.getId());
+        assertNull(decoded.getSender());
+        assertNull(decoded.getRecipient());
+        assertNull(decoded.getContent());
+        assertNull(decoded.getFileName());
+    }
+
+    @Test
+    void emptyContentStaysEmpty() throws IOException {
+        Message empty = new Message(Message.MessageType.TEXT, "id", "a", "b", new byte[0], null, 1L);
+        assertArrayEquals(new byte[0], roundTrip(empty).getContent());
+    }
+
+    @Test
+    void extremeTimestampsRoundTrip() throws IOException {
+        for (long ts : new long[] { Long.MIN_VALUE, -1L, 0L, Long.MAX_VALUE }) {
+            Message m = new Message(Message.MessageType.TEXT, "id", "a", "b", new byte[0], null, ts);
+            assertEquals(ts, roundTrip(m).getTimestamp());
+        }
+    }
+
+    @Test
+    void varintLengthBoundaries() throws IOException {
+        // La longitud va como varint(n + 1): hasta 126 bytes ocupa uno, desde 127 dos, desde 16383 tres
+        int[] lengths = { 0, 1, 125, 126, 127, 128, 16382, 16383, 16384, 2_097_151, 2_097_152 };
+        for (int n : lengths) {
+            byte[] content = new byte[n];
+            Arrays.fill(content, (byte) 'x');
+            Message m = new Message(Message.MessageType.TEXT, "id", "a", "b", content, null, 1L);
+            byte[] body = MessageCodec.encode(m);
+            assertSameMessage(m, (Message) MessageCodec.decode(body, 0, body.length));
+
+            int overhead = body.length - n;
+            int expectedVarint = n + 1 < (1 << 7) ? 1 : n + 1 < (1 << 14) ? 2 : n + 1 < (1 << 21) ? 3 : 4;
+            assertEquals(2 + 3 + 2 + 2 + 1 + 8 + expectedVarint, overhead, "longitud " + n);
+        }
+    }
+
+    @Test
+    void decodesAtAnOffset() throws IOException {
+        Message m = new Message(Message.MessageType.TEXT, "alice", "bob", "hola");
+        byte[] body = MessageCodec.encode(m);
+        byte[] padded = new byte[body.length + 10];
+        System.arraycopy(body, 0, padded, 7, body.length);
+        assertSameMessage(m, (Message) MessageCodec.decode(padded, 7, body.length));
+    }
+
+    @Test
+    void stringRoundTrips() throws IOException {
+        for (String s : new String[] { "", "alice", "ñandú 🎉" }) {
+            byte[] body = MessageCodec.encode(s);
+            assertEquals(s, MessageCodec.decode(body, 0, body.length));
+        }
+    }
+
+    @Test
+    void unsupportedObjectIsRejected() {
+        assertThrows(IOException.class, () -> MessageCodec.encode(42));
+    }
+
+    @Test
+    void emptyFrameIsRejected() {
+        assertThrows(IOException.class, () -> MessageCodec.decode(new byte[0], 0, 0));
+    }
+
+    @Test
+    void unknownTypeIsRejected() {
+        assertThrows(IOException.class, () -> MessageCodec.decode(new byte[] { 0x50, 0 }, 0, 2));
+        assertThrows(IOException.class, () -> MessageCodec.decode(new byte[] { (byte) 0x80, 0 }, 0, 2));
+    }
+
+    @Test
+    void everyTruncationIsRejected() throws IOException {
+        Message m = new Message(Message.MessageType.TEXT, "alice", "bob", "hola");
+        byte[] body = MessageCodec.encode(m);
+        for (int len = 1; len < body.length; len++) {
+            int n = len;
+            assertThrows(IOException.class, () -> MessageCodec.decode(body, 0, n), "largo " + n);
+        }
+    }
+
+    @Test
+    void overlongVarintIsRejected() {
+        byte[] body = { 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01 };
+        assertThrows(IOException.class, () -> MessageCodec.decode(body, 0, body.length));
+    }
+
+    @Test
+    void negativeVarintLengthIsRejected() {
+        // Cinco bytes que dan -1 como longitud
+        byte[] body = { 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };
+        assertThrows(IOException.class, () -> MessageCodec.decode(body, 0, body.length));
+    }
+
+    @Test
+    void framesCarryTheBodyLength() throws Exception {
+        Message m = new Message(Message.MessageType.TEXT, "alice", "bob", "hola");
+        for (byte version : new byte[] { MessageFrames.VERSION_SERIALIZED, MessageFrames.VERSION_BINARY }) {
+            byte[] frame = MessageFrames.encode(m, version);
+            int len = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+            assertEquals(frame.length - MessageFrames.HEADER_SIZE, len);
+            Message decoded = (Message) MessageFrames.decode(frame, MessageFrames.HEADER_SIZE, len, version);
+            assertSameMessage(m, decoded);
+        }
+    }
+
+    @Test
+    void versionNegotiation() {
+        assertEquals(-1, MessageFrames.negotiate((byte) 0));
+        assertEquals(MessageFrames.VERSION_SERIALIZED, MessageFrames.negotiate(MessageFrames.VERSION_SERIALIZED));
+        assertEquals(MessageFrames.VERSION_BINARY, MessageFrames.negotiate(MessageFrames.VERSION_BINARY));
+        assertEquals(MessageFrames.VERSION_MAX, MessageFrames.negotiate((byte) 9));
+        assertFalse(MessageFrames.expectsReply(MessageFrames.VERSION_SERIALIZED));
+        assertTrue(MessageFrames.expectsReply(MessageFrames.VERSION_BINARY));
+    }
+}
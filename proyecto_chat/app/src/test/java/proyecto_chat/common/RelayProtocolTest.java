@@ -0,0 +1,73 @@
+package proyecto_chat.common;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelayProtocolTest {
+
+    @Test
+    void registerLayout() {
+        String callId = "7f1c3a52-1d0e-4b7a-9c51-0a2b3c4d5e6f";
+        byte[] p = RelayProtocol.register(callId, AudioCodecs.ADPCM, 48000);
+        int idLen = callId.length();
+        assertEquals(3 + idLen + 3, p.length);
+        assertEquals(RelayProtocol.REGISTER, RelayProtocol.type(p, p.length));
+        assertEquals(idLen, p[2] & 0xFF);
+        assertEquals(callId, new String(p, 3, idLen, StandardCharsets.UTF_8));
+        assertEquals(AudioCodecs.id(AudioCodecs.ADPCM), p[3 + idLen]);
+        assertEquals(48000, ((p[4 + idLen] & 0xFF) << 8) | (p[5 + idLen] & 0xFF));
+    }
+
+    @Test
+    void registerRejectsLongCallIds() {
+        String ok = "x".repeat(RelayProtocol.MAX_CALL_ID_BYTES);
+        assertEquals(RelayProtocol.MAX_CALL_ID_BYTES, RelayProtocol.register(ok, AudioCodecs.PCM, 8000)[2] & 0xFF);
+        // Se cuenta en bytes UTF-8, no en caracteres
+        String tooLong = "ñ".repeat(RelayProtocol.MAX_CALL_ID_BYTES / 2 + 1);
+        assertThrows(IllegalArgumentException.class, () -> RelayProtocol.register(tooLong, AudioCodecs.PCM, 8000));
+    }
+
+    @Test
+    void audioHeaderRoundTrips() {
+        byte[] p = new byte[RelayProtocol.AUDIO_HEADER + 4];
+        int[] tokens = { 0, 1, 0x7FFFFFFF, 0x80000000, -1 };
+        for (int token : tokens) {
+            RelayProtocol.writeHeader(p, RelayProtocol.AUDIO, token);
+            RelayProtocol.writeSequence(p, 65535, Integer.MIN_VALUE);
+            assertEquals(RelayProtocol.AUDIO, RelayProtocol.type(p, p.length));
+            assertEquals(token, RelayProtocol.readToken(p));
+            assertEquals(65535, RelayProtocol.readSeq(p));
+            assertEquals(Integer.MIN_VALUE, RelayProtocol.readTimestamp(p));
+        }
+    }
+
+    @Test
+    void sourceIsIndependentOfSequence() {
+        byte[] p = new byte[RelayProtocol.AUDIO_HEADER];
+        RelayProtocol.writeHeader(p, RelayProtocol.AUDIO, 42);
+        RelayProtocol.writeSequence(p, 7, 1234);
+        // Lo que manda el cliente va con fuente 0; el relay la cambia sin tocar el resto
+        assertEquals(RelayProtocol.MIX_SOURCE, RelayProtocol.readSource(p));
+        RelayProtocol.writeSource(p, 65535);
+        assertEquals(65535, RelayProtocol.readSource(p));
+        assertEquals(42, RelayProtocol.readToken(p));
+        assertEquals(7, RelayProtocol.readSeq(p));
+        assertEquals(1234, RelayProtocol.readTimestamp(p));
+    }
+
+    @Test
+    void sequenceKeepsSixteenBits() {
+        byte[] p = new byte[RelayProtocol.AUDIO_HEADER];
+        RelayProtocol.writeSequence(p, 65536 + 3, 0);
+        assertEquals(3, RelayProtocol.readSeq(p));
+    }
+
+    @Test
+    void versionOnePacketsAreNotVersionTwo() {
+        // En la versión 1 el paquete empieza con la longitud del callId en 4 bytes (el primero en 0)
+        byte[] v1 = { 0, 0, 0, 36, 'a' };
+        assertEquals(-1, RelayProtocol.type(v1, v1.length));
+        assertEquals(-1, RelayProtocol.type(new byte[] { RelayProtocol.MAGIC }, 1));
+    }
+}
@@ -0,0 +1,205 @@
+package proyecto_chat.server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import proyecto_chat.client.RelaySession;
+import proyecto_chat.common.AudioCodecs;
+import proyecto_chat.common.RelayProtocol;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CallRelayTest {
+    private static final int SHARDS = 4;
+
+    private CallRelay relay;
+    private final List<DatagramSocket> sockets = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        for (DatagramSocket s : sockets) s.close();
+        if (relay != null) relay.close();
+    }
+
+    private void start(int shards) {
+        relay = new CallRelay(0, shards);
+        Thread t = new Thread(relay, "relay-test");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private DatagramSocket client() throws IOException {
+        DatagramSocket s = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        s.setSoTimeout(2000);
+        sockets.add(s);
+        return s;
+    }
+
+    private InetSocketAddress relayAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), relay.getPort());
+    }
+
+    private int register(DatagramSocket s, String callId) throws IOException {
+        byte[] reg = RelayProtocol.register(callId, AudioCodecs.PCM, 16000);
+        s.send(new DatagramPacket(reg, reg.length, relayAddress()));
+        byte[] in = new byte[64];
+        DatagramPacket ack = new DatagramPacket(in, in.length);
+        s.receive(ack);
+        assertEquals(RelayProtocol.ACK, RelayProtocol.type(in, ack.getLength()));
+        return RelayProtocol.readToken(in);
+    }
+
+    private void sendAudio(DatagramSocket s, int token, int seq) throws IOException {
+        byte[] p = new byte[RelayProtocol.AUDIO_HEADER + 4];
+        RelayProtocol.writeHeader(p, RelayProtocol.AUDIO, token);
+        RelayProtocol.writeSequence(p, seq, seq * 320);
+        p[RelayProtocol.AUDIO_HEADER] = (byte) seq;
+        s.send(new DatagramPacket(p, p.length, relayAddress()));
+    }
+
+    // Devuelve la fuente que escribió el relay y comprueba la secuencia
+    private static int receiveAudio(DatagramSocket s, int seq) throws IOException {
+        byte[] in = new byte[256];
+        DatagramPacket packet = new DatagramPacket(in, in.length);
+        s.receive(packet);
+        assertEquals(RelayProtocol.AUDIO, RelayProtocol.type(in, packet.getLength()));
+        assertEquals(seq, RelayProtocol.readSeq(in));
+        assertEquals((byte) seq, in[RelayProtocol.AUDIO_HEADER]);
+        return RelayProtocol.readSource(in);
+    }
+
+    private static void assertSilent(DatagramSocket s) throws IOException {
+        s.setSoTimeout(200);
+        assertThrows(SocketTimeoutException.class, () -> s.receive(new DatagramPacket(new byte[256], 256)));
+        s.setSoTimeout(2000);
+    }
+
+    private String callOnShard(int shard, int skip) {
+        for (int i = 0; ; i++) {
+            String callId = "llamada-" + i;
+            if (relay.shardOf(callId) == shard && skip-- == 0) return callId;
+        }
+    }
+
+    private void awaitForwarded(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (relay.getForwarded() < expected && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    }
+
+    @Test
+    void forwardsToTheOtherParticipantsWithTheSenderSource() throws Exception {
+        start(1);
+        DatagramSocket a = client(), b = client(), c = client();
+        int token = register(a, "c1");
+        assertEquals(token, register(b, "c1"));
+        assertEquals(token, register(c, "c1"));
+        assertNotEquals(token, register(client(), "c2"));
+
+        sendAudio(a, token, 7);
+        int fromA = receiveAudio(b, 7);
+        assertEquals(fromA, receiveAudio(c, 7));
+        sendAudio(b, token, 500);
+        int fromB = receiveAudio(a, 500);
+        assertEquals(fromB, receiveAudio(c, 500));
+        assertNotEquals(RelayProtocol.MIX_SOURCE, fromA);
+        assertNotEquals(fromA, fromB);
+        assertSilent(a);
+    }
+
+    @Test
+    void byeWithTheTokenLeavesTheCall() throws Exception {
+        start(1);
+        DatagramSocket a = client(), b = client();
+        int token = register(a, "c1");
+        register(b, "c1");
+        byte[] bye = new byte[RelayProtocol.TOKEN_HEADER];
+        RelayProtocol.writeHeader(bye, RelayProtocol.BYE, token);
+        b.send(new DatagramPacket(bye, bye.length, relayAddress()));
+        long deadline = System.currentTimeMillis() + 2000;
+        // El BYE de b no cierra la llamada: queda a
+        while (relay.getReceived() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        Thread.sleep(50);
+        sendAudio(a, token, 1);
+        assertSilent(b);
+        assertEquals(1, relay.getCallCount());
+        // Un token desconocido se ignora
+        sendAudio(b, token ^ 0x10000, 2);
+        assertSilent(a);
+    }
+
+    @Test
+    void eachCallIsHandledByTheShardOfItsCallId() throws Exception {
+        start(SHARDS);
+        assertEquals(SHARDS, relay.getShardCount());
+        String first = callOnShard(2, 0), second = callOnShard(2, 1);
+
+        // Varios remitentes (el kernel los reparte entre los sockets) en dos llamadas del shard 2
+        List<DatagramSocket> members = new ArrayList<>();
+        int[] tokens = new int[2];
+        for (int call = 0; call < 2; call++) {
+            for (int i = 0; i < 3; i++) {
+                DatagramSocket s = client();
+                members.add(s);
+                tokens[call] = register(s, call == 0 ? first : second);
+            }
+        }
+        int packets = 0;
+        for (int call = 0; call < 2; call++) {
+            for (int i = 0; i < 3; i++) {
+                DatagramSocket sender = members.get(call * 3 + i);
+                sendAudio(sender, tokens[call], 10 * i);
+                for (int j = 0; j < 3; j++) {
+                    if (j != i) receiveAudio(members.get(call * 3 + j), 10 * i);
+                }
+                packets += 2;
+            }
+        }
+        awaitForwarded(packets);
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertEquals(shard == 2 ? packets : 0, relay.getForwarded(shard), "shard " + shard);
+        }
+        assertEquals(0, relay.getDropped());
+    }
+
+    @Test
+    void largestFrameArrivesWholeAndLargerOnesAreRejected() throws Exception {
+        start(1);
+        DatagramSocket b = client();
+        try (RelaySession a = RelaySession.open("127.0.0.1", relay.getPort(), 0, "c1", AudioCodecs.PCM, 16000)) {
+            register(b, "c1");
+            byte[] frame = new byte[RelayProtocol.MAX_AUDIO_PAYLOAD + 1];
+            Arrays.fill(frame, (byte) 7);
+            a.sendAudio(1, 0, frame, 0, RelayProtocol.MAX_AUDIO_PAYLOAD);
+
+            byte[] in = new byte[RelayProtocol.MAX_DATAGRAM + 1];
+            DatagramPacket packet = new DatagramPacket(in, in.length);
+            b.receive(packet);
+            assertEquals(RelayProtocol.MAX_DATAGRAM, packet.getLength());
+            assertEquals(7, in[RelayProtocol.MAX_DATAGRAM - 1]);
+
+            // Cortarlo mandaría audio a medias: se rechaza sin enviar nada
+            assertThrows(IllegalArgumentException.class, () -> a.sendAudio(2, 320, frame, 0, frame.length));
+            assertSilent(b);
+        }
+    }
+
+    @Test
+    void shardOfSpreadsCalls() {
+        start(SHARDS);
+        int[] perShard = new int[SHARDS];
+        // Los callId son UUID como los que arma el cliente
+        for (int i = 0; i < 400; i++) {
+            String callId = UUID.nameUUIDFromBytes(new byte[] { (byte) i, (byte) (i >> 8) }).toString();
+            perShard[relay.shardOf(callId)]++;
+        }
+        for (int n : perShard) assertTrue(n > 50, Arrays.toString(perShard));
+    }
+}
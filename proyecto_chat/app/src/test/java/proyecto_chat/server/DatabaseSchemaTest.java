@@ -0,0 +1,180 @@
+package proyecto_chat.server;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseSchemaTest {
+    private static final int USERS = 40;
+
+    @TempDir
+    Path dir;
+
+    private Connection conn;
+
+    @BeforeEach
+    void open() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("chat_history.db"));
+        DatabaseSchema.configure(conn);
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        conn.close();
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Statement s = conn.createStatement(); ResultSet rs = s.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    private List<String> indexes() throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement s = conn.createStatement();
+             ResultSet rs = s.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name LIKE 'idx_%' ORDER BY name")) {
+            while (rs.next()) names.add(rs.getString(1));
+        }
+        return names;
+    }
+
+    @Test
+    void migratesAnEmptyDatabaseOnce() throws SQLException {
+        assertEquals(DatabaseSchema.latestVersion(), DatabaseSchema.migrate(conn));
+        assertEquals(DatabaseSchema.latestVersion(), queryLong("PRAGMA user_version"));
+        assertEquals(List.of("idx_group_members_user", "idx_messages_pair_ts_id", "idx_messages_recipient_ts_id",
+                "idx_visibility_user"), indexes());
+        // Sin ANALYZE en las migraciones: con la base vacía solo dejaría estadísticas engañosas
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM sqlite_master WHERE name = 'sqlite_stat1'"));
+
+        assertEquals(DatabaseSchema.latestVersion(), DatabaseSchema.migrate(conn));
+        assertTrue(conn.getAutoCommit());
+    }
+
+    @Test
+    void upgradesADatabaseFromBeforeVersioning() throws SQLException {
+        // Base creada por la versión sin user_version: solo las tablas y un mensaje
+        try (Statement s = conn.createStatement()) {
+            s.executeUpdate("CREATE TABLE messages (id TEXT PRIMARY KEY, type TEXT, sender TEXT, recipient TEXT, "
+                    + "is_group INTEGER, text_content TEXT, file_path TEXT, timestamp INTEGER)");
+            s.executeUpdate("CREATE TABLE message_visibility (message_id TEXT, username TEXT, "
+                    + "visible INTEGER DEFAULT 1, PRIMARY KEY(message_id, username))");
+            s.executeUpdate("INSERT INTO messages (id, type, sender, recipient, is_group, text_content, timestamp) "
+                    + "VALUES ('m1', 'TEXT', 'alice', 'bob', 0, 'hola', 1)");
+        }
+        assertEquals(0, queryLong("PRAGMA user_version"));
+
+        DatabaseSchema.migrate(conn);
+        assertEquals(DatabaseSchema.latestVersion(), queryLong("PRAGMA user_version"));
+        assertEquals(1, queryLong("SELECT COUNT(*) FROM messages"));
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM groups"));
+        assertFalse(indexes().contains("idx_messages_pair_ts"), "el índice sin id lo reemplaza la migración 3");
+        assertTrue(indexes().contains("idx_messages_pair_ts_id"));
+    }
+
+    @Test
+    void analyzesOnlyWhenStatisticsAreMissingOrStale() throws SQLException {
+        DatabaseSchema.migrate(conn);
+        assertFalse(DatabaseSchema.analyzeIfStale(conn), "con pocos mensajes no hace falta");
+
+        seed(0, 3000);
+        assertTrue(DatabaseSchema.analyzeIfStale(conn));
+        assertFalse(DatabaseSchema.analyzeIfStale(conn));
+
+        // Menos del doble: las estadísticas siguen sirviendo
+        seed(3000, 1000);
+        assertFalse(DatabaseSchema.analyzeIfStale(conn));
+        seed(4000, 4000);
+        assertTrue(DatabaseSchema.analyzeIfStale(conn));
+    }
+
+    @Test
+    void historyPagesWalkTheConversationIndex() throws SQLException {
+        DatabaseSchema.migrate(conn);
+        seed(0, 20_000);
+        DatabaseSchema.analyzeIfStale(conn);
+
+        for (boolean before : new boolean[] { false, true }) {
+            assertDrivenByConversation(plan(HistoryManager.pageQuery(false, before, false)), "idx_messages_pair_ts_id");
+            assertDrivenByConversation(plan(HistoryManager.pageQuery(true, before, false)), "idx_messages_recipient_ts_id");
+        }
+        assertDrivenByConversation(plan(HistoryManager.pageQuery(true, false, true)), "idx_messages_recipient_ts_id");
+        assertDrivenByConversation(plan(HistoryManager.pageQuery(false, false, true)), "idx_messages_pair_ts_id");
+    }
+
+    // El bucle externo recorre los mensajes de la conversación y la visibilidad se busca por
+    // mensaje; no al revés (todos los mensajes visibles del usuario y después ordenarlos)
+    private static void assertDrivenByConversation(String plan, String index) {
+        int messages = plan.indexOf("SEARCH m USING INDEX " + index);
+        int visibility = plan.indexOf("SEARCH v ");
+        assertTrue(messages >= 0 && visibility > messages, plan);
+        assertTrue(plan.contains("message_id=?"), plan);
+    }
+
+    private String plan(String query) throws SQLException {
+        StringBuilder out = new StringBuilder();
+        try (PreparedStatement ps = conn.prepareStatement("EXPLAIN QUERY PLAN " + query)) {
+            int params = ps.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= params; i++) ps.setString(i, "x");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.append(rs.getString("detail")).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    // Mensajes directos entre pares de USERS usuarios más un grupo con todos: cada usuario ve
+    // miles de mensajes y cada conversación tiene pocos, como en la base del benchmark
+    private void seed(int from, int count) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement s = conn.createStatement();
+             PreparedStatement msg = conn.prepareStatement(
+                "INSERT INTO messages (id,type,sender,recipient,is_group,text_content,timestamp) VALUES (?,'TEXT',?,?,?,?,?)");
+             PreparedStatement vis = conn.prepareStatement(
+                "INSERT INTO message_visibility (message_id, username, visible) VALUES (?, ?, 1)")) {
+            s.executeUpdate("INSERT OR IGNORE INTO groups(group_name) VALUES ('grupo')");
+            for (int i = from; i < from + count; i++) {
+                String id = "m" + i;
+                boolean group = i % 10 == 0;
+                String sender = "user" + (i % USERS);
+                String recipient = group ? "grupo" : "user" + ((i + 1 + (i / USERS) % (USERS - 1)) % USERS);
+                msg.setString(1, id);
+                msg.setString(2, sender);
+                msg.setString(3, recipient);
+                msg.setInt(4, group ? 1 : 0);
+                msg.setString(5, "texto " + i);
+                msg.setLong(6, i);
+                msg.addBatch();
+                if (group) {
+                    for (int u = 0; u < USERS; u++) {
+                        vis.setString(1, id);
+                        vis.setString(2, "user" + u);
+                        vis.addBatch();
+                    }
+                } else {
+                    for (String u : new String[] { sender, recipient }) {
+                        vis.setString(1, id);
+                        vis.setString(2, u);
+                        vis.addBatch();
+                    }
+                }
+            }
+            msg.executeBatch();
+            vis.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package proyecto_chat.server;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryPaginationTest {
+    private static final int PAGE = 4;
+
+    @TempDir
+    Path dir;
+
+    private HistoryManager history;
+
+    @BeforeEach
+    void open() throws Exception {
+        // Modo sync: cada mensaje ya está guardado cuando retorna saveTextMessage
+        history = HistoryManager.open(dir, 1024, 64, 1, true);
+    }
+
+    @AfterEach
+    void close() {
+        history.close();
+    }
+
+    private void save(String id, String sender, String recipient, long timestamp) {
+        history.saveTextMessage(id, sender, recipient, history.isGroup(recipient), "texto " + id, timestamp).join();
+    }
+
+    // Diez mensajes entre alice y bob; varios comparten timestamp y se ordenan por id
+    private List<String> seedConversation() {
+        List<String> ids = new ArrayList<>();
+        long[] timestamps = { 1, 2, 2, 2, 3, 4, 4, 5, 6, 6 };
+        for (int i = 0; i < timestamps.length; i++) {
+            String id = "m" + i;
+            save(id, i % 2 == 0 ? "alice" : "bob", i % 2 == 0 ? "bob" : "alice", timestamps[i]);
+            ids.add(id);
+        }
+        save("otro", "alice", "carol", 3);
+        return ids;
+    }
+
+    private record Row(String id, long timestamp) {
+        HistoryCursor cursor() {
+            return new HistoryCursor(timestamp, id);
+        }
+    }
+
+    private List<Row> page(String user, String target, HistoryCursor before, HistoryCursor after) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        history.fetchHistory(user, target, before, after, PAGE,
+                rs -> rows.add(new Row(rs.getString("id"), rs.getLong("timestamp"))));
+        return rows;
+    }
+
+    private static List<String> ids(List<Row> rows) {
+        return rows.stream().map(Row::id).toList();
+    }
+
+    @Test
+    void latestPageIsTheNewestInAscendingOrder() throws SQLException {
+        List<String> all = seedConversation();
+        assertEquals(all.subList(6, 10), ids(page("alice", "bob", null, null)));
+        assertEquals(all.subList(6, 10), ids(page("bob", "alice", null, null)));
+    }
+
+    @Test
+    void beforeCursorsWalkBackThroughTiesWithoutGapsOrRepeats() throws SQLException {
+        List<String> all = seedConversation();
+        List<String> seen = new ArrayList<>();
+        List<Row> rows = page("alice", "bob", null, null);
+        while (!rows.isEmpty()) {
+            seen.addAll(0, ids(rows));
+            rows = page("alice", "bob", rows.get(0).cursor(), null);
+        }
+        assertEquals(all, seen);
+    }
+
+    @Test
+    void afterCursorsWalkForward() throws SQLException {
+        List<String> all = seedConversation();
+        List<String> seen = new ArrayList<>();
+        // El cursor del mensaje m1 (timestamp 2) deja afuera a los anteriores a él, no a sus empates
+        List<Row> rows = page("alice", "bob", null, new HistoryCursor(2, "m1"));
+        while (!rows.isEmpty()) {
+            seen.addAll(ids(rows));
+            rows = page("alice", "bob", null, rows.get(rows.size() - 1).cursor());
+        }
+        assertEquals(all.subList(2, 10), seen);
+    }
+
+    @Test
+    void pagesOnlyShowMessagesVisibleToTheUser() throws SQLException {
+        seedConversation();
+        history.insertGroup("equipo");
+        history.insertGroupMember("equipo", "alice");
+        history.insertGroupMember("equipo", "bob");
+        save("g1", "alice", "equipo", 10);
+
+        assertEquals(List.of(), ids(page("carol", "bob", null, null)));
+        assertEquals(List.of("otro"), ids(page("carol", "alice", null, null)));
+        assertEquals(List.of("g1"), ids(page("bob", "equipo", null, null)));
+        assertEquals(List.of(), ids(page("carol", "equipo", null, null)));
+    }
+
+    private List<Long> since(String user, String target, long mark, int limit, List<String> ids) throws SQLException {
+        List<Long> seqs = new ArrayList<>();
+        history.fetchHistorySince(user, target, mark, limit, rs -> {
+            seqs.add(rs.getLong("seq"));
+            ids.add(rs.getString("id"));
+        });
+        return seqs;
+    }
+
+    @Test
+    void sinceReturnsWhatWasSavedAfterTheMarkInSaveOrder() throws SQLException {
+        seedConversation();
+        long mark = history.currentSequence();
+        assertTrue(mark > 0);
+
+        // Llegan tarde con timestamps viejos: el cursor por timestamp no los vería, la marca sí
+        save("tarde1", "bob", "alice", 1);
+        save("tarde2", "alice", "bob", 0);
+        save("ajeno", "carol", "alice", 7);
+
+        List<String> ids = new ArrayList<>();
+        List<Long> seqs = since("alice", "bob", mark, 100, ids);
+        assertEquals(List.of("tarde1", "tarde2"), ids);
+        assertTrue(seqs.get(0) > mark && seqs.get(1) > seqs.get(0));
+        assertEquals(history.currentSequence() - 1, seqs.get(1), "el último guardado es el ajeno");
+
+        // Con límite se sigue desde la última secuencia recibida
+        ids.clear();
+        List<Long> first = since("alice", "bob", mark, 1, ids);
+        since("alice", "bob", first.get(0), 1, ids);
+        assertEquals(List.of("tarde1", "tarde2"), ids);
+
+        ids.clear();
+        assertEquals(List.of(), since("alice", "bob", history.currentSequence(), 100, ids));
+    }
+
+    @Test
+    void sinceInAGroupOnlyReturnsMessagesVisibleToTheMember() throws SQLException {
+        history.insertGroup("equipo");
+        history.insertGroupMember("equipo", "alice");
+        history.insertGroupMember("equipo", "bob");
+        save("g1", "alice", "equipo", 1);
+        long mark = history.currentSequence();
+        save("g2", "bob", "equipo", 2);
+
+        List<String> ids = new ArrayList<>();
+        since("alice", "equipo", mark, 100, ids);
+        assertEquals(List.of("g2"), ids);
+        ids.clear();
+        since("carol", "equipo", 0, 100, ids);
+        assertEquals(List.of(), ids);
+    }
+
+    @Test
+    void cursorTextRoundTrips() {
+        HistoryCursor c = HistoryCursor.parse("42:6f1c-id:con:dos-puntos");
+        assertEquals(42, c.timestamp);
+        assertEquals("6f1c-id:con:dos-puntos", c.id);
+        assertEquals("42:6f1c-id:con:dos-puntos", c.toString());
+        assertNull(HistoryCursor.parse(" "));
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.parse("sin-separador"));
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.parse("x:id"));
+    }
+}
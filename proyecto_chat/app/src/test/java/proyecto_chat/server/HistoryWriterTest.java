@@ -0,0 +1,134 @@
+package proyecto_chat.server;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryWriterTest {
+    private static final int BATCH = 10;
+
+    @TempDir
+    Path dir;
+
+    private HistoryManager history;
+
+    @AfterEach
+    void close() {
+        if (history != null) history.close();
+    }
+
+    // Espera larga: los mensajes encolados seguidos van al mismo lote
+    private HistoryWriter open(long lingerMs, boolean sync) throws Exception {
+        history = HistoryManager.open(dir, 1024, BATCH, lingerMs, sync);
+        return history.getWriter();
+    }
+
+    private static void await(List<CompletableFuture<Void>> saved) throws Exception {
+        CompletableFuture.allOf(saved.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+    }
+
+    private List<String> visibleTo(String id) throws SQLException {
+        return history.withReader(c -> {
+            List<String> users = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT username FROM message_visibility WHERE message_id = ? ORDER BY username")) {
+                ps.setString(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) users.add(rs.getString(1));
+                }
+            }
+            return users;
+        });
+    }
+
+    private String recipientOf(String id) throws SQLException {
+        return history.withReader(c -> {
+            try (PreparedStatement ps = c.prepareStatement("SELECT recipient FROM messages WHERE id = ?")) {
+                ps.setString(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getString(1) : null;
+                }
+            }
+        });
+    }
+
+    @Test
+    void groupsQueuedMessagesIntoBatches() throws Exception {
+        HistoryWriter writer = open(500, false);
+        List<CompletableFuture<Void>> saved = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            saved.add(writer.enqueue("m" + i, "alice", "bob", false, "texto " + i, i));
+        }
+        await(saved);
+        assertEquals(25, writer.getWritten());
+        assertEquals(3, writer.getBatches(), "25 mensajes en lotes de " + BATCH);
+        assertEquals(0, writer.getFailed());
+        assertEquals(List.of("alice", "bob"), visibleTo("m24"));
+    }
+
+    @Test
+    void groupMessagesAreVisibleToTheMembers() throws Exception {
+        HistoryWriter writer = open(5, false);
+        history.insertGroup("equipo");
+        for (String u : new String[] { "alice", "bob", "carol" }) history.insertGroupMember("equipo", u);
+
+        writer.enqueue("g1", "alice", "equipo", true, "hola equipo", 1).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("alice", "bob", "carol"), visibleTo("g1"));
+    }
+
+    @Test
+    void duplicateIdKeepsTheFirstMessageAndItsVisibility() throws Exception {
+        HistoryWriter writer = open(500, false);
+        List<CompletableFuture<Void>> saved = new ArrayList<>();
+        saved.add(writer.enqueue("m1", "alice", "bob", false, "hola", 1));
+        // Mismo id en el mismo lote y en uno posterior, con otro destinatario
+        saved.add(writer.enqueue("m1", "alice", "mallory", false, "hola", 1));
+        await(saved);
+        writer.enqueue("m1", "alice", "mallory", false, "hola", 1).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, writer.getWritten());
+        assertEquals(2, writer.getDuplicates());
+        assertEquals("bob", recipientOf("m1"));
+        assertEquals(List.of("alice", "bob"), visibleTo("m1"));
+    }
+
+    @Test
+    void shutdownSavesWhatIsQueuedAndRejectsLaterMessages() throws Exception {
+        HistoryWriter writer = open(1000, false);
+        List<CompletableFuture<Void>> saved = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            saved.add(writer.enqueue("m" + i, "alice", "bob", false, "texto " + i, i));
+        }
+        history.close();
+        HistoryManager closed = history;
+        history = null;
+
+        await(saved); // ya completados: el cierre espera al escritor
+        assertEquals(15, writer.getWritten());
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> closed.saveTextMessage("tarde", "alice", "bob", false, "tarde", 99).get(1, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+
+        history = HistoryManager.open(dir, 1024, BATCH, 5, false);
+        assertEquals(List.of("alice", "bob"), visibleTo("m14"));
+        assertNull(recipientOf("tarde"));
+    }
+
+    @Test
+    void syncModeReturnsOnceTheBatchIsCommitted() throws Exception {
+        open(5, true);
+        CompletableFuture<Void> saved = history.saveTextMessage("m1", "alice", "bob", false, "hola", 1);
+        assertTrue(saved.isDone());
+        assertEquals("bob", recipientOf("m1"));
+    }
+}
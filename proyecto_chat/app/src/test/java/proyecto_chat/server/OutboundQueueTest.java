@@ -0,0 +1,116 @@
+package proyecto_chat.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import proyecto_chat.common.Message;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+    private static final int CAPACITY = 3;
+
+    // El escritor se traba en el primer mensaje hasta release, así la cola se llena
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private OutboundQueue queue;
+
+    @AfterEach
+    void close() {
+        release.countDown();
+        if (queue != null) queue.close();
+    }
+
+    private OutboundQueue start(SlowConsumerPolicy policy) throws InterruptedException {
+        queue = new OutboundQueue(CAPACITY, policy, m -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.add(m.getMessage().getTextContent());
+        }, disconnects::incrementAndGet);
+        queue.start("salida-test");
+        assertTrue(queue.offer(text("en curso")));
+        assertTrue(writing.await(2, TimeUnit.SECONDS));
+        return queue;
+    }
+
+    private static OutboundMessage text(String body) {
+        return new OutboundMessage(new Message(Message.MessageType.TEXT, "alice", "bob", body));
+    }
+
+    private static OutboundMessage control(String body) {
+        return new OutboundMessage(new Message(Message.MessageType.CALL_END, "alice", "bob", body));
+    }
+
+    private void awaitWritten(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (written.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    }
+
+    @Test
+    void dropOldestKeepsTheNewest() throws Exception {
+        start(SlowConsumerPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) assertTrue(queue.offer(text("m" + i)));
+        assertEquals(CAPACITY, queue.depth());
+
+        release.countDown();
+        awaitWritten(4);
+        assertEquals(List.of("en curso", "m3", "m4", "m5"), written);
+        assertEquals(0, disconnects.get());
+    }
+
+    @Test
+    void disconnectClosesTheQueue() throws Exception {
+        start(SlowConsumerPolicy.DISCONNECT);
+        for (int i = 1; i <= CAPACITY; i++) assertTrue(queue.offer(text("m" + i)));
+        assertFalse(queue.offer(text("de más")));
+        assertEquals(1, disconnects.get());
+        assertEquals(0, queue.depth());
+        assertFalse(queue.offer(text("después")), "una cola cerrada no acepta más");
+    }
+
+    @Test
+    void spillSkipsPersistedMessagesAndMakesRoomForControl() throws Exception {
+        start(SlowConsumerPolicy.SPILL_TO_HISTORY);
+        for (int i = 1; i <= CAPACITY; i++) assertTrue(queue.offer(text("m" + i)));
+        // El texto queda en el historial: no se entrega en vivo ni desplaza a otros
+        assertFalse(queue.offer(text("al historial")));
+        // Un mensaje de control no está en el historial: se descarta el más viejo
+        assertTrue(queue.offer(control("colgar")));
+
+        release.countDown();
+        awaitWritten(4);
+        assertEquals(List.of("en curso", "m2", "m3", "colgar"), written);
+        assertEquals(0, disconnects.get());
+    }
+
+    @Test
+    void spillFallsBackToDisconnectForClientsWithoutHistory() {
+        assertSame(SlowConsumerPolicy.DISCONNECT, SlowConsumerPolicy.SPILL_TO_HISTORY.forClient(false));
+        assertSame(SlowConsumerPolicy.SPILL_TO_HISTORY, SlowConsumerPolicy.SPILL_TO_HISTORY.forClient(true));
+        assertSame(SlowConsumerPolicy.DROP_OLDEST, SlowConsumerPolicy.DROP_OLDEST.forClient(false));
+    }
+
+    @Test
+    void writerFailureClosesTheConnection() throws Exception {
+        queue = new OutboundQueue(CAPACITY, SlowConsumerPolicy.DROP_OLDEST, m -> {
+            throw new IllegalStateException("falla al codificar");
+        }, disconnects::incrementAndGet);
+        queue.start("salida-test");
+        assertTrue(queue.offer(text("m1")));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (disconnects.get() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(1, disconnects.get());
+        assertFalse(queue.offer(text("m2")));
+    }
+}
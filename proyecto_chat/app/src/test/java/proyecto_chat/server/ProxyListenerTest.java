@@ -0,0 +1,84 @@
+package proyecto_chat.server;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProxyListenerTest {
+
+    /** Writer de la conexión que recuerda si se cerró. */
+    private static final class Connection extends StringWriter {
+        boolean closed;
+
+        @Override
+        public void write(String str, int off, int len) {
+            if (closed) throw new IllegalStateException("conexión cerrada");
+            super.write(str, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    void smallResponseIsWrittenAtOnceOnComplete() throws IOException {
+        Connection out = new Connection();
+        ReentrantLock lock = new ReentrantLock();
+        try (ProxyListener.ResponseWriter response = new ProxyListener.ResponseWriter(out, lock, 64)) {
+            response.write("{\"status\":");
+            assertEquals("", out.toString(), "mientras entra en el buffer no se envía nada");
+            assertFalse(lock.isLocked());
+            response.write("\"ok\"}\n");
+            response.complete();
+            assertTrue(response.isSent());
+        }
+        assertEquals("{\"status\":\"ok\"}\n", out.toString());
+        assertFalse(lock.isLocked());
+        assertFalse(out.closed);
+    }
+
+    @Test
+    void failureBeforeSpillingSendsNothing() throws IOException {
+        Connection out = new Connection();
+        ReentrantLock lock = new ReentrantLock();
+        ProxyListener.ResponseWriter response = new ProxyListener.ResponseWriter(out, lock, 64);
+        response.write("{\"messages\":[{\"id\":");
+        response.close(); // sin complete(): falló la consulta
+        assertFalse(response.isSent());
+        assertEquals("", out.toString());
+        assertFalse(out.closed, "la conexión sigue servible para la línea de error");
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    void spilledResponseKeepsTheLockUntilClosed() throws IOException {
+        Connection out = new Connection();
+        ReentrantLock lock = new ReentrantLock();
+        try (ProxyListener.ResponseWriter response = new ProxyListener.ResponseWriter(out, lock, 8)) {
+            response.write("{\"messages\":[");
+            assertTrue(lock.isHeldByCurrentThread());
+            response.write("1,2]}\n");
+            response.complete();
+        }
+        assertEquals("{\"messages\":[1,2]}\n", out.toString());
+        assertFalse(lock.isLocked());
+        assertFalse(out.closed);
+    }
+
+    @Test
+    void failureAfterSpillingClosesTheConnection() throws IOException {
+        Connection out = new Connection();
+        ReentrantLock lock = new ReentrantLock();
+        ProxyListener.ResponseWriter response = new ProxyListener.ResponseWriter(out, lock, 8);
+        response.write("{\"messages\":[{\"id\":");
+        response.close();
+        assertTrue(response.isSent());
+        // La línea quedó a medias: se cierra antes de soltar el lock para que nadie escriba detrás
+        assertTrue(out.closed);
+        assertFalse(lock.isLocked());
+    }
+}
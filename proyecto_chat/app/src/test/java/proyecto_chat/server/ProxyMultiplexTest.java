@@ -0,0 +1,153 @@
+package proyecto_chat.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProxyMultiplexTest {
+    private static final int USERS = 20;
+
+    @TempDir
+    Path dir;
+
+    private Server server;
+    private ProxyListener listener;
+    private ServerSocket ss;
+    private Socket socket;
+    private Writer out;
+    private BufferedReader in;
+
+    @BeforeEach
+    void open() throws Exception {
+        server = new Server(0);
+        server.open(HistoryManager.open(dir, 1024, 256, 5, false));
+        listener = new ProxyListener(0, server);
+
+        // Una conexión del proxy: el listener la atiende en su hilo como si la hubiera aceptado
+        ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        socket = new Socket(InetAddress.getLoopbackAddress(), ss.getLocalPort());
+        socket.setSoTimeout(5000);
+        Socket accepted = ss.accept();
+        Thread t = new Thread(() -> listener.handleConnection(accepted), "proxy-test");
+        t.setDaemon(true);
+        t.start();
+        out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        socket.close();
+        ss.close();
+        listener.shutdown(1000);
+        server.shutdown();
+    }
+
+    private void send(JSONObject req) throws IOException {
+        out.write(req + "\n");
+        out.flush();
+    }
+
+    private JSONObject receive() throws IOException {
+        String line = in.readLine();
+        assertNotNull(line, "la conexión se cerró");
+        return new JSONObject(line);
+    }
+
+    private static JSONObject request(String action, String username) {
+        return new JSONObject().put("action", action).put("username", username);
+    }
+
+    private Map<Object, JSONObject> receiveByReqId(int count) throws IOException {
+        Map<Object, JSONObject> byId = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            JSONObject resp = receive();
+            assertNull(byId.put(resp.get("req_id"), resp), "req_id repetido: " + resp);
+        }
+        return byId;
+    }
+
+    @Test
+    void pipelinedRequestsGetTheirOwnResponses() throws IOException {
+        for (int i = 0; i < USERS; i++) {
+            server.getCore().registerUser("user" + i);
+            server.getCore().createGroup("grupo" + i);
+            server.getCore().joinGroup("user" + i, "grupo" + i);
+        }
+        // Se envían todas sin esperar; las respuestas pueden volver en cualquier orden
+        for (int i = 0; i < USERS; i++) send(request("list_groups", "user" + i).put("req_id", i));
+
+        Map<Object, JSONObject> byId = receiveByReqId(USERS);
+        for (int i = 0; i < USERS; i++) {
+            JSONObject resp = byId.get(i);
+            assertEquals("ok", resp.getString("status"), resp.toString());
+            assertEquals(List.of("grupo" + i), resp.getJSONArray("groups").toList());
+        }
+    }
+
+    @Test
+    void requestsWithoutReqIdAreAnsweredInOrder() throws IOException {
+        out.write("esto no es JSON\n");
+        send(request("no_existe", "alice"));
+        send(request("login", "alice"));
+        send(request("list_groups", null));
+
+        JSONObject parse = receive();
+        assertEquals("error", parse.getString("status"));
+        assertEquals("unknown action", receive().getString("message"));
+        assertEquals("ok", receive().getString("status"));
+        assertEquals("username required", receive().getString("message"));
+        assertFalse(parse.has("req_id"));
+    }
+
+    @Test
+    void errorsRepeatTheReqId() throws IOException {
+        send(request("fetch_history", "alice").put("req_id", "h1"));
+        send(request("fetch_history", "alice").put("recipient", "bob").put("before", "sin-separador")
+                .put("req_id", "h2"));
+
+        Map<Object, JSONObject> byId = receiveByReqId(2);
+        assertEquals("username and recipient required", byId.get("h1").getString("message"));
+        assertEquals("error", byId.get("h2").getString("status"));
+    }
+
+    @Test
+    void largeHistoryResponseIsNotInterleavedWithOthers() throws Exception {
+        // Una página que no entra en el buffer (chat.proxy.streamBufferKiB) sale directo al socket
+        String text = "x".repeat(1200);
+        List<CompletableFuture<?>> saved = new ArrayList<>();
+        for (int i = 0; i < ServerConfig.HISTORY_MAX_PAGE_SIZE; i++) {
+            saved.add(server.getCore().sendText(i % 2 == 0 ? "alice" : "bob", i % 2 == 0 ? "bob" : "alice", text + i));
+        }
+        CompletableFuture.allOf(saved.toArray(new CompletableFuture<?>[0])).join();
+
+        send(request("fetch_history", "alice").put("recipient", "bob")
+                .put("limit", ServerConfig.HISTORY_MAX_PAGE_SIZE).put("req_id", "historial"));
+        for (int i = 0; i < USERS; i++) send(request("login", "user" + i).put("req_id", i));
+
+        Map<Object, JSONObject> byId = receiveByReqId(USERS + 1);
+        JSONObject page = byId.get("historial");
+        assertEquals("ok", page.getString("status"));
+        assertEquals(ServerConfig.HISTORY_MAX_PAGE_SIZE, page.getJSONArray("messages").length());
+        assertTrue(page.getBoolean("has_more"));
+        for (int i = 0; i < USERS; i++) assertEquals("ok", byId.get(i).getString("status"));
+    }
+}
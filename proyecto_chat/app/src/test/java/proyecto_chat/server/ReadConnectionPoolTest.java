@@ -0,0 +1,166 @@
+package proyecto_chat.server;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadConnectionPoolTest {
+    @TempDir
+    Path dir;
+
+    private String url;
+    private Connection writer;
+    private ReadConnectionPool pool;
+
+    // Como HistoryManager: el escritor configura y migra la base, después se abre el pool
+    @BeforeEach
+    void open() throws SQLException {
+        url = "jdbc:sqlite:" + dir.resolve("chat_history.db");
+        writer = DriverManager.getConnection(url);
+        DatabaseSchema.configure(writer);
+        DatabaseSchema.migrate(writer);
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        if (pool != null) pool.close();
+        writer.close();
+    }
+
+    private void insertDirect(String id, String sender, String recipient, long timestamp) throws SQLException {
+        try (PreparedStatement msg = writer.prepareStatement(
+                "INSERT INTO messages (id,type,sender,recipient,is_group,text_content,timestamp) VALUES (?,'TEXT',?,?,0,?,?)");
+             PreparedStatement vis = writer.prepareStatement(
+                "INSERT INTO message_visibility (message_id, username, visible) VALUES (?, ?, 1)")) {
+            msg.setString(1, id);
+            msg.setString(2, sender);
+            msg.setString(3, recipient);
+            msg.setString(4, "texto " + id);
+            msg.setLong(5, timestamp);
+            msg.executeUpdate();
+            for (String user : new String[] { sender, recipient }) {
+                vis.setString(1, id);
+                vis.setString(2, user);
+                vis.executeUpdate();
+            }
+        }
+    }
+
+    private static long countMessages(Connection c) throws SQLException {
+        try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM messages")) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    @Test
+    void readersSeeCommittedRowsAndCannotWrite() throws SQLException {
+        pool = new ReadConnectionPool(url, 2);
+        insertDirect("m1", "alice", "bob", 1);
+        assertEquals(1L, pool.withConnection(ReadConnectionPoolTest::countMessages));
+        assertThrows(SQLException.class, () -> pool.withConnection(c -> {
+            try (Statement s = c.createStatement()) {
+                return s.executeUpdate("DELETE FROM messages");
+            }
+        }));
+        assertEquals(1, countMessages(writer));
+        assertEquals(2, pool.idleCount(), "la conexión vuelve al pool aunque falle");
+    }
+
+    @Test
+    void readDoesNotWaitForAnOpenWriteTransaction() throws SQLException {
+        pool = new ReadConnectionPool(url, 1);
+        insertDirect("m1", "alice", "bob", 1);
+        writer.setAutoCommit(false);
+        try {
+            insertDirect("m2", "alice", "bob", 2);
+            // Con WAL el lector ve la foto confirmada sin esperar al escritor
+            assertEquals(1L, pool.withConnection(ReadConnectionPoolTest::countMessages));
+            writer.commit();
+        } finally {
+            writer.setAutoCommit(true);
+        }
+        assertEquals(2L, pool.withConnection(ReadConnectionPoolTest::countMessages));
+    }
+
+    @Test
+    void exhaustedPoolWaitsForAConnection() throws Exception {
+        pool = new ReadConnectionPool(url, 1);
+        CountDownLatch borrowed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                pool.withConnection(c -> {
+                    borrowed.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holder.start();
+        assertTrue(borrowed.await(2, TimeUnit.SECONDS));
+        assertEquals(0, pool.idleCount());
+
+        AtomicLong count = new AtomicLong(-1);
+        Thread waiter = new Thread(() -> {
+            try {
+                count.set(pool.withConnection(ReadConnectionPoolTest::countMessages));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertTrue(waiter.isAlive(), "debería esperar a que se devuelva la conexión");
+
+        release.countDown();
+        waiter.join(2000);
+        holder.join(2000);
+        assertEquals(0L, count.get());
+        assertEquals(1, pool.idleCount());
+    }
+
+    @Test
+    void historyPagesOnAReadConnection() throws SQLException {
+        pool = new ReadConnectionPool(url, 1);
+        for (int i = 1; i <= 5; i++) insertDirect("ab" + i, i % 2 == 0 ? "bob" : "alice", i % 2 == 0 ? "alice" : "bob", i * 10L);
+        insertDirect("ac1", "alice", "carol", 25);
+
+        List<String> last = page("alice", "bob", null, 3);
+        assertEquals(List.of("ab3", "ab4", "ab5"), last);
+
+        List<String> older = page("bob", "alice", new HistoryCursor(30, "ab3"), 3);
+        assertEquals(List.of("ab1", "ab2"), older);
+
+        // Carol no ve la conversación de alice y bob
+        assertEquals(List.of(), page("carol", "bob", null, 10));
+    }
+
+    private List<String> page(String user, String target, HistoryCursor before, int limit) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        pool.withConnection(c -> {
+            HistoryManager.fetchHistory(c, user, target, before, null, limit, rs -> ids.add(rs.getString("id")));
+            return null;
+        });
+        return ids;
+    }
+}